@@ -18,26 +18,45 @@ is * Mule HBase Cloud Connector
 
 package org.mule.module.hbase;
 
+import java.io.Closeable;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
+import org.apache.commons.lang.Validate;
 import org.apache.hadoop.hbase.client.Result;
 //removed row level locking as it is been removed after Hbase 0.94 version. Please check https://issues.apache.org/jira/browse/HBASE-7315
 //import org.apache.hadoop.hbase.client.RowLock;
 import org.mule.api.annotations.Configurable;
 import org.mule.api.annotations.Module;
 import org.mule.api.annotations.Processor;
+import org.mule.api.annotations.Source;
 import org.mule.api.annotations.param.Default;
 import org.mule.api.annotations.param.Optional;
+import org.mule.api.callback.SourceCallback;
 import org.mule.api.lifecycle.InitialisationException;
+import org.mule.api.transport.OutputHandler;
+import org.mule.module.hbase.api.BatchPutResult;
 import org.mule.module.hbase.api.BloomFilterType;
+import org.mule.module.hbase.api.ColumnDecoding;
 import org.mule.module.hbase.api.CompressionType;
 import org.mule.module.hbase.api.HBaseService;
+import org.mule.module.hbase.api.HBaseServiceException;
+import org.mule.module.hbase.api.ScanOptions;
 import org.mule.module.hbase.api.impl.RPCHBaseService;
 import org.mule.wrapper.hbase.ResultWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * <p>
@@ -53,6 +72,8 @@ import org.mule.wrapper.hbase.ResultWrapper;
  */
 @Module(name = "hbase", schemaVersion = "2.0", friendlyName = "HBase")
 public class HbaseCloudConnector {
+	private static final Logger logger = LoggerFactory.getLogger(HbaseCloudConnector.class);
+
 	/** The HBaseService You may change it for mocking purposes */
 	@Configurable
 	@Optional
@@ -64,13 +85,28 @@ public class HbaseCloudConnector {
 	 * "hbase.zookeeper.quorum", "hbase.zookeeper.property.clientPort"
 	 * 
 	 * For more information please consult HBase documentation.
+	 * 
+	 * The connector own resources are tuned with the "mule.hbase.*" properties
+	 * described in {@link RPCHBaseService}, such as
+	 * "mule.hbase.table.pool.max.size" or
+	 * "mule.hbase.batch.executor.max.size".
 	 */
 	@Configurable
 	@Optional
 	private Map<String, String> properties;
 
+	/**
+	 * Tables whose region locations are loaded, and whose region servers are
+	 * contacted, while the connector is initialised, so that the first requests
+	 * after deployment are as fast as the following ones.
+	 */
+	@Configurable
+	@Optional
+	private List<String> warmupTables;
+
 	public HbaseCloudConnector() {
 		properties = Collections.emptyMap();
+		warmupTables = Collections.emptyList();
 	}
 
 	// ------------ Admin Processors
@@ -298,17 +334,25 @@ public class HbaseCloudConnector {
 	 *            the maximum number of versions to retrieved
 	 * @param timestamp
 	 *            the timestamp
+	 * @param filter
+	 *            only answers the values that pass this filter, evaluated by
+	 *            the region server. It is an expression of the HBase filter
+	 *            language, such as "ColumnPrefixFilter ('temp')" or
+	 *            "QualifierFilter (=, 'substring:max') OR ValueFilter (>, 'binary:100')"
 	 * @return the {@link Result}
 	 */
 	@Processor
 	public ResultWrapper getValues(final String tableName, final String rowKey,  @Optional final String columnFamilyName,
-			@Optional final String columnQualifier, @Optional final Integer maxVersions, @Optional final Long timestamp) {
-		return facade.get(tableName, rowKey, columnFamilyName, columnQualifier, maxVersions, timestamp);
+			@Optional final String columnQualifier, @Optional final Integer maxVersions, @Optional final Long timestamp,
+			@Optional final String filter) {
+		return facade.get(tableName, rowKey, columnFamilyName, columnQualifier, maxVersions, timestamp, filter);
 	}
 
 	/**
 	 * Saves a value at the specified (table, row, familyName, familyQualifier,
-	 * timestamp) combination
+	 * timestamp) combination. If the table is listed in the
+	 * "mule.hbase.write.buffer.tables" property, the value is buffered in the
+	 * client and sent later, together with other buffered values.
 	 * 
 	 * {@sample.xml ../../../doc/mule-module-hbase.xml.sample hbase:put-value}
 	 * 
@@ -336,6 +380,81 @@ public class HbaseCloudConnector {
 		facade.put(tableName, rowKey, columnFamilyName, columnQualifier, timestamp, value, writeToWAL);
 	}
 
+	/**
+	 * Answers the values of many rows of a table, fetching them in one multi
+	 * request per chunk instead of one request per row.
+	 * 
+	 * {@sample.xml ../../../doc/mule-module-hbase.xml.sample
+	 * hbase:get-values-batch}
+	 * 
+	 * @param tableName
+	 *            required the target table
+	 * @param rowKeys
+	 *            the keys of the rows to fetch, by default the message payload
+	 * @param columnFamilyName
+	 *            limits the fetch to a specific column family or null
+	 * @param columnQualifier
+	 *            limits the fetch to a specific column or null. Requires a
+	 *            columnFamilyName to be defined.
+	 * @param maxVersions
+	 *            the maximum number of versions to retrieved
+	 * @param timestamp
+	 *            the timestamp
+	 * @param chunkSize
+	 *            the maximum amount of rows fetched in a single request
+	 * @return one {@link ResultWrapper} per row key, in the same order than the
+	 *         keys. Missing rows answer an empty {@link ResultWrapper}
+	 */
+	@Processor
+	public List<ResultWrapper> getValuesBatch(final String tableName, @Optional @Default("#[payload]") final List<String> rowKeys,
+			@Optional final String columnFamilyName, @Optional final String columnQualifier, @Optional final Integer maxVersions,
+			@Optional final Long timestamp, @Optional @Default("100") final int chunkSize) {
+		return facade.getBatch(tableName, rowKeys, columnFamilyName, columnQualifier, maxVersions, timestamp, chunkSize);
+	}
+
+	/**
+	 * Sends the values buffered in the client by put-value for the given table,
+	 * or for every buffered table if no table is given. Tables are buffered
+	 * only when listed in the "mule.hbase.write.buffer.tables" property.
+	 * 
+	 * {@sample.xml ../../../doc/mule-module-hbase.xml.sample hbase:flush-table}
+	 * 
+	 * @param tableName
+	 *            the table whose buffered values are sent, or null for every
+	 *            table
+	 */
+	@Processor
+	public void flushTable(@Optional final String tableName) {
+		facade.flushCommits(tableName);
+	}
+
+	/**
+	 * Saves many values at once, sending them to the region servers in one multi
+	 * request per chunk instead of one request per value.
+	 * 
+	 * {@sample.xml ../../../doc/mule-module-hbase.xml.sample hbase:put-values}
+	 * 
+	 * @param tableName
+	 *            required the target table
+	 * @param records
+	 *            the values to put, by default the message payload. Each record
+	 *            is a map with the rowKey, columnFamilyName, columnQualifier and
+	 *            value entries, and an optional timestamp entry. Values follow the
+	 *            same rules than the ones of put-value.
+	 * @param writeToWAL
+	 *            set it to false means that in a fail scenario, you will lose
+	 *            any increments that have not been flushed.
+	 * @param chunkSize
+	 *            the maximum amount of records sent in a single request
+	 * @return the outcome of the batch, which lists the records that could not
+	 *         be written instead of failing the whole batch
+	 */
+	@Processor
+	public BatchPutResult putValues(final String tableName, @Optional @Default("#[payload]") final List<Map<String, Object>> records,
+			@Optional @Default("true") final boolean writeToWAL, @Optional @Default("100") final int chunkSize) {
+		return facade.putBatch(tableName, records, writeToWAL, chunkSize);
+	}
+
 	/**
 	 * 
 	 * Deletes the values at a given row {@sample.xml
@@ -404,10 +523,78 @@ public class HbaseCloudConnector {
 	 *            inclusive
 	 * @param stopRowKey
 	 *            limits the end of the scan to the specified row exclusive
+	 * @param filter
+	 *            only answers the rows and values that pass this filter,
+	 *            evaluated by the region servers so that discarded rows never
+	 *            reach Mule. It is an expression of the HBase filter language,
+	 *            combining filters such as PrefixFilter, ColumnPrefixFilter,
+	 *            QualifierFilter, ValueFilter and SingleColumnValueFilter with
+	 *            AND, OR, SKIP and WHILE. For example:
+	 *            "PrefixFilter ('2011') AND SingleColumnValueFilter ('data', 'city', =, 'binary:Paris')"
 	 * @param fetchSize
 	 *            the number of results internally fetched by request to the
 	 *            HBase server. Increase it for improving network efficiency, or
 	 *            decrease it for reducing memory usage
+	 * @param prefetchPages
+	 *            the number of pages fetched in background while the current
+	 *            page is processed, so that processing and fetching overlap on
+	 *            long scans. Set 0 for fetching a page only when it is needed.
+	 * @param prefetchMaxBytes
+	 *            the approximate amount of bytes of the prefetched pages above
+	 *            which no more pages are prefetched, 32 MB by default
+	 * @param parallelism
+	 *            the number of regions scanned at the same time. Set it above 1
+	 *            for splitting the scanned range at region boundaries and
+	 *            scanning the pieces concurrently, which speeds up long scans
+	 *            of tables spread over many region servers.
+	 * @param ordered
+	 *            whether the rows of a parallel scan are answered in row order.
+	 *            Set it to false for answering rows as soon as any region
+	 *            returns them.
+	 * @param streaming
+	 *            set it to true for answering a {@link ScanMessageSequence}:
+	 *            splitters then process each row as soon as it is fetched,
+	 *            without first copying the whole scan into memory. Such rows
+	 *            can be traversed only once, and their size is unknown.
+	 * @param checkpointId
+	 *            set it for checkpointing the scan: the key of the last row
+	 *            processed by the following processors is recorded under this
+	 *            id, and a later scan with the same id resumes after it. The
+	 *            checkpoint is cleared once every row was processed. Checkpointed
+	 *            scans are always streaming, and rows processed since the last
+	 *            saved checkpoint may be processed again after a failure.
+	 * @param checkpointInterval
+	 *            the number of processed rows between saved checkpoints
+	 * @param checkpointSliceMillis
+	 *            the milliseconds after which a checkpointed scan stops,
+	 *            saving its checkpoint, so that a long scan can be split into
+	 *            several bounded runs. Set 0 for reading every row. Once the
+	 *            rows were processed, for instance after a foreach,
+	 *            #[payload.completed] is false if the run stopped at its slice
+	 *            and rows are left for the next run.
+	 * @param adaptivePaging
+	 *            set it to true for adapting the number of rows of each page to
+	 *            the size of the rows and the time taken to fetch them, starting
+	 *            from fetchSize: pages grow for narrow rows and shrink for wide
+	 *            ones. The caching, unless given, is then decided by the region
+	 *            servers, which fill each response up to maxPageBytes.
+	 * @param maxPageBytes
+	 *            the approximate number of bytes of each page when paging is
+	 *            adaptive
+	 * @param small
+	 *            set it to true for short range scans of a few rows, which are
+	 *            then fetched by a single request instead of opening, reading
+	 *            and closing a scanner. Use it with a stopRowKey or a limit.
+	 * @param reversed
+	 *            set it to true for answering rows in descending order. The
+	 *            scan then starts at startRowKey, inclusive, and goes down to
+	 *            stopRowKey, exclusive, so that for instance the most recent
+	 *            rows of a time series are read first. Reversed scans can not
+	 *            scan regions in parallel.
+	 * @param limit
+	 *            the maximum number of rows answered. The scanner is closed as
+	 *            soon as they were answered, and no more rows than the limit are
+	 *            fetched. Set 0 for answering every row.
 	 * @return an Iterable of Result's. It may be used with a collection
 	 *         splitter.
 	 */
@@ -416,9 +603,105 @@ public class HbaseCloudConnector {
 			@Optional final String columnQualifier, @Optional final Long timestamp, @Optional final Long maxTimestamp,
 			@Optional final Integer caching, @Optional @Default("true") final boolean cacheBlocks,
 			@Optional @Default("1") final int maxVersions, @Optional final String startRowKey, @Optional final String stopRowKey,
-			@Optional @Default("50") int fetchSize) {
-		return facade.scan(tableName, columnFamilyName, columnQualifier, timestamp, maxTimestamp, caching, cacheBlocks, maxVersions,
-				startRowKey, stopRowKey, fetchSize);
+			@Optional final String filter, @Optional @Default("50") int fetchSize, @Optional @Default("0") final int prefetchPages,
+			@Optional final Long prefetchMaxBytes, @Optional @Default("1") final int parallelism,
+			@Optional @Default("true") final boolean ordered, @Optional @Default("false") final boolean streaming,
+			@Optional final String checkpointId, @Optional @Default("1000") final int checkpointInterval,
+			@Optional @Default("0") final long checkpointSliceMillis, @Optional @Default("false") final boolean adaptivePaging,
+			@Optional @Default("4194304") final long maxPageBytes, @Optional @Default("false") final boolean small,
+			@Optional @Default("false") final boolean reversed, @Optional @Default("0") final int limit) {
+		final ScanOptions options = new ScanOptions();
+		options.setFilter(filter);
+		options.setPrefetchPages(prefetchPages);
+		if (prefetchMaxBytes != null) {
+			options.setPrefetchMaxBytes(prefetchMaxBytes);
+		}
+		options.setParallelism(parallelism);
+		options.setOrdered(ordered);
+		options.setCheckpointId(checkpointId);
+		options.setCheckpointInterval(checkpointInterval);
+		options.setCheckpointSliceMillis(checkpointSliceMillis);
+		options.setAdaptivePaging(adaptivePaging);
+		options.setMaxPageBytes(maxPageBytes);
+		options.setSmall(small);
+		options.setReversed(reversed);
+		options.setLimit(limit);
+		final Iterable<Result> results = facade.scan(tableName, columnFamilyName, columnQualifier, timestamp, maxTimestamp, caching,
+				cacheBlocks, maxVersions, startRowKey, stopRowKey, fetchSize, options);
+		return streaming || checkpointId != null ? new ScanMessageSequence(results) : results;
+	}
+
+	/**
+	 * Scans a random sample of the rows of a table, for estimating counts and
+	 * distributions at a fraction of the cost of a full scan. Rows are sampled
+	 * by the region servers, so that discarded rows never reach Mule.
+	 * 
+	 * {@sample.xml ../../../doc/mule-module-hbase.xml.sample hbase:sample-table}
+	 * 
+	 * @param tableName
+	 *            the table to sample
+	 * @param samplingRate
+	 *            the approximate fraction of the rows kept, above 0 and up to 1
+	 * @param columnFamilyName
+	 *            limits the scan to a specific column family or null
+	 * @param columnQualifier
+	 *            limits the scan to a specific column or null. Requires a
+	 *            columnFamilyName to be defined.
+	 * @param startRowKey
+	 *            limits the beginning of the scan to the specified row
+	 *            inclusive
+	 * @param stopRowKey
+	 *            limits the end of the scan to the specified row exclusive
+	 * @param filter
+	 *            only samples the rows and values that pass this filter, an
+	 *            expression of the HBase filter language
+	 * @param fetchSize
+	 *            the number of sampled rows internally fetched by request to the
+	 *            HBase server
+	 * @return a {@link ScanSample} with the sampled rows and the sampling rate.
+	 *         Divide counts and sums over the sample by the sampling rate for
+	 *         estimating them over the whole table.
+	 */
+	@Processor
+	public ScanSample sampleTable(final String tableName, final float samplingRate,
+			@Optional final String columnFamilyName, @Optional final String columnQualifier,
+			@Optional final String startRowKey, @Optional final String stopRowKey, @Optional final String filter,
+			@Optional @Default("500") final int fetchSize) {
+		Validate.isTrue(samplingRate > 0 && samplingRate <= 1,
+				"The sampling rate must be above 0 and up to 1, but was " + samplingRate);
+		final ScanOptions options = new ScanOptions();
+		options.setFilter(filter);
+		options.setSamplingRate(samplingRate);
+		return new ScanSample(facade.scan(tableName, columnFamilyName, columnQualifier, null, null, null, false, 1,
+				startRowKey, stopRowKey, fetchSize, options), samplingRate);
+	}
+
+	/**
+	 * Counts the rows of a table. Only the first key of each row is scanned, so
+	 * no value travels back to Mule, and regions are counted in parallel.
+	 * 
+	 * {@sample.xml ../../../doc/mule-module-hbase.xml.sample hbase:count-rows}
+	 * 
+	 * @param tableName
+	 *            the table whose rows are counted
+	 * @param startRowKey
+	 *            counts the rows starting at the specified row inclusive
+	 * @param stopRowKey
+	 *            counts the rows until the specified row exclusive
+	 * @param filter
+	 *            counts only the rows that pass this filter, an expression of
+	 *            the HBase filter language
+	 * @param parallelism
+	 *            the number of regions counted at the same time
+	 * @param caching
+	 *            the number of rows fetched by each request to a region server
+	 * @return the number of rows
+	 */
+	@Processor
+	public long countRows(final String tableName, @Optional final String startRowKey, @Optional final String stopRowKey,
+			@Optional final String filter, @Optional @Default("4") final int parallelism,
+			@Optional @Default("10000") final int caching) {
+		return facade.countRows(tableName, startRowKey, stopRowKey, filter, parallelism, caching);
 	}
 
 	/**
@@ -538,6 +821,448 @@ public class HbaseCloudConnector {
 				deleteColumnQualifier, deleteTimestamp,deleteAllVersions);
 	}
 
+	// ------------ Export Processors
+
+	/**
+	 * Replaces the rows with a stream of JSON lines, one object per row, which
+	 * is written as it is read, such as when it is sent as an HTTP response.
+	 * Rows are read one at a time, so a streaming scan is exported in constant
+	 * memory. Each object has the row key in its rowKey field, followed by a
+	 * field for each column named family:qualifier, with the latest value of
+	 * the column.
+	 * 
+	 * {@sample.xml ../../../doc/mule-module-hbase.xml.sample
+	 * hbase:rows-to-json-lines}
+	 * 
+	 * @param rows
+	 *            a row, or the rows of a scan or a batch get, by default the
+	 *            message payload
+	 * @param columns
+	 *            the columns to write, as family:qualifier, or all the columns
+	 *            of each row if not given
+	 * @param decoding
+	 *            how values are decoded: STRING, BINARY, BASE64, LONG, INT,
+	 *            DOUBLE or BOOLEAN
+	 * @param columnDecodings
+	 *            how the values of specific columns are decoded, by
+	 *            family:qualifier, overriding the decoding
+	 * @return an output handler that writes the rows as JSON lines
+	 */
+	@Processor
+	public OutputHandler rowsToJsonLines(@Optional @Default("#[payload]") final Object rows,
+			@Optional final List<String> columns, @Optional @Default("STRING") final ColumnDecoding decoding,
+			@Optional final Map<String, String> columnDecodings) {
+		return new RowsOutputHandler(rows, RowsOutputHandler.Format.JSON_LINES, columns, decoding, columnDecodings);
+	}
+
+	/**
+	 * Replaces the rows with a stream of CSV, with a header of the columns and a
+	 * record per row, which is written as it is read, such as when it is sent
+	 * as an HTTP response. Rows are read one at a time, so a streaming scan is
+	 * exported in constant memory. The first field of each record is the row
+	 * key, followed by the latest value of each column, or nothing for columns
+	 * absent from the row.
+	 * 
+	 * {@sample.xml ../../../doc/mule-module-hbase.xml.sample hbase:rows-to-csv}
+	 * 
+	 * @param rows
+	 *            a row, or the rows of a scan or a batch get, by default the
+	 *            message payload
+	 * @param columns
+	 *            the columns to write, as family:qualifier, or the columns of
+	 *            the first row if not given
+	 * @param decoding
+	 *            how values are decoded: STRING, BINARY, BASE64, LONG, INT,
+	 *            DOUBLE or BOOLEAN
+	 * @param columnDecodings
+	 *            how the values of specific columns are decoded, by
+	 *            family:qualifier, overriding the decoding
+	 * @return an output handler that writes the rows as CSV
+	 */
+	@Processor
+	public OutputHandler rowsToCsv(@Optional @Default("#[payload]") final Object rows,
+			@Optional final List<String> columns, @Optional @Default("STRING") final ColumnDecoding decoding,
+			@Optional final Map<String, String> columnDecodings) {
+		return new RowsOutputHandler(rows, RowsOutputHandler.Format.CSV, columns, decoding, columnDecodings);
+	}
+
+	// ------------ Asynchronous Row Processors
+
+	/**
+	 * Starts fetching the values at the given row without waiting for them. The
+	 * answered future can be resolved later with await-results, so that many
+	 * independent requests run at the same time.
+	 * 
+	 * {@sample.xml ../../../doc/mule-module-hbase.xml.sample
+	 * hbase:get-values-async}
+	 * 
+	 * @param tableName
+	 *            required the target table
+	 * @param rowKey
+	 *            the key of the row to fetch
+	 * @param columnFamilyName
+	 *            limits the fetch to a specific column family or null
+	 * @param columnQualifier
+	 *            limits the fetch to a specific column or null. Requires a
+	 *            columnFamilyName to be defined.
+	 * @param maxVersions
+	 *            the maximum number of versions to retrieved
+	 * @param timestamp
+	 *            the timestamp
+	 * @return a future of the {@link ResultWrapper}
+	 */
+	@Processor
+	public Future<ResultWrapper> getValuesAsync(final String tableName, final String rowKey, @Optional final String columnFamilyName,
+			@Optional final String columnQualifier, @Optional final Integer maxVersions, @Optional final Long timestamp) {
+		return facade.getAsync(tableName, rowKey, columnFamilyName, columnQualifier, maxVersions, timestamp);
+	}
+
+	/**
+	 * Starts saving a value without waiting for it to be written. See put-value.
+	 * 
+	 * {@sample.xml ../../../doc/mule-module-hbase.xml.sample
+	 * hbase:put-value-async}
+	 * 
+	 * @param tableName
+	 *            required the target table
+	 * @param rowKey
+	 *            the key of the row to update
+	 * @param columnFamilyName
+	 *            the column family dimension
+	 * @param columnQualifier
+	 *            the column qualifier dimension
+	 * @param timestamp
+	 *            the version dimension
+	 * @param value
+	 *            the value to put. It must be either a byte array or a
+	 *            serializable object. As a special case, strings are saved
+	 *            always in standard utf-8 format.
+	 * @param writeToWAL
+	 *            set it to false means that in a fail scenario, you will lose
+	 *            any increments that have not been flushed.
+	 * @return a future that completes once the value is saved
+	 */
+	@Processor
+	public Future<Void> putValueAsync(final String tableName, final String rowKey, final String columnFamilyName,
+			final String columnQualifier, @Optional final Long timestamp, final Object value,
+			@Optional @Default("true") final boolean writeToWAL) {
+		return facade.putAsync(tableName, rowKey, columnFamilyName, columnQualifier, timestamp, value, writeToWAL);
+	}
+
+	/**
+	 * Starts deleting the values at a given row without waiting for them to be
+	 * deleted. See delete-values.
+	 * 
+	 * {@sample.xml ../../../doc/mule-module-hbase.xml.sample
+	 * hbase:delete-values-async}
+	 * 
+	 * @param tableName
+	 *            the name of the target table
+	 * @param rowKey
+	 *            the key of the row to delete
+	 * @param columnFamilyName
+	 *            set null to delete all column families in the specified row
+	 * @param columnQualifier
+	 *            the qualifier of the column values to delete, or null for all
+	 *            the qualifiers of the column family
+	 * @param timestamp
+	 *            the timestamp of the values to delete
+	 * @param deleteAllVersions
+	 *            if all versions should be deleted,or only those more recent
+	 *            than the timestamp
+	 * @return a future that completes once the values are deleted
+	 */
+	@Processor
+	public Future<Void> deleteValuesAsync(final String tableName, final String rowKey, @Optional final String columnFamilyName,
+			@Optional final String columnQualifier, @Optional final Long timestamp,
+			@Optional @Default("false") final boolean deleteAllVersions) {
+		return facade.deleteAsync(tableName, rowKey, columnFamilyName, columnQualifier, timestamp, deleteAllVersions);
+	}
+
+	/**
+	 * Starts an atomic increment without waiting for it. See increment-value.
+	 * 
+	 * {@sample.xml ../../../doc/mule-module-hbase.xml.sample
+	 * hbase:increment-value-async}
+	 * 
+	 * @param tableName
+	 *            the name of the table that contains the cell to increment.
+	 * @param rowKey
+	 *            the row key that contains the cell to increment.
+	 * @param columnFamilyName
+	 *            the column family of the cell to increment.
+	 * @param columnQualifier
+	 *            the column qualifier of the cell to increment.
+	 * @param amount
+	 *            the amount to increment the cell with (or decrement, if the
+	 *            amount is negative).
+	 * @param writeToWAL
+	 *            set it to false means that in a fail scenario, you will lose
+	 *            any increments that have not been flushed.
+	 * @return a future of the new value, post increment
+	 */
+	@Processor
+	public Future<Long> incrementValueAsync(final String tableName, final String rowKey, final String columnFamilyName,
+			final String columnQualifier, final long amount, @Optional @Default("true") final boolean writeToWAL) {
+		return facade.incrementAsync(tableName, rowKey, columnFamilyName, columnQualifier, amount, writeToWAL);
+	}
+
+	/**
+	 * Starts an atomic check and put without waiting for it. See
+	 * check-and-put-value.
+	 * 
+	 * {@sample.xml ../../../doc/mule-module-hbase.xml.sample
+	 * hbase:check-and-put-value-async}
+	 * 
+	 * @param tableName
+	 *            the name of the table that contains the cell to check.
+	 * @param rowKey
+	 *            the row key that contains the cell to check.
+	 * @param checkColumnFamilyName
+	 *            the column family of the cell to check.
+	 * @param checkColumnQualifier
+	 *            the column qualifier of the cell to check.
+	 * @param checkValue
+	 *            the value to check.
+	 * @param putColumnFamilyName
+	 *            the column family of the cell to put.
+	 * @param putColumnQualifier
+	 *            the column qualifier of the cell to put.
+	 * @param putTimestamp
+	 *            the version dimension to put.
+	 * @param value
+	 *            the value to put.
+	 * @param writeToWAL
+	 *            set it to false means that in a fail scenario, you will lose
+	 *            any increments that have not been flushed.
+	 * @return a future of true if the new put was executed, false otherwise
+	 */
+	@Processor
+	public Future<Boolean> checkAndPutValueAsync(final String tableName, final String rowKey, final String checkColumnFamilyName,
+			final String checkColumnQualifier, final Object checkValue, final String putColumnFamilyName,
+			final String putColumnQualifier, @Optional final Long putTimestamp, final Object value,
+			@Optional @Default("true") final boolean writeToWAL) {
+		return facade.checkAndPutAsync(tableName, rowKey, checkColumnFamilyName, checkColumnQualifier, checkValue,
+				putColumnFamilyName, putColumnQualifier, putTimestamp, value, writeToWAL);
+	}
+
+	/**
+	 * Starts fetching one page of rows of a table without waiting for it. Unlike
+	 * scan-table, the page is fetched at once and its scanner closed, so the
+	 * next page can be requested from the row following the last one returned.
+	 * 
+	 * {@sample.xml ../../../doc/mule-module-hbase.xml.sample
+	 * hbase:scan-page-async}
+	 * 
+	 * @param tableName
+	 *            the table to scan
+	 * @param columnFamilyName
+	 *            limits the scan to a specific column family or null
+	 * @param columnQualifier
+	 *            limits the scan to a specific column or null. Requires a
+	 *            columnFamilyName to be defined.
+	 * @param startRowKey
+	 *            limits the beginning of the scan to the specified row
+	 *            inclusive
+	 * @param stopRowKey
+	 *            limits the end of the scan to the specified row exclusive
+	 * @param pageSize
+	 *            the maximum amount of rows of the page
+	 * @return a future of the list of rows of the page
+	 */
+	@Processor
+	public Future<List<Result>> scanPageAsync(final String tableName, @Optional final String columnFamilyName,
+			@Optional final String columnQualifier, @Optional final String startRowKey, @Optional final String stopRowKey,
+			@Optional @Default("50") final int pageSize) {
+		return facade.scanPageAsync(tableName, columnFamilyName, columnQualifier, startRowKey, stopRowKey, pageSize);
+	}
+
+	/**
+	 * Waits for the results of asynchronous operations. Answers the result of a
+	 * single future, or the results of a collection of futures in the same
+	 * order. Other values are answered as they are, so this can be used after
+	 * an all router whose routes mix synchronous and asynchronous operations.
+	 * 
+	 * {@sample.xml ../../../doc/mule-module-hbase.xml.sample
+	 * hbase:await-results}
+	 * 
+	 * @param futures
+	 *            a future or a collection of futures, by default the message
+	 *            payload
+	 * @param timeout
+	 *            the maximum milliseconds to wait for all the results, or
+	 *            forever if not given
+	 * @return the result, or the list of results
+	 */
+	@Processor
+	public Object awaitResults(@Optional @Default("#[payload]") final Object futures, @Optional final Long timeout) {
+		final long deadline = timeout == null ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
+		if (futures instanceof Collection) {
+			final List<Object> results = new ArrayList<Object>(((Collection<?>) futures).size());
+			for (Object future : (Collection<?>) futures) {
+				results.add(await(future, deadline));
+			}
+			return results;
+		}
+		return await(futures, deadline);
+	}
+
+	private Object await(final Object future, final long deadline) {
+		if (!(future instanceof Future)) {
+			return future;
+		}
+		try {
+			if (deadline == Long.MAX_VALUE) {
+				return ((Future<?>) future).get();
+			}
+			return ((Future<?>) future).get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new HBaseServiceException(e.getCause());
+		} catch (TimeoutException e) {
+			throw new HBaseServiceException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new HBaseServiceException(e);
+		}
+	}
+
+	// ------------ Message Sources
+
+	/**
+	 * Polls a table for the rows changed since the previous poll, and sends
+	 * them to the flow as lists of up to batchSize rows. Each poll scans only
+	 * the cells written since the watermark, using the time range of the scan,
+	 * with only their latest version in that range. Each message is sent as
+	 * soon as its rows were read, so a poll holds a single batch of rows in
+	 * memory however many rows changed; a flow slower than the scanner timeout
+	 * makes the poll fail. Once every changed row was processed, the watermark
+	 * advances to the time the poll started. It is persisted in the same store
+	 * as the checkpoints of scans, so polling resumes from it after a restart.
+	 * If processing fails, the watermark is not advanced and the next poll
+	 * sends the same rows again. Without a persisted watermark, polling starts
+	 * from the initial watermark, or else the first poll only records the
+	 * current time, so that the existing rows of the table are not sent.
+	 * 
+	 * {@sample.xml ../../../doc/mule-module-hbase.xml.sample
+	 * hbase:poll-changes}
+	 * 
+	 * @param tableName
+	 *            the table to poll
+	 * @param watermarkId
+	 *            the id of the watermark, unique for each polled table
+	 * @param columnFamilyName
+	 *            limits the changes to a specific column family or null
+	 * @param columnQualifier
+	 *            limits the changes to a specific column or null. Requires a
+	 *            columnFamilyName to be defined.
+	 * @param filter
+	 *            only sends the changed rows and values that pass this filter,
+	 *            an expression of the HBase filter language
+	 * @param pollInterval
+	 *            the milliseconds between the end of a poll and the start of the
+	 *            next one
+	 * @param batchSize
+	 *            the maximum number of rows of each message
+	 * @param overlapMillis
+	 *            the milliseconds before the watermark also scanned by each
+	 *            poll, so that cells whose timestamp lags behind the clock of
+	 *            Mule, such as cells written by servers with skewed clocks, are
+	 *            not missed. Rows in the overlap are sent again.
+	 * @param initialWatermark
+	 *            the time, in milliseconds, from which the changes are sent
+	 *            when no watermark was persisted yet. Set 0 for sending every
+	 *            row of the table on the first poll.
+	 * @param callback
+	 *            the flow that processes the changed rows
+	 */
+	@Source
+	public void pollChanges(final String tableName, final String watermarkId, @Optional final String columnFamilyName,
+			@Optional final String columnQualifier, @Optional final String filter,
+			@Optional @Default("60000") final long pollInterval, @Optional @Default("100") final int batchSize,
+			@Optional @Default("0") final long overlapMillis, @Optional final Long initialWatermark,
+			final SourceCallback callback) {
+		while (!Thread.currentThread().isInterrupted()) {
+			try {
+				pollChangesOnce(tableName, watermarkId, columnFamilyName, columnQualifier, filter, batchSize,
+						overlapMillis, initialWatermark, callback);
+			} catch (Exception e) {
+				logger.warn("Could not poll the changes of table {}, retrying in {} ms", new Object[] { tableName,
+						pollInterval, e });
+			}
+			try {
+				Thread.sleep(pollInterval);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Sends the rows changed since the watermark, and advances it
+	 * 
+	 * @return the number of rows sent
+	 */
+	int pollChangesOnce(final String tableName, final String watermarkId, final String columnFamilyName,
+			final String columnQualifier, final String filter, final int batchSize, final long overlapMillis,
+			final Long initialWatermark, final SourceCallback callback) throws Exception {
+		final long until = System.currentTimeMillis();
+		long watermark = facade.getWatermark(watermarkId);
+		if (watermark == 0) {
+			if (initialWatermark == null) {
+				// the existing rows are not changes, only those written from now on are
+				facade.setWatermark(watermarkId, until);
+				return 0;
+			}
+			watermark = initialWatermark;
+		}
+		final long since = Math.max(0, watermark - overlapMillis);
+		final ScanOptions options = new ScanOptions();
+		options.setFilter(filter);
+		final Iterable<Result> rows = facade.scan(tableName, columnFamilyName, columnQualifier, since, until, null,
+				false, 1, null, null, batchSize, options);
+		int sent = 0;
+		try {
+			List<Result> batch = new ArrayList<Result>(batchSize);
+			for (Result row : rows) {
+				batch.add(row);
+				if (batch.size() >= batchSize) {
+					callback.process(batch);
+					sent += batch.size();
+					batch = new ArrayList<Result>(batchSize);
+				}
+			}
+			if (!batch.isEmpty()) {
+				callback.process(batch);
+				sent += batch.size();
+			}
+		} finally {
+			if (rows instanceof Closeable) {
+				((Closeable) rows).close();
+			}
+		}
+		facade.setWatermark(watermarkId, until);
+		return sent;
+	}
+
+	// ------------ Monitoring Processors
+
+	/**
+	 * Answers a snapshot of the connector internal counters, such as the table
+	 * handle pool borrows, borrow wait times and exhaustions.
+	 * 
+	 * {@sample.xml ../../../doc/mule-module-hbase.xml.sample
+	 * hbase:get-statistics}
+	 * 
+	 * @return a map of counter names to their current values
+	 */
+	@Processor
+	public Map<String, Number> getStatistics() {
+		return facade.getStatistics();
+	}
+
 	// ------------ Configuration
 
 	public void setFacade(HBaseService facade) {
@@ -556,6 +1281,14 @@ public class HbaseCloudConnector {
 		this.properties = new HashMap<String, String>(properties);
 	}
 
+	public List<String> getWarmupTables() {
+		return Collections.unmodifiableList(warmupTables);
+	}
+
+	public void setWarmupTables(List<String> warmupTables) {
+		this.warmupTables = new ArrayList<String>(warmupTables);
+	}
+
 	/** @see org.mule.api.lifecycle.Initialisable#initialise() */
 	@PostConstruct
 	public void initialiseConnector() throws InitialisationException {
@@ -563,6 +1296,18 @@ public class HbaseCloudConnector {
 			setFacade(new RPCHBaseService());
 			facade.addProperties(properties);
 		}
+		facade.initialise();
+		if (!warmupTables.isEmpty()) {
+			facade.warmUp(warmupTables);
+		}
+	}
+
+	/** @see org.mule.api.lifecycle.Disposable#dispose() */
+	@PreDestroy
+	public void disposeConnector() {
+		if (facade != null) {
+			facade.dispose();
+		}
 	}
 
 }
@@ -0,0 +1,598 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.commons.lang.Validate;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Base64;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.mule.api.MuleEvent;
+import org.mule.api.transport.OutputHandler;
+import org.mule.module.hbase.api.ColumnDecoding;
+import org.mule.wrapper.hbase.ResultWrapper;
+
+/**
+ * Writes rows to a stream as JSON lines or CSV, one row at a time, so that
+ * exporting a scan takes constant memory however many rows it has. Values are
+ * encoded straight from the backing arrays of the cells into a buffer borrowed
+ * from a pool shared by all the exports, which is flushed to the stream
+ * whenever it fills up.
+ * <p>
+ * Only the latest version of each column is written. Row keys are written like
+ * the HBase shell does, with the bytes that are not printable ASCII escaped as
+ * \xNN. Textual values and column names are written as UTF-8, with the bytes
+ * that are not valid UTF-8 escaped as \xNN as well. JSON lines have the row
+ * key in the <code>rowKey</code> field, followed by a field for each column
+ * named <code>family:qualifier</code>. CSV has a header with the columns, which
+ * are the given ones or else those of the first row.
+ * <p>
+ * The rows are consumed while they are written, so they can be written just once.
+ */
+public class RowsOutputHandler implements OutputHandler
+{
+    enum Format
+    {
+        JSON_LINES, CSV
+    }
+
+    static final int BUFFER_SIZE = 64 * 1024;
+    private static final BlockingQueue<byte[]> BUFFERS = new ArrayBlockingQueue<byte[]>(16);
+    private static final byte[] HEX = Bytes.toBytes("0123456789ABCDEF");
+    private static final byte[] ROW_KEY = Bytes.toBytes("rowKey");
+
+    private final Iterable<?> rows;
+    private final Format format;
+    private final List<Column> columns;
+    private final ColumnDecoding decoding;
+    private final List<Column> decodings = new ArrayList<Column>();
+
+    /**
+     * @param rows a {@link Result} or {@link ResultWrapper}, or an iterable of them
+     * @param columns the columns to write, as <code>family:qualifier</code>, or
+     *            null for all the columns
+     * @param decoding how the values of the columns are decoded
+     * @param columnDecodings how the values of specific columns are decoded,
+     *            by <code>family:qualifier</code>, or null
+     */
+    RowsOutputHandler(Object rows, Format format, List<String> columns, ColumnDecoding decoding,
+                      Map<String, String> columnDecodings)
+    {
+        Validate.notNull(rows, "There are no rows to write");
+        this.rows = rowsOf(rows);
+        this.format = format;
+        this.decoding = decoding;
+        if (columnDecodings != null)
+        {
+            for (Map.Entry<String, String> entry : columnDecodings.entrySet())
+            {
+                decodings.add(Column.parse(entry.getKey(),
+                    ColumnDecoding.valueOf(entry.getValue().trim().toUpperCase())));
+            }
+        }
+        if (columns == null || columns.isEmpty())
+        {
+            this.columns = null;
+        }
+        else
+        {
+            this.columns = new ArrayList<Column>(columns.size());
+            for (String column : columns)
+            {
+                Column parsed = Column.parse(column, null);
+                parsed.decoding = decodingOf(parsed.family, parsed.qualifier);
+                this.columns.add(parsed);
+            }
+        }
+    }
+
+    public void write(MuleEvent event, OutputStream out) throws IOException
+    {
+        Sink sink = new Sink(out);
+        try
+        {
+            List<Column> header = columns;
+            if (format == Format.CSV && header != null)
+            {
+                writeCsvHeader(sink, header);
+            }
+            for (Object row : rows)
+            {
+                ResultWrapper result = resultOf(row);
+                if (result.isEmpty())
+                {
+                    continue;
+                }
+                if (format == Format.JSON_LINES)
+                {
+                    writeJson(sink, result);
+                    continue;
+                }
+                if (header == null)
+                {
+                    header = columnsOf(result.rawCells());
+                    writeCsvHeader(sink, header);
+                }
+                writeCsv(sink, result, header);
+            }
+            sink.flush();
+            out.flush();
+        }
+        finally
+        {
+            sink.release();
+            if (rows instanceof Closeable)
+            {
+                ((Closeable) rows).close();
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return getClass().getName() + "[format=" + format + "]";
+    }
+
+    // ------------ JSON lines
+
+    private void writeJson(Sink sink, ResultWrapper result) throws IOException
+    {
+        Cell[] cells = result.rawCells();
+        sink.write('{');
+        writeJsonString(sink, ROW_KEY, 0, ROW_KEY.length, false);
+        sink.write(':');
+        writeJsonString(sink, cells[0].getRowArray(), cells[0].getRowOffset(), cells[0].getRowLength(), true);
+        if (columns != null)
+        {
+            for (Column column : columns)
+            {
+                Cell cell = result.getColumnLatestCell(column.family, column.qualifier);
+                if (cell != null)
+                {
+                    sink.write(',');
+                    writeJsonString(sink, column.name, 0, column.name.length, false);
+                    sink.write(':');
+                    writeJsonValue(sink, cell, column.decoding);
+                }
+            }
+        }
+        else
+        {
+            for (int i = 0; i < cells.length; i++)
+            {
+                Cell cell = cells[i];
+                if (i > 0 && CellUtil.matchingColumn(cells[i - 1], cell))
+                {
+                    continue;
+                }
+                sink.write(',');
+                sink.write('"');
+                writeEscaped(sink, cell.getFamilyArray(), cell.getFamilyOffset(), cell.getFamilyLength(), true,
+                    false);
+                sink.write(':');
+                writeEscaped(sink, cell.getQualifierArray(), cell.getQualifierOffset(),
+                    cell.getQualifierLength(), true, false);
+                sink.write('"');
+                sink.write(':');
+                writeJsonValue(sink, cell, decodingOf(cell));
+            }
+        }
+        sink.write('}');
+        sink.write('\n');
+    }
+
+    private static void writeJsonValue(Sink sink, Cell cell, ColumnDecoding decoding) throws IOException
+    {
+        byte[] array = cell.getValueArray();
+        int offset = cell.getValueOffset();
+        int length = cell.getValueLength();
+        switch (decoding)
+        {
+            case STRING :
+                writeJsonString(sink, array, offset, length, false);
+                break;
+            case BINARY :
+                writeJsonString(sink, array, offset, length, true);
+                break;
+            case DOUBLE :
+                double value = toDouble(array, offset, length);
+                sink.writeAscii(Double.isNaN(value) || Double.isInfinite(value) ? "null" : Double.toString(value));
+                break;
+            case BASE64 :
+                sink.write('"');
+                sink.writeAscii(decode(cell, decoding));
+                sink.write('"');
+                break;
+            default :
+                sink.writeAscii(decode(cell, decoding));
+        }
+    }
+
+    private static void writeJsonString(Sink sink, byte[] array, int offset, int length, boolean binary)
+        throws IOException
+    {
+        sink.write('"');
+        writeEscaped(sink, array, offset, length, true, binary);
+        sink.write('"');
+    }
+
+    // ------------ CSV
+
+    private static void writeCsvHeader(Sink sink, List<Column> header) throws IOException
+    {
+        sink.write(ROW_KEY, 0, ROW_KEY.length);
+        for (Column column : header)
+        {
+            sink.write(',');
+            writeCsvField(sink, column.name, 0, column.name.length, false);
+        }
+        sink.write('\r');
+        sink.write('\n');
+    }
+
+    private void writeCsv(Sink sink, ResultWrapper result, List<Column> header) throws IOException
+    {
+        Cell first = result.rawCells()[0];
+        writeCsvField(sink, first.getRowArray(), first.getRowOffset(), first.getRowLength(), true);
+        for (Column column : header)
+        {
+            sink.write(',');
+            Cell cell = result.getColumnLatestCell(column.family, column.qualifier);
+            if (cell == null)
+            {
+                continue;
+            }
+            if (column.decoding == ColumnDecoding.STRING || column.decoding == ColumnDecoding.BINARY)
+            {
+                writeCsvField(sink, cell.getValueArray(), cell.getValueOffset(), cell.getValueLength(),
+                    column.decoding == ColumnDecoding.BINARY);
+            }
+            else
+            {
+                sink.writeAscii(decode(cell, column.decoding));
+            }
+        }
+        sink.write('\r');
+        sink.write('\n');
+    }
+
+    private static void writeCsvField(Sink sink, byte[] array, int offset, int length, boolean binary)
+        throws IOException
+    {
+        boolean quoted = false;
+        for (int i = offset; i < offset + length && !quoted; i++)
+        {
+            byte b = array[i];
+            quoted = b == ',' || b == '"' || (!binary && (b == '\r' || b == '\n'));
+        }
+        if (quoted)
+        {
+            sink.write('"');
+        }
+        writeEscaped(sink, array, offset, length, false, binary);
+        if (quoted)
+        {
+            sink.write('"');
+        }
+    }
+
+    // ------------ Values
+
+    /**
+     * Writes the bytes escaping them for a JSON string or a quoted CSV field,
+     * and, if binary, escaping those that are not printable ASCII as \xNN.
+     * Otherwise the bytes are taken as UTF-8, and only those that are not part
+     * of a valid UTF-8 sequence are escaped as \xNN, so that the output is
+     * always valid UTF-8.
+     */
+    private static void writeEscaped(Sink sink, byte[] array, int offset, int length, boolean json, boolean binary)
+        throws IOException
+    {
+        int end = offset + length;
+        for (int i = offset; i < end; i++)
+        {
+            int b = array[i] & 0xff;
+            if (!binary && b > 0x7f)
+            {
+                int sequence = utf8SequenceLength(array, i, end);
+                if (sequence > 0)
+                {
+                    sink.write(array, i, sequence);
+                    i += sequence - 1;
+                    continue;
+                }
+            }
+            if ((binary || b > 0x7f) && (b < 0x20 || b > 0x7e || b == '\\'))
+            {
+                if (json)
+                {
+                    sink.write('\\');
+                }
+                sink.write('\\');
+                sink.write('x');
+                sink.write(HEX[b >> 4]);
+                sink.write(HEX[b & 0xf]);
+            }
+            else if (b == '"')
+            {
+                sink.write(json ? '\\' : '"');
+                sink.write('"');
+            }
+            else if (json && b == '\\')
+            {
+                sink.write('\\');
+                sink.write('\\');
+            }
+            else if (json && b < 0x20)
+            {
+                sink.write('\\');
+                sink.write('u');
+                sink.write('0');
+                sink.write('0');
+                sink.write(HEX[b >> 4]);
+                sink.write(HEX[b & 0xf]);
+            }
+            else
+            {
+                sink.write(b);
+            }
+        }
+    }
+
+    /**
+     * @return the length of the valid UTF-8 sequence starting at the given
+     *         byte, or 0 if the bytes there are not valid UTF-8
+     */
+    private static int utf8SequenceLength(byte[] array, int start, int end)
+    {
+        int b = array[start] & 0xff;
+        int length;
+        int min = 0x80;
+        int max = 0xbf;
+        if (b >= 0xc2 && b <= 0xdf)
+        {
+            length = 2;
+        }
+        else if (b >= 0xe0 && b <= 0xef)
+        {
+            length = 3;
+            // overlong encodings and surrogates
+            min = b == 0xe0 ? 0xa0 : 0x80;
+            max = b == 0xed ? 0x9f : 0xbf;
+        }
+        else if (b >= 0xf0 && b <= 0xf4)
+        {
+            length = 4;
+            // overlong encodings and code points above U+10FFFF
+            min = b == 0xf0 ? 0x90 : 0x80;
+            max = b == 0xf4 ? 0x8f : 0xbf;
+        }
+        else
+        {
+            return 0;
+        }
+        if (start + length > end)
+        {
+            return 0;
+        }
+        for (int i = start + 1; i < start + length; i++)
+        {
+            int continuation = array[i] & 0xff;
+            if (continuation < min || continuation > max)
+            {
+                return 0;
+            }
+            min = 0x80;
+            max = 0xbf;
+        }
+        return length;
+    }
+
+    /** @return the value of the cell decoded as a number, a boolean or Base64 */
+    private static String decode(Cell cell, ColumnDecoding decoding)
+    {
+        byte[] array = cell.getValueArray();
+        int offset = cell.getValueOffset();
+        int length = cell.getValueLength();
+        switch (decoding)
+        {
+            case LONG :
+                return Long.toString(Bytes.toLong(array, offset, length));
+            case INT :
+                return Integer.toString(Bytes.toInt(array, offset, length));
+            case DOUBLE :
+                return Double.toString(toDouble(array, offset, length));
+            case BOOLEAN :
+                Validate.isTrue(length == Bytes.SIZEOF_BOOLEAN, "A boolean value must be 1 byte long, but was ",
+                    length);
+                return array[offset] != 0 ? "true" : "false";
+            case BASE64 :
+                return Base64.encodeBytes(array, offset, length, Base64.DONT_BREAK_LINES);
+            default :
+                throw new IllegalArgumentException("Textual decoding " + decoding);
+        }
+    }
+
+    private static double toDouble(byte[] array, int offset, int length)
+    {
+        return Double.longBitsToDouble(Bytes.toLong(array, offset, length));
+    }
+
+    private ColumnDecoding decodingOf(Cell cell)
+    {
+        for (Column column : decodings)
+        {
+            if (CellUtil.matchingColumn(cell, column.family, column.qualifier))
+            {
+                return column.decoding;
+            }
+        }
+        return decoding;
+    }
+
+    private ColumnDecoding decodingOf(byte[] family, byte[] qualifier)
+    {
+        for (Column column : decodings)
+        {
+            if (Bytes.equals(family, column.family) && Bytes.equals(qualifier, column.qualifier))
+            {
+                return column.decoding;
+            }
+        }
+        return decoding;
+    }
+
+    // ------------ Rows
+
+    private static Iterable<?> rowsOf(Object rows)
+    {
+        if (rows instanceof Iterable)
+        {
+            return (Iterable<?>) rows;
+        }
+        if (rows instanceof Result || rows instanceof ResultWrapper)
+        {
+            return Collections.singletonList(rows);
+        }
+        throw new IllegalArgumentException("Rows must be a result or an iterable of results, but were "
+                                           + rows.getClass().getName());
+    }
+
+    private static ResultWrapper resultOf(Object row)
+    {
+        if (row instanceof ResultWrapper)
+        {
+            return (ResultWrapper) row;
+        }
+        if (row instanceof Result)
+        {
+            return ResultWrapper.create(((Result) row).rawCells());
+        }
+        throw new IllegalArgumentException("Rows must be results, but found a "
+                                           + (row == null ? null : row.getClass().getName()));
+    }
+
+    /** @return the columns of the given cells, in order */
+    private List<Column> columnsOf(Cell[] cells)
+    {
+        List<Column> columns = new ArrayList<Column>();
+        for (int i = 0; i < cells.length; i++)
+        {
+            if (i == 0 || !CellUtil.matchingColumn(cells[i - 1], cells[i]))
+            {
+                columns.add(new Column(CellUtil.cloneFamily(cells[i]), CellUtil.cloneQualifier(cells[i]),
+                    decodingOf(cells[i])));
+            }
+        }
+        return columns;
+    }
+
+    private static final class Column
+    {
+        private final byte[] family;
+        private final byte[] qualifier;
+        private final byte[] name;
+        private ColumnDecoding decoding;
+
+        private Column(byte[] family, byte[] qualifier, ColumnDecoding decoding)
+        {
+            this.family = family;
+            this.qualifier = qualifier;
+            this.name = Bytes.add(family, new byte[]{':'}, qualifier);
+            this.decoding = decoding;
+        }
+
+        static Column parse(String column, ColumnDecoding decoding)
+        {
+            int separator = column.indexOf(':');
+            Validate.isTrue(separator > 0, "Columns must be given as family:qualifier, but found " + column);
+            return new Column(Bytes.toBytes(column.substring(0, separator)),
+                Bytes.toBytes(column.substring(separator + 1)), decoding);
+        }
+    }
+
+    /** Buffered output over a pooled buffer */
+    private static final class Sink
+    {
+        private final OutputStream out;
+        private byte[] buffer;
+        private int position;
+
+        private Sink(OutputStream out)
+        {
+            this.out = out;
+            this.buffer = BUFFERS.poll();
+            if (buffer == null)
+            {
+                buffer = new byte[BUFFER_SIZE];
+            }
+        }
+
+        void write(int b) throws IOException
+        {
+            if (position == buffer.length)
+            {
+                flush();
+            }
+            buffer[position++] = (byte) b;
+        }
+
+        void write(byte[] bytes, int offset, int length) throws IOException
+        {
+            while (length > 0)
+            {
+                if (position == buffer.length)
+                {
+                    flush();
+                }
+                int chunk = Math.min(length, buffer.length - position);
+                System.arraycopy(bytes, offset, buffer, position, chunk);
+                position += chunk;
+                offset += chunk;
+                length -= chunk;
+            }
+        }
+
+        void writeAscii(String text) throws IOException
+        {
+            for (int i = 0; i < text.length(); i++)
+            {
+                write(text.charAt(i));
+            }
+        }
+
+        void flush() throws IOException
+        {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+
+        /** Returns the buffer to the pool, unless the pool is full */
+        void release()
+        {
+            if (buffer != null)
+            {
+                BUFFERS.offer(buffer);
+                buffer = null;
+            }
+        }
+    }
+}
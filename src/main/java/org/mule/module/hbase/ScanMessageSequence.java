@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.hadoop.hbase.client.Result;
+import org.mule.module.hbase.api.impl.CheckpointedIterable;
+import org.mule.routing.MessageSequence;
+
+/**
+ * Streaming view of the rows of a scan. Splitters recognize it as a
+ * {@link MessageSequence}, so they hand each row to the following processors as
+ * soon as it is fetched, instead of copying the whole scan into a list first.
+ * Its size is reported as unknown, so that nothing is ever counted ahead.
+ * <p>
+ * Rows are consumed as they are traversed: the sequence, or its only
+ * {@link #iterator()}, can be traversed just once. Once they were, for
+ * instance after a <code>foreach</code>, {@link #isCompleted()} tells whether
+ * every row was read, or a checkpointed scan stopped at its time slice.
+ */
+public class ScanMessageSequence implements MessageSequence<Result>, Iterable<Result>, Closeable
+{
+    private final Iterable<Result> results;
+    private Iterator<Result> rows;
+    private boolean iterated;
+
+    public ScanMessageSequence(Iterable<Result> results)
+    {
+        this.results = results;
+    }
+
+    public Integer size()
+    {
+        return UNKNOWN_SIZE;
+    }
+
+    public boolean isEmpty()
+    {
+        return !hasNext();
+    }
+
+    public boolean hasNext()
+    {
+        return rows().hasNext();
+    }
+
+    public Result next()
+    {
+        return rows().next();
+    }
+
+    public void remove()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return the rows not consumed yet
+     * @throws IllegalStateException if called more than once
+     */
+    public synchronized Iterator<Result> iterator()
+    {
+        if (iterated)
+        {
+            throw new IllegalStateException("The rows of a streaming scan can be traversed only once. "
+                                            + "Scan the table again for traversing them again");
+        }
+        iterated = true;
+        return rows();
+    }
+
+    /**
+     * @return true if every row was read. Checkpointed scans that stopped at
+     *         their time slice, leaving rows for the next scan with the same
+     *         checkpoint, answer false
+     */
+    public synchronized boolean isCompleted()
+    {
+        if (results instanceof CheckpointedIterable)
+        {
+            return ((CheckpointedIterable) results).isCompleted();
+        }
+        return rows != null && !rows.hasNext();
+    }
+
+    /** Releases the scanner of the rows, if they were not read until the end */
+    public void close() throws IOException
+    {
+        if (results instanceof Closeable)
+        {
+            ((Closeable) results).close();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return getClass().getName() + "@" + Integer.toHexString(hashCode());
+    }
+
+    private synchronized Iterator<Result> rows()
+    {
+        if (rows == null)
+        {
+            rows = results.iterator();
+        }
+        return rows;
+    }
+}
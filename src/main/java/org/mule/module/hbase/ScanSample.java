@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.hadoop.hbase.client.Result;
+
+/**
+ * Random sample of the rows of a scan, with the rate used for sampling them, so
+ * that aggregates of the whole scan can be estimated from the sample. Each row
+ * is kept independently with the sampling rate probability, so the size of the
+ * sample is only approximately the rate times the size of the scan.
+ */
+public class ScanSample implements Iterable<Result>, Closeable
+{
+    private final Iterable<Result> results;
+    private final float samplingRate;
+
+    public ScanSample(Iterable<Result> results, float samplingRate)
+    {
+        this.results = results;
+        this.samplingRate = samplingRate;
+    }
+
+    /** @return the approximate fraction of the scanned rows kept in the sample */
+    public float getSamplingRate()
+    {
+        return samplingRate;
+    }
+
+    /**
+     * Extrapolates a count or sum computed over the sample to the whole scan
+     *
+     * @return the value divided by the sampling rate
+     */
+    public double estimate(double sampledValue)
+    {
+        return sampledValue / samplingRate;
+    }
+
+    /**
+     * Reads the whole sample, counting its rows
+     *
+     * @return the estimated amount of rows of the whole scan
+     */
+    public double estimateRowCount()
+    {
+        long rows = 0;
+        for (@SuppressWarnings("unused")
+        Result result : results)
+        {
+            rows++;
+        }
+        return estimate(rows);
+    }
+
+    public Iterator<Result> iterator()
+    {
+        return results.iterator();
+    }
+
+    /** Releases the scanner of the rows, if they were not read until the end */
+    public void close() throws IOException
+    {
+        if (results instanceof Closeable)
+        {
+            ((Closeable) results).close();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return getClass().getName() + "[samplingRate=" + samplingRate + "]";
+    }
+}
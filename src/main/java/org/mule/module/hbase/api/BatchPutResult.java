@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase.api;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a batch put: how many records were written, and why each failed
+ * record was not.
+ */
+public class BatchPutResult implements Serializable
+{
+    private static final long serialVersionUID = 2920407452254861632L;
+
+    private final int total;
+    private final List<Failure> failures = new ArrayList<Failure>();
+
+    public BatchPutResult(int total)
+    {
+        this.total = total;
+    }
+
+    /** Records a failure for the record at the given index of the batch */
+    public void addFailure(int index, String rowKey, Throwable cause)
+    {
+        failures.add(new Failure(index, rowKey, String.valueOf(cause)));
+    }
+
+    /** @return the amount of records in the batch */
+    public int getTotal()
+    {
+        return total;
+    }
+
+    /** @return the amount of records successfully written */
+    public int getSucceeded()
+    {
+        return total - failures.size();
+    }
+
+    /** @return true only if every record was written */
+    public boolean isSuccessful()
+    {
+        return failures.isEmpty();
+    }
+
+    /** @return the failed records, in no particular order */
+    public List<Failure> getFailures()
+    {
+        return Collections.unmodifiableList(failures);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "BatchPutResult[total=" + total + ", failures=" + failures + "]";
+    }
+
+    /** A record that could not be written */
+    public static class Failure implements Serializable
+    {
+        private static final long serialVersionUID = -3641389476702914383L;
+
+        private final int index;
+        private final String rowKey;
+        private final String error;
+
+        public Failure(int index, String rowKey, String error)
+        {
+            this.index = index;
+            this.rowKey = rowKey;
+            this.error = error;
+        }
+
+        /** @return the position of the record in the batch */
+        public int getIndex()
+        {
+            return index;
+        }
+
+        /** @return the row key of the record, or null if it had none */
+        public String getRowKey()
+        {
+            return rowKey;
+        }
+
+        /** @return the description of the error */
+        public String getError()
+        {
+            return error;
+        }
+
+        @Override
+        public String toString()
+        {
+            return index + ":" + rowKey + ":" + error;
+        }
+    }
+}
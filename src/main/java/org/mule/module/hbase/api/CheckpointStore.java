@@ -0,0 +1,32 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase.api;
+
+import java.io.IOException;
+
+/**
+ * Keeps the progress of checkpointed scans: for each checkpoint id, the key of
+ * the last row that was fully processed, so that a later scan with the same id
+ * resumes after it. {@link HBaseService#getWatermark(String)} keeps the
+ * watermarks of change polling in it too.
+ */
+public interface CheckpointStore
+{
+    /**
+     * @return the key of the last row processed by the scan with the given
+     *         checkpoint id, or null if there is no checkpoint
+     */
+    byte[] load(String checkpointId) throws IOException;
+
+    /** Records the key of the last row processed by the scan with the given checkpoint id */
+    void save(String checkpointId, byte[] rowKey) throws IOException;
+
+    /** Forgets the checkpoint of the given id, if any, so that the next scan starts from the beginning */
+    void clear(String checkpointId) throws IOException;
+}
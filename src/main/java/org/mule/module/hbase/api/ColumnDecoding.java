@@ -0,0 +1,30 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase.api;
+
+/**
+ * How the bytes of column values are decoded when rows are exported as text
+ */
+public enum ColumnDecoding
+{
+    /** UTF-8 text */
+    STRING,
+    /** printable ASCII, with other bytes escaped as \xNN, like the HBase shell */
+    BINARY,
+    /** Base64 of the bytes */
+    BASE64,
+    /** 8 bytes big endian long, as written by Bytes.toBytes(long) */
+    LONG,
+    /** 4 bytes big endian int, as written by Bytes.toBytes(int) */
+    INT,
+    /** 8 bytes IEEE 754 double, as written by Bytes.toBytes(double) */
+    DOUBLE,
+    /** 1 byte boolean, as written by Bytes.toBytes(boolean) */
+    BOOLEAN
+}
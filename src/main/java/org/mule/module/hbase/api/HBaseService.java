@@ -9,7 +9,9 @@
 package org.mule.module.hbase.api;
 
 
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 import org.apache.hadoop.hbase.client.Result;
 import org.mule.wrapper.hbase.ResultWrapper;
@@ -82,6 +84,38 @@ public interface HBaseService
     // ------------ Row Operations
     ResultWrapper get(String tableName, String rowKey,String columnFamilyName, String columnQualifier, Integer maxVersions, Long timestamp);
 
+    /**
+     * Same as {@link #get(String, String, String, String, Integer, Long)}, but
+     * only answering the cells that pass the given filter
+     * 
+     * @param filter (optional) an expression in the HBase filter language, such
+     *            as <code>ColumnPrefixFilter ('temp')</code>, evaluated by the
+     *            region server
+     */
+    ResultWrapper get(String tableName,
+                      String rowKey,
+                      String columnFamilyName,
+                      String columnQualifier,
+                      Integer maxVersions,
+                      Long timestamp,
+                      String filter);
+
+    /**
+     * Answers the values of many rows, fetching them in one multi request per
+     * chunk.
+     * 
+     * @param chunkSize the maximum amount of rows fetched in a single request
+     * @return one result per row key, in the same order than the keys. Missing
+     *         rows answer an empty result
+     */
+    List<ResultWrapper> getBatch(String tableName,
+                                 List<String> rowKeys,
+                                 String columnFamilyName,
+                                 String columnQualifier,
+                                 Integer maxVersions,
+                                 Long timestamp,
+                                 int chunkSize);
+
     /**
      * Saves the value at the specified cell (row + family:qualifier + timestamp)
      * 
@@ -96,6 +130,28 @@ public interface HBaseService
              boolean writeToWAL
              );
 
+    /**
+     * Saves many cells, sending them in one multi request per chunk. Each record
+     * is a map with the <code>rowKey</code>, <code>columnFamilyName</code>,
+     * <code>columnQualifier</code> and <code>value</code> entries, and an optional
+     * <code>timestamp</code> one.
+     * 
+     * @param chunkSize the maximum amount of records sent in a single request
+     * @return the outcome of the batch. Records that could not be written are
+     *         reported there instead of failing the whole batch
+     */
+    BatchPutResult putBatch(String tableName,
+                            List<Map<String, Object>> records,
+                            boolean writeToWAL,
+                            int chunkSize);
+
+    /**
+     * Sends the puts buffered in the client for the given table, or for every
+     * table if it is <code>null</code>. It has no effect on tables whose writes are
+     * not buffered.
+     */
+    void flushCommits(String tableName);
+
     /** @return true only if the row exists and is not null */
     boolean exists(String tableName, String row, Integer maxVersions, Long timestamp);
 
@@ -140,6 +196,9 @@ public interface HBaseService
      * @param startRow limits the beginning of the scan to the specified row
      *            inclusive
      * @param stopRow limits the end of the scan to the specified row exclusive
+     * @return the lazily fetched rows. The iterable is also
+     *         {@link java.io.Closeable}, for releasing its scanner when the rows
+     *         are not read until the end.
      */
     public Iterable<Result> scan(String tableName,
                               String columnFamilyName,
@@ -153,6 +212,44 @@ public interface HBaseService
                               String stopRow,
                               int fetchSize);
 
+    /**
+     * Same as
+     * {@link #scan(String, String, String, Long, Long, Integer, boolean, int, String, String, int)}
+     * , but tuned by the given options
+     */
+    Iterable<Result> scan(String tableName,
+                          String columnFamilyName,
+                          String columnQualifier,
+                          Long timestamp,
+                          Long maxTimestamp,
+                          Integer caching,
+                          boolean cacheBlocks,
+                          int maxVersions,
+                          String startRow,
+                          String stopRow,
+                          int fetchSize,
+                          ScanOptions options);
+
+    /**
+     * Counts the rows of a table, scanning only the first key of each row, so
+     * that no value is sent back to the client. Regions are counted in
+     * parallel.
+     * 
+     * @param startRow (optional) the first row to count, inclusive
+     * @param stopRow (optional) the row where counting stops, exclusive
+     * @param filter (optional) an expression in the HBase filter language;
+     *            only the rows that pass it are counted
+     * @param parallelism the amount of regions counted at the same time
+     * @param caching the amount of rows fetched by each request
+     * @return the amount of rows
+     */
+    long countRows(String tableName,
+                   String startRow,
+                   String stopRow,
+                   String filter,
+                   int parallelism,
+                   int caching);
+
     /**
      * Atomically increments a column value. If the column value does not yet exist
      * it is initialized to <code>amount</code> and written to the specified column.
@@ -204,6 +301,83 @@ public interface HBaseService
                            Long deleteTimestamp,
                            Boolean deleteAllVersions);
 
+    // ------------ Asynchronous Row Operations
+    /**
+     * Same as {@link #get(String, String, String, String, Integer, Long)}, but run
+     * by the service asynchronous executor
+     */
+    Future<ResultWrapper> getAsync(String tableName,
+                                   String rowKey,
+                                   String columnFamilyName,
+                                   String columnQualifier,
+                                   Integer maxVersions,
+                                   Long timestamp);
+
+    /**
+     * Same as {@link #put(String, String, String, String, Long, Object, boolean)},
+     * but run by the service asynchronous executor
+     */
+    Future<Void> putAsync(String tableName,
+                          String row,
+                          String columnFamilyName,
+                          String columnQualifier,
+                          Long timestamp,
+                          Object value,
+                          boolean writeToWAL);
+
+    /**
+     * Same as {@link #delete(String, String, String, String, Long, boolean)}, but
+     * run by the service asynchronous executor
+     */
+    Future<Void> deleteAsync(String tableName,
+                             String row,
+                             String columnFamilyName,
+                             String columnQualifier,
+                             Long timestamp,
+                             boolean deleteAllVersions);
+
+    /**
+     * Same as {@link #increment(String, String, String, String, long, boolean)},
+     * but run by the service asynchronous executor
+     */
+    Future<Long> incrementAsync(String tableName,
+                                String row,
+                                String columnFamilyName,
+                                String columnQualifier,
+                                long amount,
+                                boolean writeToWAL);
+
+    /**
+     * Same as
+     * {@link #checkAndPut(String, String, String, String, Object, String, String, Long, Object, boolean)}
+     * , but run by the service asynchronous executor
+     */
+    Future<Boolean> checkAndPutAsync(String tableName,
+                                     String row,
+                                     String checkColumnFamilyName,
+                                     String checkColumnQualifier,
+                                     Object checkValue,
+                                     String putColumnFamilyName,
+                                     String putColumnQualifier,
+                                     Long putTimestamp,
+                                     Object value,
+                                     boolean putWriteToWAL);
+
+    /**
+     * Fetches a single page of rows, starting at the given row, using the service
+     * asynchronous executor. The scanner is closed as soon as the page is fetched.
+     * 
+     * @param startRow (optional) the first row of the page, inclusive
+     * @param stopRow (optional) the row where the scan stops, exclusive
+     * @param pageSize the maximum amount of rows of the page
+     */
+    Future<List<Result>> scanPageAsync(String tableName,
+                                       String columnFamilyName,
+                                       String columnQualifier,
+                                       String startRow,
+                                       String stopRow,
+                                       int pageSize);
+
     /**
      * Locks a row in a table. You should eventually call
      * {@link HBaseService#unlock(String, RowLock)}.
@@ -215,11 +389,54 @@ public interface HBaseService
     /** Unlock the row */
  //   void unlock(String tableName, RowLock lock);
 
+    // ------------ Change Tracking
+    /**
+     * @return the time, in milliseconds, up to which the changes tracked under
+     *         the given watermark id were processed, or 0 if none was
+     */
+    long getWatermark(String watermarkId);
+
+    /**
+     * Records that the changes tracked under the given watermark id were
+     * processed up to the given time, in milliseconds, exclusive
+     */
+    void setWatermark(String watermarkId, long timestamp);
+
     // ------------ Configuration
     /**
      * Add the properties to the main configuration. It overrides old properties if
      * they where already added.
+     * 
+     * @throws IllegalStateException if any property changes while the service is
+     *             initialised
      */
     void addProperties(Map<String, String> properties);
 
+    // ------------ Monitoring
+    /**
+     * @return a snapshot of the service internal counters, such as table pool
+     *         usage, keyed by counter name
+     */
+    Map<String, Number> getStatistics();
+
+    // ------------ Lifecycle
+    /**
+     * Opens the connection shared by every operation of this service. It must be
+     * called once the configuration properties have been added.
+     */
+    void initialise();
+
+    /**
+     * Closes the shared connection, releasing any resource allocated by this
+     * service.
+     */
+    void dispose();
+
+    /**
+     * Loads the region locations of the given tables and opens the channels to
+     * their region servers, so that the first operations on them do not pay for
+     * it. Failures are logged but not thrown.
+     */
+    void warmUp(List<String> tableNames);
+
 }
@@ -0,0 +1,227 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase.api;
+
+/**
+ * Optional settings of a scan, on top of the ones of a plain scan: the filter
+ * evaluated by the region servers, how rows are fetched, and where the progress
+ * of the scan is checkpointed. The defaults behave as a plain scan.
+ */
+public class ScanOptions
+{
+    private String filter;
+    private int prefetchPages;
+    private long prefetchMaxBytes = 32 * 1024 * 1024;
+    private int parallelism = 1;
+    private boolean ordered = true;
+    private boolean adaptivePaging;
+    private long maxPageBytes = 4 * 1024 * 1024;
+    private boolean small;
+    private boolean reversed;
+    private int limit;
+    private float samplingRate = 1;
+    private String checkpointId;
+    private int checkpointInterval = 1000;
+    private long checkpointSliceMillis;
+
+    /**
+     * @return the expression, in the HBase filter language, of the filter that
+     *         the region servers apply to the scanned rows, or null
+     */
+    public String getFilter()
+    {
+        return filter;
+    }
+
+    public void setFilter(String filter)
+    {
+        this.filter = filter;
+    }
+
+    /**
+     * @return the amount of pages fetched in background ahead of the consumer,
+     *         or 0 if pages are fetched only when the consumer needs them
+     */
+    public int getPrefetchPages()
+    {
+        return prefetchPages;
+    }
+
+    public void setPrefetchPages(int prefetchPages)
+    {
+        this.prefetchPages = prefetchPages;
+    }
+
+    /**
+     * @return the approximate amount of bytes of the pages fetched ahead of the
+     *         consumer, above which no more pages are prefetched
+     */
+    public long getPrefetchMaxBytes()
+    {
+        return prefetchMaxBytes;
+    }
+
+    public void setPrefetchMaxBytes(long prefetchMaxBytes)
+    {
+        this.prefetchMaxBytes = prefetchMaxBytes;
+    }
+
+    /**
+     * @return the amount of regions scanned at the same time, or 1 if the
+     *         regions are scanned one after the other by a single scanner
+     */
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism)
+    {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @return whether the rows of a parallel scan are answered in row order, or
+     *         as soon as they are fetched
+     */
+    public boolean isOrdered()
+    {
+        return ordered;
+    }
+
+    public void setOrdered(boolean ordered)
+    {
+        this.ordered = ordered;
+    }
+
+    /**
+     * @return whether the amount of rows of each page is adapted to the size of
+     *         the rows and the time taken to fetch them, starting from the fetch
+     *         size, instead of always being the fetch size
+     */
+    public boolean isAdaptivePaging()
+    {
+        return adaptivePaging;
+    }
+
+    public void setAdaptivePaging(boolean adaptivePaging)
+    {
+        this.adaptivePaging = adaptivePaging;
+    }
+
+    /**
+     * @return the approximate amount of bytes of each page, and of each response
+     *         of the region servers, when paging is adaptive
+     */
+    public long getMaxPageBytes()
+    {
+        return maxPageBytes;
+    }
+
+    public void setMaxPageBytes(long maxPageBytes)
+    {
+        this.maxPageBytes = maxPageBytes;
+    }
+
+    /**
+     * @return whether the scan is a small one, whose rows are fetched by a
+     *         single request instead of opening, reading and closing a scanner
+     */
+    public boolean isSmall()
+    {
+        return small;
+    }
+
+    public void setSmall(boolean small)
+    {
+        this.small = small;
+    }
+
+    /**
+     * @return whether rows are answered in descending order, from the start row
+     *         down to the stop row
+     */
+    public boolean isReversed()
+    {
+        return reversed;
+    }
+
+    public void setReversed(boolean reversed)
+    {
+        this.reversed = reversed;
+    }
+
+    /**
+     * @return the maximum amount of rows answered, after which the scanner is
+     *         closed, or 0 for answering every row
+     */
+    public int getLimit()
+    {
+        return limit;
+    }
+
+    public void setLimit(int limit)
+    {
+        this.limit = limit;
+    }
+
+    /**
+     * @return the approximate fraction of the rows answered, randomly chosen by
+     *         the region servers, or 1 for answering every row
+     */
+    public float getSamplingRate()
+    {
+        return samplingRate;
+    }
+
+    public void setSamplingRate(float samplingRate)
+    {
+        this.samplingRate = samplingRate;
+    }
+
+    /**
+     * @return the id under which the last processed row is recorded, so that a
+     *         later scan with the same id resumes after it, or null if the scan
+     *         is not checkpointed
+     */
+    public String getCheckpointId()
+    {
+        return checkpointId;
+    }
+
+    public void setCheckpointId(String checkpointId)
+    {
+        this.checkpointId = checkpointId;
+    }
+
+    /** @return the amount of processed rows between saved checkpoints */
+    public int getCheckpointInterval()
+    {
+        return checkpointInterval;
+    }
+
+    public void setCheckpointInterval(int checkpointInterval)
+    {
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * @return the milliseconds after which a checkpointed scan stops, saving its
+     *         checkpoint, or 0 if it reads every row
+     */
+    public long getCheckpointSliceMillis()
+    {
+        return checkpointSliceMillis;
+    }
+
+    public void setCheckpointSliceMillis(long checkpointSliceMillis)
+    {
+        this.checkpointSliceMillis = checkpointSliceMillis;
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase.api.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.mule.module.hbase.api.CheckpointStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rows of a scan whose progress is recorded in a {@link CheckpointStore}. A row
+ * is taken as processed once the consumer asks for the following one, and the
+ * last processed row is saved every <code>interval</code> rows. When the rows
+ * are exhausted the checkpoint is cleared; when the iteration ran for
+ * <code>sliceMillis</code>, it ends early saving the checkpoint, so that the
+ * next scan with the same checkpoint id goes on from there.
+ * {@link #isCompleted()} tells both cases apart once the iteration ended.
+ * <p>
+ * After a failure, rows processed since the last saved checkpoint are scanned
+ * again, so that every row is processed at least once.
+ */
+public class CheckpointedIterable implements Iterable<Result>, Closeable
+{
+    private static final Logger logger = LoggerFactory.getLogger(CheckpointedIterable.class);
+
+    private final Iterable<Result> results;
+    private final CheckpointStore store;
+    private final String checkpointId;
+    private final int interval;
+    private final long sliceMillis;
+    private final AtomicLong saves;
+    private volatile boolean completed;
+
+    /**
+     * @param sliceMillis the time after which the iteration ends, or 0 to read
+     *            every row
+     * @param saves counts the checkpoints saved
+     */
+    public CheckpointedIterable(Iterable<Result> results,
+                                CheckpointStore store,
+                                String checkpointId,
+                                int interval,
+                                long sliceMillis,
+                                AtomicLong saves)
+    {
+        this.results = results;
+        this.store = store;
+        this.checkpointId = checkpointId;
+        this.interval = Math.max(1, interval);
+        this.sliceMillis = sliceMillis;
+        this.saves = saves;
+    }
+
+    public Iterator<Result> iterator()
+    {
+        final Iterator<Result> rows = results.iterator();
+        final long deadline = sliceMillis > 0 ? System.currentTimeMillis() + sliceMillis : Long.MAX_VALUE;
+        return new Iterator<Result>()
+        {
+            private byte[] lastReturned;
+            private byte[] lastProcessed;
+            private int unsaved;
+            private boolean ended;
+
+            public boolean hasNext()
+            {
+                if (ended)
+                {
+                    return false;
+                }
+                processed();
+                if (System.currentTimeMillis() >= deadline)
+                {
+                    ended = true;
+                    save();
+                    close();
+                    return false;
+                }
+                if (!rows.hasNext())
+                {
+                    ended = true;
+                    clear();
+                    completed = true;
+                    return false;
+                }
+                return true;
+            }
+
+            public Result next()
+            {
+                if (!hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                Result result = rows.next();
+                lastReturned = result.getRow();
+                return result;
+            }
+
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+
+            private void processed()
+            {
+                if (lastReturned != null)
+                {
+                    lastProcessed = lastReturned;
+                    lastReturned = null;
+                    if (++unsaved >= interval)
+                    {
+                        save();
+                    }
+                }
+            }
+
+            private void save()
+            {
+                if (unsaved == 0)
+                {
+                    return;
+                }
+                try
+                {
+                    store.save(checkpointId, lastProcessed);
+                    unsaved = 0;
+                    saves.incrementAndGet();
+                }
+                catch (IOException e)
+                {
+                    logger.warn("Could not save checkpoint {} at row {}: {}", new Object[]{checkpointId,
+                        Bytes.toStringBinary(lastProcessed), e.getMessage()});
+                }
+            }
+
+            private void clear()
+            {
+                try
+                {
+                    store.clear(checkpointId);
+                }
+                catch (IOException e)
+                {
+                    logger.warn("Could not clear checkpoint {}: {}", checkpointId, e.getMessage());
+                }
+            }
+        };
+    }
+
+    /**
+     * @return true if an iteration read every row, clearing the checkpoint;
+     *         false if it ended at its time slice, saving the checkpoint for the
+     *         next scan to go on from there, or was not read until its end
+     */
+    public boolean isCompleted()
+    {
+        return completed;
+    }
+
+    /** Releases the scanner of the rows, if they were not read until the end */
+    public void close()
+    {
+        if (results instanceof Closeable)
+        {
+            try
+            {
+                ((Closeable) results).close();
+            }
+            catch (IOException e)
+            {
+                logger.warn("Could not close the scan of checkpoint {}: {}", checkpointId, e.getMessage());
+            }
+        }
+    }
+}
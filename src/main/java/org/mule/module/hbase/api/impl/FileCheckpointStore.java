@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase.api.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.mule.module.hbase.api.CheckpointStore;
+
+/**
+ * {@link CheckpointStore} that keeps each checkpoint in its own file of a local
+ * directory, as the printable form of the row key. Files are replaced
+ * atomically, so that a crash while saving leaves the previous checkpoint.
+ */
+public class FileCheckpointStore implements CheckpointStore
+{
+    private final File directory;
+
+    public FileCheckpointStore(File directory)
+    {
+        this.directory = directory;
+    }
+
+    public byte[] load(String checkpointId) throws IOException
+    {
+        File file = fileOf(checkpointId);
+        if (!file.exists())
+        {
+            return null;
+        }
+        return Bytes.toBytesBinary(new String(Files.readAllBytes(file.toPath()), "US-ASCII").trim());
+    }
+
+    public void save(String checkpointId, byte[] rowKey) throws IOException
+    {
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Could not create the checkpoint directory " + directory);
+        }
+        File file = fileOf(checkpointId);
+        File temp = new File(directory, file.getName() + ".tmp");
+        Files.write(temp.toPath(), Bytes.toStringBinary(rowKey).getBytes("US-ASCII"));
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void clear(String checkpointId) throws IOException
+    {
+        Files.deleteIfExists(fileOf(checkpointId).toPath());
+    }
+
+    private File fileOf(String checkpointId) throws IOException
+    {
+        return new File(directory, URLEncoder.encode(checkpointId, "UTF-8") + ".checkpoint");
+    }
+
+    @Override
+    public String toString()
+    {
+        return "FileCheckpointStore[" + directory + "]";
+    }
+}
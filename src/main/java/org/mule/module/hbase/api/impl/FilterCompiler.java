@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase.api.impl;
+
+import java.nio.charset.CharacterCodingException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.ParseFilter;
+import org.mule.module.hbase.api.HBaseServiceException;
+
+/**
+ * Compiles filter expressions written in the HBase filter language, such as
+ * <code>PrefixFilter ('row') AND SingleColumnValueFilter ('f', 'q', =, 'binary:v')</code>
+ * , into {@link Filter}s that are sent to the region servers. Compiled filters
+ * are cached by expression, since the same expressions are usually evaluated
+ * for every message of a flow.
+ * <p>
+ * Cached filters are shared between requests: the client only serializes them,
+ * and every region server works on its own copy.
+ */
+public class FilterCompiler
+{
+    private final ConcurrentMap<String, Filter> filters = new ConcurrentHashMap<String, Filter>();
+    private final int maxCachedFilters;
+    private final AtomicLong compilations = new AtomicLong();
+
+    public FilterCompiler(int maxCachedFilters)
+    {
+        this.maxCachedFilters = maxCachedFilters;
+    }
+
+    /**
+     * @return the filter of the given expression
+     * @throws HBaseServiceException if the expression is not valid
+     */
+    public Filter compile(String expression)
+    {
+        Filter filter = filters.get(expression);
+        if (filter == null)
+        {
+            try
+            {
+                filter = new ParseFilter().parseFilterString(expression);
+            }
+            catch (CharacterCodingException e)
+            {
+                throw new HBaseServiceException(e);
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new HBaseServiceException(e);
+            }
+            compilations.incrementAndGet();
+            if (filters.size() >= maxCachedFilters)
+            {
+                // expressions built from message values would grow the cache forever
+                filters.clear();
+            }
+            filters.put(expression, filter);
+        }
+        return filter;
+    }
+
+    /** @return the amount of cached filters, and of compiled expressions */
+    public Map<String, Number> getStatistics()
+    {
+        Map<String, Number> statistics = new LinkedHashMap<String, Number>();
+        statistics.put("filters.cached", filters.size());
+        statistics.put("filters.compilations", compilations.get());
+        return statistics;
+    }
+}
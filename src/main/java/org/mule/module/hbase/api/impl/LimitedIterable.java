@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase.api.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.hadoop.hbase.client.Result;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The first <code>limit</code> rows of a scan. As soon as the last of them is
+ * answered, the scan is closed without asking it for more rows, so that its
+ * scanner is released right away.
+ */
+public class LimitedIterable implements Iterable<Result>, Closeable
+{
+    private static final Logger logger = LoggerFactory.getLogger(LimitedIterable.class);
+
+    private final Iterable<Result> results;
+    private final int limit;
+
+    public LimitedIterable(Iterable<Result> results, int limit)
+    {
+        this.results = results;
+        this.limit = limit;
+    }
+
+    public Iterator<Result> iterator()
+    {
+        final Iterator<Result> rows = results.iterator();
+        return new Iterator<Result>()
+        {
+            private int answered;
+
+            public boolean hasNext()
+            {
+                return answered < limit && rows.hasNext();
+            }
+
+            public Result next()
+            {
+                if (!hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                Result result = rows.next();
+                if (++answered >= limit)
+                {
+                    close();
+                }
+                return result;
+            }
+
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /** Releases the scanner of the rows, if they were not read until the end */
+    public void close()
+    {
+        if (results instanceof Closeable)
+        {
+            try
+            {
+                ((Closeable) results).close();
+            }
+            catch (IOException e)
+            {
+                logger.warn("Could not close a limited scan: {}", e.getMessage());
+            }
+        }
+    }
+}
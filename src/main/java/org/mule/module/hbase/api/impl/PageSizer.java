@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase.api.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.client.Result;
+
+/**
+ * Decides how many rows the next page of a scan asks for. Adaptive sizers aim
+ * at pages of about <code>maxPageBytes</code>, using the average size of the
+ * rows fetched so far: pages grow, at most doubling each time, while rows are
+ * narrow, and shrink at once when rows are wide. When rows get wider, the next
+ * page is sized for the rows of the last page rather than for the average, so
+ * that a few narrow pages do not make it overshoot <code>maxPageBytes</code>.
+ * A page that took longer than <code>targetPageMillis</code> to fetch halves
+ * the next one, so that a slow server is not asked for ever larger pages.
+ * <p>
+ * Pages never ask for less than 1 row nor more than <code>maxRows</code> rows.
+ */
+public class PageSizer
+{
+    /** Approximate heap overhead of each cell, on top of its row, family, qualifier and value */
+    private static final int CELL_OVERHEAD = 64;
+    /** Weight of the last page in the average size of the rows */
+    private static final double SMOOTHING = 0.3;
+
+    private final int maxRows;
+    private final long maxPageBytes;
+    private final long targetPageMillis;
+    private int pageRows;
+    private double rowBytes;
+
+    public PageSizer(int initialRows, int maxRows, long maxPageBytes, long targetPageMillis)
+    {
+        this.maxRows = Math.max(1, maxRows);
+        this.maxPageBytes = maxPageBytes;
+        this.targetPageMillis = targetPageMillis;
+        this.pageRows = Math.max(1, Math.min(initialRows, this.maxRows));
+    }
+
+    /** @return a sizer whose pages always ask for the given amount of rows */
+    public static PageSizer fixed(int rows)
+    {
+        return new PageSizer(rows, rows, Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    /** @return the amount of rows the next page should ask for */
+    public synchronized int nextPageSize()
+    {
+        return pageRows;
+    }
+
+    /** Adapts the size of the next pages to a page that was just fetched */
+    public synchronized void pageFetched(Result[] results, long elapsedNanos)
+    {
+        if (results.length == 0)
+        {
+            return;
+        }
+        double lastRowBytes = (double) estimateBytes(results) / results.length;
+        rowBytes = rowBytes == 0 ? lastRowBytes : rowBytes * (1 - SMOOTHING) + lastRowBytes * SMOOTHING;
+        // only narrowing rows are smoothed, wider ones are trusted at once
+        double sizingBytes = Math.max(lastRowBytes, rowBytes);
+        long rows = Math.min(maxRows, Math.max(1, (long) (maxPageBytes / Math.max(1, sizingBytes))));
+        if (TimeUnit.NANOSECONDS.toMillis(elapsedNanos) > targetPageMillis)
+        {
+            rows = Math.min(rows, Math.max(1, pageRows / 2));
+        }
+        else
+        {
+            rows = Math.min(rows, 2L * pageRows);
+        }
+        pageRows = (int) rows;
+    }
+
+    /** @return the approximate heap size of the given rows */
+    public static long estimateBytes(Result[] results)
+    {
+        long size = 0;
+        for (Result result : results)
+        {
+            Cell[] cells = result.rawCells();
+            if (cells != null)
+            {
+                for (Cell cell : cells)
+                {
+                    size += CELL_OVERHEAD + cell.getRowLength() + cell.getFamilyLength()
+                            + cell.getQualifierLength() + cell.getValueLength();
+                }
+            }
+        }
+        return size;
+    }
+}
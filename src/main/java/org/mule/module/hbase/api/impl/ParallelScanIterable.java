@@ -0,0 +1,459 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase.api.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.UnhandledException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Scans several partitions of a table at the same time, usually one per region,
+ * using up to <code>parallelism</code> threads. When <code>ordered</code>, rows
+ * are answered in the order of the partitions, which is the row order if the
+ * partitions are sorted; otherwise rows of every partition are answered as soon
+ * as they arrive.
+ * <p>
+ * Each partition keeps at most <code>queueSize</code> pages ahead of the
+ * consumer. A partition that waits for room longer than half of
+ * <code>abandonMillis</code>, usually the scanner timeout, closes its scanner so
+ * that it does not expire, and reopens it after its last row once the consumer
+ * makes room; so in ordered scans, the partitions after the current one wait
+ * for as long as the consumer takes to reach them. Partitions give up only if
+ * the consumer stays away, without asking for any row, for
+ * <code>abandonMillis</code>, or the iterable is closed. If any partition fails
+ * or gives up, the scan stops and the consumer gets the failure on its next
+ * read, instead of waiting for rows that will never come.
+ * <p>
+ * Every iteration scans the partitions on its own, so that iterating again
+ * does not disturb an earlier iteration. The scanners of the partitions are
+ * leased from a {@link ScannerLeaseManager}, which closes them when they are
+ * not used for too long or the manager is closed; the partition then fails
+ * instead of taking the closed scanner as the end of its rows. When the
+ * executor refuses some of the threads, the partitions are scanned by those it
+ * accepted, and the scan fails only if it accepted none.
+ */
+public class ParallelScanIterable extends PaginatedIterable<Result, ParallelScanIterable.Batch> implements Closeable
+{
+    private static final Result[] END = new Result[0];
+    private static final Result[] WAKE_UP = new Result[0];
+    private static final long POLL_MILLIS = 100;
+
+    private final HTableInterfaceFactory tableFactory;
+    private final Configuration configuration;
+    private final byte[] tableName;
+    private final List<Scan> partitions;
+    private final int fetchSize;
+    private final int parallelism;
+    private final boolean ordered;
+    private final int queueSize;
+    private final long abandonMillis;
+    private final ExecutorService executor;
+    private final ScannerLeaseManager scannerLeases;
+    private final Set<Run> runs = Collections.newSetFromMap(new ConcurrentHashMap<Run, Boolean>());
+
+    public ParallelScanIterable(HTableInterfaceFactory tableFactory,
+                                Configuration configuration,
+                                byte[] tableName,
+                                List<Scan> partitions,
+                                int fetchSize,
+                                int parallelism,
+                                boolean ordered,
+                                int queueSize,
+                                long abandonMillis,
+                                ExecutorService executor,
+                                ScannerLeaseManager scannerLeases)
+    {
+        this.tableFactory = tableFactory;
+        this.configuration = configuration;
+        this.tableName = tableName;
+        this.partitions = partitions;
+        this.fetchSize = fetchSize;
+        this.parallelism = parallelism;
+        this.ordered = ordered;
+        this.queueSize = queueSize;
+        this.abandonMillis = abandonMillis;
+        this.executor = executor;
+        this.scannerLeases = scannerLeases;
+    }
+
+    @Override
+    protected Batch firstPage()
+    {
+        Run run = new Run();
+        runs.add(run);
+        run.start();
+        return run.take();
+    }
+
+    /** Stops scanning the partitions of every iteration not finished yet */
+    public void close()
+    {
+        for (Run run : runs)
+        {
+            run.close();
+        }
+    }
+
+    @Override
+    protected Batch nextPage(Batch currentPage)
+    {
+        return currentPage.run.take();
+    }
+
+    @Override
+    protected boolean hasNextPage(Batch page)
+    {
+        if (page.results == END)
+        {
+            page.run.close();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    protected Iterator<Result> pageIterator(Batch page)
+    {
+        return Arrays.asList(page.results).iterator();
+    }
+
+    /** Some rows of a partition, or the end of the scan */
+    static final class Batch
+    {
+        private final Run run;
+        private final Result[] results;
+
+        public Batch(Run run, Result[] results)
+        {
+            this.run = run;
+            this.results = results;
+        }
+    }
+
+    /** A single traversal of the partitions */
+    private final class Run
+    {
+        /**
+         * Queues are not bounded themselves, so that the end of a partition and
+         * the wake up on failures are always enqueued at once; instead, each
+         * queue has permits for the pages that may be ahead of the consumer
+         */
+        private final List<BlockingQueue<Result[]>> queues = new ArrayList<BlockingQueue<Result[]>>();
+        private final List<Semaphore> permits = new ArrayList<Semaphore>();
+        private final AtomicInteger nextPartition = new AtomicInteger();
+        private final Set<ScannerLeaseManager.Lease> leases = Collections.newSetFromMap(
+            new ConcurrentHashMap<ScannerLeaseManager.Lease, Boolean>());
+        /** When the consumer last left {@link #take()}, or 0 while it waits in there */
+        private volatile long consumerAwaySince = System.currentTimeMillis();
+        private volatile boolean closed;
+        private volatile Exception failure;
+        private int current;
+        private int ended;
+
+        public Run()
+        {
+            int queueCount = ordered ? partitions.size() : 1;
+            for (int i = 0; i < queueCount; i++)
+            {
+                queues.add(new LinkedBlockingQueue<Result[]>());
+                permits.add(new Semaphore(ordered ? queueSize : queueSize * parallelism));
+            }
+        }
+
+        public void start()
+        {
+            Runnable worker = new Runnable()
+            {
+                public void run()
+                {
+                    int partition;
+                    while (isScanning() && (partition = nextPartition.getAndIncrement()) < partitions.size())
+                    {
+                        scanPartition(partition);
+                    }
+                }
+            };
+            for (int i = 0; i < Math.min(parallelism, partitions.size()); i++)
+            {
+                try
+                {
+                    executor.execute(worker);
+                }
+                catch (RejectedExecutionException e)
+                {
+                    // the workers already started scan every partition, just with less parallelism
+                    if (i == 0)
+                    {
+                        fail(e);
+                    }
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Answers the next batch of rows, waiting for it if necessary
+         * 
+         * @throws UnhandledException if scanning any partition failed, the
+         *             partitions gave up waiting for the consumer, or the scan
+         *             was closed
+         */
+        public Batch take()
+        {
+            consumerAwaySince = 0;
+            try
+            {
+                while (ordered ? current < partitions.size() : ended < partitions.size())
+                {
+                    checkScanning();
+                    int queue = ordered ? current : 0;
+                    Result[] results = queues.get(queue).poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (results == null || results == WAKE_UP)
+                    {
+                        continue;
+                    }
+                    if (results != END)
+                    {
+                        permits.get(queue).release();
+                        return new Batch(this, results);
+                    }
+                    current++;
+                    ended++;
+                }
+                return new Batch(this, END);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                close();
+                throw new UnhandledException(new InterruptedIOException("Interrupted while waiting for rows"));
+            }
+            finally
+            {
+                consumerAwaySince = System.currentTimeMillis();
+            }
+        }
+
+        public void close()
+        {
+            closed = true;
+            runs.remove(this);
+            for (BlockingQueue<Result[]> queue : queues)
+            {
+                queue.clear();
+            }
+            for (ScannerLeaseManager.Lease lease : leases)
+            {
+                lease.close(ScannerLeaseManager.Reason.RELEASED);
+            }
+            wakeUpProducers();
+        }
+
+        private boolean isScanning()
+        {
+            return !closed && failure == null;
+        }
+
+        private void checkScanning()
+        {
+            if (failure != null)
+            {
+                close();
+                throw new UnhandledException(failure);
+            }
+            if (closed)
+            {
+                throw new UnhandledException(new IOException("The scan was closed before reading all its rows"));
+            }
+        }
+
+        private void scanPartition(int partition)
+        {
+            int queue = ordered ? partition : 0;
+            try
+            {
+                Scan scan = partitions.get(partition);
+                boolean exhausted = false;
+                while (!exhausted && isScanning())
+                {
+                    HTableInterface table = tableFactory.createHTableInterface(configuration, tableName);
+                    ResultScanner scanner;
+                    try
+                    {
+                        scanner = table.getScanner(scan);
+                    }
+                    catch (IOException e)
+                    {
+                        tableFactory.releaseHTableInterface(table);
+                        throw e;
+                    }
+                    ScannerLeaseManager.Lease lease = lease(table, scanner);
+                    ScannerLeaseManager.Reason reason = ScannerLeaseManager.Reason.RELEASED;
+                    Result[] parked = null;
+                    try
+                    {
+                        Result[] results;
+                        do
+                        {
+                            results = scanner.next(fetchSize);
+                            lease.touch();
+                            checkNotClosed(lease);
+                            exhausted = results.length < fetchSize;
+                            if (results.length > 0 && !offer(queue, results, abandonMillis / 2))
+                            {
+                                parked = results;
+                                scan = resumeAfter(scan, results[results.length - 1]);
+                            }
+                        }
+                        while (!exhausted && parked == null && isScanning());
+                        if (exhausted)
+                        {
+                            reason = ScannerLeaseManager.Reason.EXHAUSTED;
+                        }
+                    }
+                    finally
+                    {
+                        leases.remove(lease);
+                        lease.close(reason);
+                    }
+                    if (parked != null)
+                    {
+                        // the scanner is closed meanwhile, so that it does not expire before the consumer comes
+                        offer(queue, parked, Long.MAX_VALUE);
+                    }
+                }
+            }
+            catch (Exception e)
+            {
+                fail(e);
+            }
+            finally
+            {
+                queues.get(queue).add(END);
+            }
+        }
+
+        /** @return a scan of the rest of the partition, after the given row */
+        private Scan resumeAfter(Scan scan, Result last) throws IOException
+        {
+            Scan rest = new Scan(scan);
+            rest.setStartRow(Bytes.add(last.getRow(), new byte[1]));
+            return rest;
+        }
+
+        /** Leases the scanner of a partition, with its table, until the partition ends */
+        private ScannerLeaseManager.Lease lease(final HTableInterface table, ResultScanner scanner)
+        {
+            ScannerLeaseManager.Lease lease = scannerLeases.open(new Closeable()
+            {
+                public void close() throws IOException
+                {
+                    tableFactory.releaseHTableInterface(table);
+                }
+            }, scanner);
+            leases.add(lease);
+            if (closed)
+            {
+                // the run was closed while opening the scanner, and did not see its lease
+                lease.close(ScannerLeaseManager.Reason.RELEASED);
+            }
+            return lease;
+        }
+
+        /** A closed scanner answers no rows, which must not be taken as the end of the partition */
+        private void checkNotClosed(ScannerLeaseManager.Lease lease) throws IOException
+        {
+            ScannerLeaseManager.Reason reason = lease.getClosedReason();
+            if (reason != null)
+            {
+                throw new IOException("The scanner was closed before reading every row: " + reason);
+            }
+        }
+
+        /** Records the first failure, and wakes up the consumer wherever it waits */
+        private void fail(Exception e)
+        {
+            if (failure == null && !closed)
+            {
+                failure = e;
+            }
+            // the consumer may never come back, and the partitions stop on their own
+            runs.remove(this);
+            for (BlockingQueue<Result[]> queue : queues)
+            {
+                queue.add(WAKE_UP);
+            }
+            wakeUpProducers();
+        }
+
+        /** Lets the partitions waiting for the consumer notice that the scan stopped */
+        private void wakeUpProducers()
+        {
+            for (Semaphore semaphore : permits)
+            {
+                semaphore.release(partitions.size());
+            }
+        }
+
+        /**
+         * Enqueues a page once the consumer made room for it
+         * 
+         * @return false if there was no room within the given milliseconds,
+         *         leaving the page to the caller
+         * @throws IOException if the consumer stayed away for longer than
+         *             <code>abandonMillis</code>
+         */
+        private boolean offer(int queue, Result[] results, long waitMillis) throws IOException, InterruptedException
+        {
+            long start = System.currentTimeMillis();
+            while (!permits.get(queue).tryAcquire(POLL_MILLIS, TimeUnit.MILLISECONDS))
+            {
+                long now = System.currentTimeMillis();
+                long awaySince = consumerAwaySince;
+                if (awaySince > 0 && now - awaySince >= abandonMillis)
+                {
+                    throw new IOException("Scan abandoned after " + abandonMillis
+                                          + " ms without consuming any row");
+                }
+                if (now - start >= waitMillis)
+                {
+                    return false;
+                }
+            }
+            if (isScanning())
+            {
+                queues.get(queue).add(results);
+            }
+            return true;
+        }
+    }
+}
@@ -8,38 +8,60 @@
 
 package org.mule.module.hbase.api.impl;
 
+import org.mule.module.hbase.api.BatchPutResult;
 import org.mule.module.hbase.api.BloomFilterType;
 import org.mule.module.hbase.api.ByteArrayConverter;
+import org.mule.module.hbase.api.CheckpointStore;
 import org.mule.module.hbase.api.CompressionType;
 import org.mule.module.hbase.api.HBaseService;
 import org.mule.module.hbase.api.HBaseServiceException;
+import org.mule.module.hbase.api.ScanOptions;
 import org.mule.transport.NullPayload;
 import org.mule.wrapper.hbase.ResultWrapper;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.apache.commons.beanutils.BeanUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.UnhandledException;
 import org.apache.commons.lang.Validate;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.HColumnDescriptor;
 import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionLocation;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.MasterNotRunningException;
+import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.TableNotFoundException;
 import org.apache.hadoop.hbase.ZooKeeperConnectionException;
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HConnection;
 import org.apache.hadoop.hbase.client.HConnectionManager;
-import org.apache.hadoop.hbase.client.HTableFactory;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
 import org.apache.hadoop.hbase.client.Put;
@@ -47,6 +69,13 @@ import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
 //import org.apache.hadoop.hbase.client.RowLock;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.RandomRowFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * {@link HBaseService} that uses the official RPC client to connect with the
@@ -60,6 +89,28 @@ import org.apache.hadoop.hbase.client.Scan;
  * <li><a href="https://issues.apache.org/jira/browse/HBASE-3734">
  * https://issues.apache.org/jira/browse/HBASE-3734</a></li>
  * </ul>
+ * Every table and admin handle is obtained from a single {@link HConnection}
+ * that lives from {@link #initialise()} to {@link #dispose()}, so that the
+ * ZooKeeper session and the region locations cache are kept between operations.
+ * Row operations reuse handles from a {@link TableHandlePool}, that can be tuned
+ * using the <code>mule.hbase.table.pool.*</code> properties, and every table
+ * handle runs its multi-row requests on a single {@link SharedBatchExecutor},
+ * tuned using the <code>mule.hbase.batch.executor.*</code> properties.
+ * Puts to the tables listed in <code>mule.hbase.write.buffer.tables</code> are
+ * buffered by a {@link WriteBufferManager} and sent in bulk. Asynchronous
+ * operations run on another bounded executor, tuned using the
+ * <code>mule.hbase.async.executor.*</code> properties. Scans that prefetch
+ * their pages, scan regions in parallel or count rows use threads of a third
+ * bounded executor, tuned using the <code>mule.hbase.scan.executor.*</code>
+ * properties. Since those threads wait for the consumer of the rows, it queues
+ * no scan by default: a scan refused by a busy executor is not prefetched, a
+ * parallel scan uses the threads it got, and a count runs on the caller.
+ * Scanners of serial scans are leased from a {@link ScannerLeaseManager}, that
+ * closes them once they are unused for <code>mule.hbase.scanner.idle.timeout.ms</code>.
+ * Checkpointed scans record their progress in the {@link CheckpointStore} given
+ * to {@link #setCheckpointStore(CheckpointStore)}, or else in the table named by
+ * <code>mule.hbase.checkpoint.table</code>, or else in files of
+ * <code>mule.hbase.checkpoint.dir</code>.
  * 
  * @author Pablo Martin Grigolatto
  * @since Apr 11, 2011
@@ -67,14 +118,97 @@ import org.apache.hadoop.hbase.client.Scan;
 public class RPCHBaseService implements HBaseService
 {
 
+    /** Maximum amount of handles lent at the same time for each table */
+    public static final String TABLE_POOL_MAX_SIZE = "mule.hbase.table.pool.max.size";
+    /** Milliseconds to wait for a table handle before failing */
+    public static final String TABLE_POOL_BORROW_TIMEOUT = "mule.hbase.table.pool.borrow.timeout.ms";
+    /** Milliseconds a table handle may stay idle before being evicted */
+    public static final String TABLE_POOL_IDLE_TIMEOUT = "mule.hbase.table.pool.idle.timeout.ms";
+    /** Threads kept by the executor shared by all table handles */
+    public static final String BATCH_EXECUTOR_CORE_SIZE = "mule.hbase.batch.executor.core.size";
+    /** Maximum threads of the executor shared by all table handles */
+    public static final String BATCH_EXECUTOR_MAX_SIZE = "mule.hbase.batch.executor.max.size";
+    /** Tasks that may wait for a thread of the shared executor */
+    public static final String BATCH_EXECUTOR_QUEUE_SIZE = "mule.hbase.batch.executor.queue.size";
+    /** Milliseconds an idle thread of the shared executor is kept alive */
+    public static final String BATCH_EXECUTOR_KEEP_ALIVE = "mule.hbase.batch.executor.keepalive.ms";
+    /** Either <code>caller-runs</code> or <code>abort</code> */
+    public static final String BATCH_EXECUTOR_REJECTION_POLICY = "mule.hbase.batch.executor.rejection.policy";
+    /** Threads kept by the executor of asynchronous operations */
+    public static final String ASYNC_EXECUTOR_CORE_SIZE = "mule.hbase.async.executor.core.size";
+    /** Maximum threads of the executor of asynchronous operations */
+    public static final String ASYNC_EXECUTOR_MAX_SIZE = "mule.hbase.async.executor.max.size";
+    /** Asynchronous operations that may wait for a thread */
+    public static final String ASYNC_EXECUTOR_QUEUE_SIZE = "mule.hbase.async.executor.queue.size";
+    /** Milliseconds an idle thread of the asynchronous executor is kept alive */
+    public static final String ASYNC_EXECUTOR_KEEP_ALIVE = "mule.hbase.async.executor.keepalive.ms";
+    /**
+     * Either <code>caller-runs</code> or <code>abort</code>, by default
+     * <code>abort</code>: refused operations answer a failed future, instead of
+     * blocking the flow that expected to go on
+     */
+    public static final String ASYNC_EXECUTOR_REJECTION_POLICY = "mule.hbase.async.executor.rejection.policy";
+    /** Threads kept by the executor of prefetching, parallel and counting scans */
+    public static final String SCAN_EXECUTOR_CORE_SIZE = "mule.hbase.scan.executor.core.size";
+    /** Maximum threads of the scan executor, beyond which scans are neither prefetched nor parallel */
+    public static final String SCAN_EXECUTOR_MAX_SIZE = "mule.hbase.scan.executor.max.size";
+    /** Scans that may wait for a thread of the scan executor, none by default */
+    public static final String SCAN_EXECUTOR_QUEUE_SIZE = "mule.hbase.scan.executor.queue.size";
+    /** Milliseconds an idle thread of the scan executor is kept alive */
+    public static final String SCAN_EXECUTOR_KEEP_ALIVE = "mule.hbase.scan.executor.keepalive.ms";
+    /** Maximum amount of compiled filter expressions kept for reuse */
+    public static final String FILTER_CACHE_SIZE = "mule.hbase.filter.cache.size";
+    /** Milliseconds a scan may stay unused before its scanner is closed */
+    public static final String SCANNER_IDLE_TIMEOUT = "mule.hbase.scanner.idle.timeout.ms";
+    /** Maximum rows of each page of scans with adaptive paging */
+    public static final String SCAN_ADAPTIVE_MAX_ROWS = "mule.hbase.scan.adaptive.max.rows";
+    /** Milliseconds of fetching a page above which adaptive pages shrink */
+    public static final String SCAN_ADAPTIVE_TARGET_PAGE_MILLIS = "mule.hbase.scan.adaptive.target.page.ms";
+    /**
+     * Directory of the checkpoint files, when no checkpoint table is given. By
+     * default, a directory of the working directory of Mule
+     */
+    public static final String CHECKPOINT_DIR = "mule.hbase.checkpoint.dir";
+    /** Existing table where checkpoints are kept instead of files */
+    public static final String CHECKPOINT_TABLE = "mule.hbase.checkpoint.table";
+    /** Column family of the checkpoint table */
+    public static final String CHECKPOINT_FAMILY = "mule.hbase.checkpoint.family";
+    /** Comma separated names of the tables whose puts are buffered in the client */
+    public static final String WRITE_BUFFER_TABLES = "mule.hbase.write.buffer.tables";
+    /** Buffered bytes of a table that trigger a flush */
+    public static final String WRITE_BUFFER_MAX_BYTES = "mule.hbase.write.buffer.max.bytes";
+    /** Buffered puts of a table that trigger a flush */
+    public static final String WRITE_BUFFER_MAX_ROWS = "mule.hbase.write.buffer.max.rows";
+    /** Milliseconds a buffered put may wait before its table is flushed */
+    public static final String WRITE_BUFFER_MAX_LINGER = "mule.hbase.write.buffer.max.linger.ms";
+
+    private static final Logger logger = LoggerFactory.getLogger(RPCHBaseService.class);
     private static final Charset UTF8 = Charset.forName("utf-8");
+    private static final String WATERMARK_PREFIX = "watermark.";
     private static final ByteArrayConverter BYTE_ARRAY_CONVERTER = new ByteArrayConverter(UTF8);
-    private HTableInterfaceFactory hTableInterfaceFactory;
     private Configuration configuration;
+    private volatile HConnection connection;
+    private TableHandlePool tablePool;
+    private SharedBatchExecutor batchExecutor;
+    private SharedBatchExecutor asyncExecutor;
+    private RegionLocationWarmer warmer;
+    private WriteBufferManager writeBuffers;
+    private FilterCompiler filterCompiler;
+    private ScannerLeaseManager scannerLeases;
+    private SharedBatchExecutor scanExecutor;
+    private CheckpointStore checkpointStore;
+    private CheckpointStore customCheckpointStore;
+    private final AtomicLong prefetchingScans = new AtomicLong();
+    private final AtomicLong prefetchWaitNanos = new AtomicLong();
+    private final AtomicLong parallelScans = new AtomicLong();
+    private final AtomicLong parallelScanPartitions = new AtomicLong();
+    private final AtomicLong adaptiveScans = new AtomicLong();
+    private final AtomicLong sampledScans = new AtomicLong();
+    private final AtomicLong checkpointResumes = new AtomicLong();
+    private final AtomicLong checkpointSaves = new AtomicLong();
 
     public RPCHBaseService()
     {
-        hTableInterfaceFactory = new HTableFactory();
         configuration = HBaseConfiguration.create();
     }
 
@@ -427,19 +561,69 @@ public class RPCHBaseService implements HBaseService
     /** @see HBaseService#get(String, String, Integer, Long) */
     public ResultWrapper get(String tableName, final String rowKey, final String columnFamilyName, final String columnQualifier, final Integer maxVersions, final Long timestamp)
     {
+        return get(tableName, rowKey, columnFamilyName, columnQualifier, maxVersions, timestamp, null);
+    }
+
+    /** @see HBaseService#get(String, String, String, String, Integer, Long, String) */
+    public ResultWrapper get(String tableName,
+                             final String rowKey,
+                             final String columnFamilyName,
+                             final String columnQualifier,
+                             final Integer maxVersions,
+                             final Long timestamp,
+                             final String filter)
+    {
+        final Get get = createGet(rowKey, columnFamilyName, columnQualifier, maxVersions, timestamp);
+        if (filter != null)
+        {
+            get.setFilter(getFilterCompiler().compile(filter));
+        }
         return doWithHTable(tableName, new TableCallback<ResultWrapper>()
         {
             public ResultWrapper doWithHBaseAdmin(HTableInterface hTable) throws Exception
             {
-            	ResultWrapper rw=new ResultWrapper();
-            	//just a workaround until Mule Devkit fixes this issue
-                BeanUtils.copyProperties(hTable.get(createGet(rowKey, columnFamilyName, columnQualifier, maxVersions, timestamp)),rw);
-                return rw;
+                return toResultWrapper(hTable.get(get));
+            }
+        });
+    }
+
+    /** @see HBaseService#getBatch(String, List, String, String, Integer, Long, int) */
+    public List<ResultWrapper> getBatch(String tableName,
+                                        final List<String> rowKeys,
+                                        final String columnFamilyName,
+                                        final String columnQualifier,
+                                        final Integer maxVersions,
+                                        final Long timestamp,
+                                        final int chunkSize)
+    {
+        Validate.notNull(rowKeys);
+        Validate.isTrue(chunkSize > 0);
+        return doWithHTable(tableName, new TableCallback<List<ResultWrapper>>()
+        {
+            public List<ResultWrapper> doWithHBaseAdmin(HTableInterface hTable) throws Exception
+            {
+                List<ResultWrapper> results = new ArrayList<ResultWrapper>(rowKeys.size());
+                List<Get> gets = new ArrayList<Get>(Math.min(chunkSize, rowKeys.size()));
+                for (int from = 0; from < rowKeys.size(); from += chunkSize)
+                {
+                    gets.clear();
+                    for (String rowKey : rowKeys.subList(from, Math.min(from + chunkSize, rowKeys.size())))
+                    {
+                        gets.add(createGet(rowKey, columnFamilyName, columnQualifier, maxVersions, timestamp));
+                    }
+                    for (Result result : hTable.get(gets))
+                    {
+                        results.add(toResultWrapper(result));
+                    }
+                }
+                return results;
             }
         });
     }
 
     /**
+     * Puts to buffered tables are only sent once their table buffer is flushed.
+     * 
      * @see HBaseService#put(String, String, String, String, Long, String, Boolean)
      */
     public void put(String tableName,
@@ -450,6 +634,21 @@ public class RPCHBaseService implements HBaseService
                     final Object value,
                     final boolean writeToWAL)
     {
+        Validate.isTrue(StringUtils.isNotBlank(tableName));
+        final WriteBufferManager buffers = getWriteBuffers();
+        if (buffers.isBuffered(tableName))
+        {
+            try
+            {
+                buffers.add(tableName,
+                    createPut(row, columnFamilyName, columnQualifier, timestamp, value, writeToWAL));
+            }
+            catch (IOException e)
+            {
+                throw new HBaseServiceException(e);
+            }
+            return;
+        }
         doWithHTable(tableName, new TableCallback<Void>()
         {
             public Void doWithHBaseAdmin(HTableInterface hTable) throws Exception
@@ -462,6 +661,101 @@ public class RPCHBaseService implements HBaseService
         });
     }
 
+    /** @see HBaseService#putBatch(String, List, boolean, int) */
+    public BatchPutResult putBatch(String tableName,
+                                   final List<Map<String, Object>> records,
+                                   final boolean writeToWAL,
+                                   final int chunkSize)
+    {
+        Validate.notNull(records);
+        Validate.isTrue(chunkSize > 0);
+        final BatchPutResult result = new BatchPutResult(records.size());
+        doWithHTable(tableName, new TableCallback<Void>()
+        {
+            public Void doWithHBaseAdmin(HTableInterface hTable) throws Exception
+            {
+                List<Put> puts = new ArrayList<Put>(Math.min(chunkSize, records.size()));
+                List<Integer> indexes = new ArrayList<Integer>(Math.min(chunkSize, records.size()));
+                for (int i = 0; i < records.size(); i++)
+                {
+                    try
+                    {
+                        puts.add(createPut(records.get(i), writeToWAL));
+                        indexes.add(i);
+                    }
+                    catch (RuntimeException e)
+                    {
+                        result.addFailure(i, recordRowKey(records.get(i)), e);
+                    }
+                    if (puts.size() == chunkSize)
+                    {
+                        putChunk(hTable, puts, indexes, records, result);
+                        puts.clear();
+                        indexes.clear();
+                    }
+                }
+                if (!puts.isEmpty())
+                {
+                    putChunk(hTable, puts, indexes, records, result);
+                }
+                return null;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Sends a chunk of puts in a single multi request, reporting the puts that
+     * failed into the result
+     */
+    private void putChunk(HTableInterface hTable,
+                          List<Put> puts,
+                          List<Integer> indexes,
+                          List<Map<String, Object>> records,
+                          BatchPutResult result) throws InterruptedException
+    {
+        Object[] outcomes = new Object[puts.size()];
+        IOException batchError = null;
+        try
+        {
+            hTable.batch(puts, outcomes);
+        }
+        catch (IOException e)
+        {
+            // the failed actions are also reported one by one in the outcomes
+            batchError = e;
+        }
+        for (int i = 0; i < outcomes.length; i++)
+        {
+            if (outcomes[i] == null || outcomes[i] instanceof Throwable)
+            {
+                int index = indexes.get(i);
+                Throwable cause = outcomes[i] != null ? (Throwable) outcomes[i] : batchError;
+                result.addFailure(index, recordRowKey(records.get(index)), cause);
+            }
+        }
+    }
+
+    /** @see HBaseService#flushCommits(String) */
+    public void flushCommits(String tableName)
+    {
+        try
+        {
+            if (tableName == null)
+            {
+                getWriteBuffers().flushAll();
+            }
+            else
+            {
+                getWriteBuffers().flush(tableName);
+            }
+        }
+        catch (IOException e)
+        {
+            throw new HBaseServiceException(e);
+        }
+    }
+
     /** @see HBaseService#exists(String, String, Integer, Long) */
     public boolean exists(String tableName, final String row, final Integer maxVersions, final Long timestamp)
 
@@ -508,237 +802,812 @@ public class RPCHBaseService implements HBaseService
                                  final String stopRow,
                                  final int fetchSize)
     {
-        return doWithHTable(tableName, new TableCallback<ResultIterable>()
+        return scan(tableName, columnFamilyName, columnQualifier, timestamp, maxTimestamp, caching, cacheBlocks,
+            maxVersions, startRow, stopRow, fetchSize, new ScanOptions());
+    }
+
+    /**
+     * Scans prefetching pages use a dedicated thread, that keeps up to
+     * {@link ScanOptions#getPrefetchPages()} pages ahead of the consumer.
+     * Limited scans never ask for more rows than their limit, and release their
+     * scanner through a {@link LimitedIterable} once the limit is reached.
+     * Scans with adaptive paging bound the bytes of each response of the region
+     * servers, and size the pages of serial scans using a {@link PageSizer}.
+     * Parallel scans split the scanned range at region boundaries and scan the
+     * pieces in a {@link ParallelScanIterable}. Checkpointed scans start after
+     * the row of their checkpoint, if any, and record their progress through a
+     * {@link CheckpointedIterable}.
+     * 
+     * @see HBaseService#scan(String, String, String, Long, Long, Integer,
+     *      boolean, int, String, String, int, ScanOptions)
+     */
+    public Iterable<Result> scan(final String tableName,
+                                 final String columnFamilyName,
+                                 final String columnQualifier,
+                                 final Long timestamp,
+                                 final Long maxTimestamp,
+                                 final Integer caching,
+                                 final boolean cacheBlocks,
+                                 final int maxVersions,
+                                 final String startRow,
+                                 final String stopRow,
+                                 final int fetchSize,
+                                 final ScanOptions options)
+    {
+        Validate.notNull(options);
+        final Scan scan = new Scan();
+        addColumns(scan, columnFamilyName, columnQualifier);
+        if (timestamp != null)
         {
-            public ResultIterable doWithHBaseAdmin(HTableInterface hTable) throws Exception
+            if (maxTimestamp != null)
             {
-                Scan scan = new Scan();
-                if (columnFamilyName != null)
-                {
-                    if (columnQualifier != null)
-                    {
-                        scan.addColumn(columnFamilyName.getBytes(UTF8), columnQualifier.getBytes(UTF8));
-                    }
-                    else
-                    {
-                        scan.addFamily(columnFamilyName.getBytes(UTF8));
-                    }
-                }
-                if (timestamp != null)
-                {
-                    if (maxTimestamp != null)
-                    {
-                        scan.setTimeRange(timestamp, maxTimestamp);
-                    }
-                    else
-                    {
-                        scan.setTimeStamp(timestamp);
-                    }
-                }
-                if (caching != null)
-                {
-                    scan.setCaching(caching);
-                }
-                scan.setCacheBlocks(cacheBlocks);
-                scan.setMaxVersions(maxVersions);
-                if (startRow != null)
+                try
                 {
-                    scan.setStartRow(startRow.getBytes(UTF8));
+                    scan.setTimeRange(timestamp, maxTimestamp);
                 }
-                if (stopRow != null)
+                catch (IOException e)
                 {
-                    scan.setStopRow(stopRow.getBytes(UTF8));
+                    throw new HBaseServiceException(e);
                 }
-
-                return new ResultIterable(scan, fetchSize, hTable);
             }
-        }, false);
-    }
-
-    private static class ScannerAndResults
-    {
-        private ResultScanner scanner;
-        private Result[] results;
-
-        public ScannerAndResults(ResultScanner scanner, int fetchSize) throws IOException
+            else
+            {
+                scan.setTimeStamp(timestamp);
+            }
+        }
+        if (caching != null)
         {
-            this(scanner, scanner.next(fetchSize));
+            scan.setCaching(caching);
         }
-
-        public ScannerAndResults(ResultScanner scanner, Result[] results)
+        scan.setCacheBlocks(cacheBlocks);
+        scan.setMaxVersions(maxVersions);
+        if (startRow != null)
         {
-            this.scanner = scanner;
-            this.results = results;
+            scan.setStartRow(startRow.getBytes(UTF8));
         }
-
-        public Result[] getResults()
+        if (stopRow != null)
         {
-            return results;
+            scan.setStopRow(stopRow.getBytes(UTF8));
         }
-
-    }
-
-    private static final class ResultIterable extends PaginatedIterable<Result, ScannerAndResults>
-    {
-        private final HTableInterface hTable;
-        private final int fetchSize;
-        private final Scan scan;
-
-        public ResultIterable(Scan scan, int fetchSize, HTableInterface hTable)
+        if (options.getFilter() != null)
         {
-            this.scan = scan;
-            this.fetchSize = fetchSize;
-            this.hTable = hTable;
+            scan.setFilter(getFilterCompiler().compile(options.getFilter()));
         }
-
-        @Override
-        protected ScannerAndResults firstPage()
+        Validate.isTrue(options.getSamplingRate() > 0 && options.getSamplingRate() <= 1,
+            "The sampling rate must be above 0 and up to 1, but was " + options.getSamplingRate());
+        if (options.getSamplingRate() < 1)
         {
-            try
+            // discarded rows are not evaluated by the other filters
+            FilterList filters = new FilterList(FilterList.Operator.MUST_PASS_ALL, new RandomRowFilter(
+                options.getSamplingRate()));
+            if (scan.getFilter() != null)
             {
-                return getMoreResults(hTable.getScanner(scan));
+                filters.addFilter(scan.getFilter());
             }
-            catch (IOException e)
+            scan.setFilter(filters);
+            sampledScans.incrementAndGet();
+        }
+        if (options.isAdaptivePaging())
+        {
+            // the region servers fill each response up to the byte limit instead of a fixed amount of rows
+            scan.setMaxResultSize(options.getMaxPageBytes());
+            if (caching == null)
             {
-                throw new UnhandledException(e);
+                scan.setCaching(configuration.getInt(SCAN_ADAPTIVE_MAX_ROWS, 10000));
             }
+            adaptiveScans.incrementAndGet();
         }
-
-        private ScannerAndResults getMoreResults(ResultScanner scanner)
+        scan.setSmall(options.isSmall());
+        if (options.isReversed())
         {
-            try
+            Validate.isTrue(options.getParallelism() <= 1, "Reversed scans can not scan regions in parallel");
+            scan.setReversed(true);
+        }
+        if (options.getLimit() > 0 && caching == null)
+        {
+            // no row beyond the limit is sent back, and small scans get every row in their only request
+            int limitCaching = options.getLimit();
+            if (scan.getCaching() > 0)
             {
-                return new ScannerAndResults(scanner, fetchSize);
+                limitCaching = Math.min(scan.getCaching(), limitCaching);
             }
-            catch (IOException e)
+            else if (!options.isSmall())
             {
-                throw new UnhandledException(e);
+                // other scans keep their usual pages, a large limit must not ask for every row at once
+                limitCaching = Math.min(limitCaching, Math.min(fetchSize, configuration.getInt(
+                    HConstants.HBASE_CLIENT_SCANNER_CACHING, HConstants.DEFAULT_HBASE_CLIENT_SCANNER_CACHING)));
             }
+            scan.setCaching(limitCaching);
         }
-
-        @Override
-        protected boolean hasNextPage(ScannerAndResults page)
+        if (options.getCheckpointId() != null)
         {
-            boolean hasNextPage = page.getResults().length == fetchSize;
-            if(!hasNextPage){
-            	closeHTable();
-            }
-        	return hasNextPage;
+            Validate.isTrue(options.isOrdered() || options.getParallelism() <= 1,
+                "Checkpointed scans must answer their rows in order");
+            Validate.isTrue(!options.isReversed() && options.getLimit() <= 0,
+                "Checkpointed scans can not be reversed nor limited");
+            resumeFromCheckpoint(scan, options.getCheckpointId());
         }
 
-        private void closeHTable() {
-        	try
-        	{
-        		hTable.close();
-			} 
-        	catch (IOException e) 
-        	{
-				throw new UnhandledException(e);
-			}
-			
-		}
-
-        @Override
-        protected ScannerAndResults nextPage(ScannerAndResults currentPage)
+        Iterable<Result> results;
+        if (options.getParallelism() > 1)
         {
-            return getMoreResults(currentPage.scanner);
+            results = parallelScan(tableName, scan, fetchSize, options);
         }
-
-        @Override
-        protected Iterator<Result> pageIterator(ScannerAndResults page)
+        else
         {
-            return Arrays.asList(page.results).iterator();
+            Validate.isTrue(StringUtils.isNotBlank(tableName));
+            results = new ResultIterable(scan, fetchSize, tableName, options);
         }
-
+        if (options.getLimit() > 0)
+        {
+            results = new LimitedIterable(results, options.getLimit());
+        }
+        if (options.getCheckpointId() != null)
+        {
+            return new CheckpointedIterable(results, getCheckpointStore(), options.getCheckpointId(),
+                options.getCheckpointInterval(), options.getCheckpointSliceMillis(), checkpointSaves);
+        }
+        return results;
     }
 
-    /** @see HBaseService#increment(String, String, String, String, long, boolean) */
-    public long increment(final String tableName,
-                          final String row,
-                          final String columnFamilyName,
-                          final String columnQualifier,
-                          final long amount,
-                          final boolean writeToWAL)
+    /** Moves the start of the scan just after the row of the given checkpoint, if any */
+    private void resumeFromCheckpoint(Scan scan, String checkpointId)
     {
-        Validate.isTrue(StringUtils.isNotBlank(tableName));
-        Validate.isTrue(StringUtils.isNotBlank(row));
-        Validate.isTrue(StringUtils.isNotBlank(columnFamilyName));
-        Validate.isTrue(StringUtils.isNotBlank(columnQualifier));
-        return doWithHTable(tableName, new TableCallback<Long>()
+        byte[] checkpoint;
+        try
         {
-            public Long doWithHBaseAdmin(HTableInterface hTable) throws Exception
+            checkpoint = getCheckpointStore().load(checkpointId);
+        }
+        catch (IOException e)
+        {
+            throw new HBaseServiceException(e);
+        }
+        if (checkpoint != null)
+        {
+            // the smallest key after the checkpoint
+            byte[] resumeRow = Bytes.add(checkpoint, new byte[1]);
+            if (Bytes.compareTo(resumeRow, scan.getStartRow()) > 0)
             {
-                return hTable.incrementColumnValue(row.getBytes(UTF8), columnFamilyName.getBytes(UTF8),
-                    columnQualifier.getBytes(UTF8), amount, writeToWAL);
+                logger.info("Resuming scan {} after row {}", checkpointId, Bytes.toStringBinary(checkpoint));
+                scan.setStartRow(resumeRow);
+                checkpointResumes.incrementAndGet();
             }
-        });
+        }
     }
 
-    /**
-     * @see HBaseService#checkAndPut(String, String, String, String, String, String,
-     *      String, Long, String, Boolean)
-     */
-    public boolean checkAndPut(final String tableName,
-                               final String row,
-                               final String checkColumnFamilyName,
-                               final String checkColumnQualifier,
-                               final Object checkValue,
-                               final String putColumnFamilyName,
-                               final String putColumnQualifier,
-                               final Long putTimestamp,
-                               final Object putValue,
-                               final boolean putWriteToWAL)
+    private ParallelScanIterable parallelScan(String tableName, Scan scan, int fetchSize, ScanOptions options)
     {
-        return doWithHTable(tableName, new TableCallback<Boolean>()
+        Validate.isTrue(StringUtils.isNotBlank(tableName));
+        try
         {
-            public Boolean doWithHBaseAdmin(HTableInterface hTable) throws Exception
-            {
-                final Put put = createPut(row, putColumnFamilyName, putColumnQualifier, putTimestamp,
-                    putValue, putWriteToWAL);
-                return hTable.checkAndPut(row.getBytes(UTF8), checkColumnFamilyName.getBytes(UTF8),
-                    checkColumnQualifier.getBytes(UTF8), toByteArray(checkValue), put);
-            }
-        });
+            List<Scan> partitions = partitionByRegion(tableName, scan);
+            parallelScans.incrementAndGet();
+            parallelScanPartitions.addAndGet(partitions.size());
+            return new ParallelScanIterable(new SharedConnectionTableFactory(), configuration,
+                tableName.getBytes(UTF8), partitions, fetchSize, options.getParallelism(), options.isOrdered(),
+                Math.max(2, options.getPrefetchPages()), configuration.getLong(
+                    HConstants.HBASE_CLIENT_SCANNER_TIMEOUT_PERIOD,
+                    HConstants.DEFAULT_HBASE_CLIENT_SCANNER_TIMEOUT_PERIOD), scanExecutor, getScannerLeases());
+        }
+        catch (IOException e)
+        {
+            throw new HBaseServiceException(e);
+        }
     }
 
     /**
-     * @see HBaseService#checkAndDelete(String, String, String, String, String,
-     *      String, String, Long, Boolean)
+     * Splits the range of the given scan at the region boundaries of the table,
+     * answering one scan per region that overlaps the range, sorted by row
      */
-    public boolean checkAndDelete(final String tableName,
-                                  final String row,
-                                  final String checkColumnFamilyName,
-                                  final String checkColumnQualifier,
-                                  final Object checkValue,
-                                  final String deleteColumnFamilyName,
-                                  final String deleteColumnQualifier,
-                                  final Long deleteTimestamp,
-                                  final Boolean deleteAllVersions)
+    private List<Scan> partitionByRegion(String tableName, Scan scan) throws IOException
     {
-        return doWithHTable(tableName, new TableCallback<Boolean>()
+        List<HRegionLocation> locations = new ArrayList<HRegionLocation>(getConnection().locateRegions(
+            TableName.valueOf(tableName), false, false));
+        Collections.sort(locations, new Comparator<HRegionLocation>()
         {
-            public Boolean doWithHBaseAdmin(HTableInterface hTable) throws Exception
+            public int compare(HRegionLocation l1, HRegionLocation l2)
             {
-            	final Delete delete = createDelete(row, deleteColumnFamilyName, deleteColumnQualifier, deleteTimestamp, deleteAllVersions);
-            	byte[] byteValue = null;
-            	if(checkValue != null && !(checkValue instanceof NullPayload)){
-            		byteValue = toByteArray(checkValue);
-            	}
-            	return hTable.checkAndDelete(row.getBytes(UTF8), checkColumnFamilyName.getBytes(UTF8), checkColumnQualifier.getBytes(UTF8), byteValue, delete);
+                return Bytes.compareTo(l1.getRegionInfo().getStartKey(), l2.getRegionInfo().getStartKey());
             }
         });
-    }
-//NO longer Hbase supports Client locking https://issues.apache.org/jira/browse/HBASE-7315
-    /** @see HBaseService#lock(String, String) */
-  /*  public RowLock lock(final String tableName, final String row)
-    {
-        return doWithHTable(tableName, new TableCallback<RowLock>()
+        byte[] scanStart = scan.getStartRow();
+        byte[] scanStop = scan.getStopRow();
+        List<Scan> partitions = new ArrayList<Scan>(locations.size());
+        for (HRegionLocation location : locations)
         {
-            public RowLock doWithHBaseAdmin(HTableInterface hTable) throws Exception
+            byte[] regionStart = location.getRegionInfo().getStartKey();
+            byte[] regionEnd = location.getRegionInfo().getEndKey();
+            byte[] start = Bytes.compareTo(regionStart, scanStart) > 0 ? regionStart : scanStart;
+            byte[] stop;
+            if (scanStop.length == 0)
             {
-                return hTable.lockRow(row.getBytes(UTF8));
+                stop = regionEnd;
             }
-        });
+            else if (regionEnd.length == 0)
+            {
+                stop = scanStop;
+            }
+            else
+            {
+                stop = Bytes.compareTo(regionEnd, scanStop) < 0 ? regionEnd : scanStop;
+            }
+            if (stop.length == 0 || Bytes.compareTo(start, stop) < 0)
+            {
+                Scan partition = new Scan(scan);
+                partition.setStartRow(start);
+                partition.setStopRow(stop);
+                partitions.add(partition);
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * Each region is counted by a single scanner, and up to
+     * <code>parallelism</code> regions are counted at the same time on the scan
+     * executor. Without a filter, only the key of the first cell of each row is
+     * sent back; with a filter, every cell that passes it is sent back without
+     * its value.
+     * 
+     * @see HBaseService#countRows(String, String, String, String, int, int)
+     */
+    public long countRows(final String tableName,
+                          final String startRow,
+                          final String stopRow,
+                          final String filter,
+                          final int parallelism,
+                          final int caching)
+    {
+        Validate.isTrue(StringUtils.isNotBlank(tableName));
+        Validate.isTrue(parallelism > 0);
+        Validate.isTrue(caching > 0);
+        Scan scan = new Scan();
+        if (startRow != null)
+        {
+            scan.setStartRow(startRow.getBytes(UTF8));
+        }
+        if (stopRow != null)
+        {
+            scan.setStopRow(stopRow.getBytes(UTF8));
+        }
+        scan.setCaching(caching);
+        scan.setCacheBlocks(false);
+        if (filter == null)
+        {
+            // only the key of the first cell of each row is sent back, without its value
+            scan.setFilter(new FilterList(FilterList.Operator.MUST_PASS_ALL, new FirstKeyOnlyFilter(),
+                new KeyOnlyFilter()));
+        }
+        else
+        {
+            scan.setFilter(new FilterList(FilterList.Operator.MUST_PASS_ALL, getFilterCompiler().compile(filter),
+                new KeyOnlyFilter()));
+        }
+        final List<Scan> partitions;
+        try
+        {
+            partitions = partitionByRegion(tableName, scan);
+        }
+        catch (IOException e)
+        {
+            throw new HBaseServiceException(e);
+        }
+        final AtomicInteger nextPartition = new AtomicInteger();
+        Callable<Long> counter = new Callable<Long>()
+        {
+            public Long call() throws Exception
+            {
+                long count = 0;
+                int partition;
+                while ((partition = nextPartition.getAndIncrement()) < partitions.size())
+                {
+                    count += countRows(tableName, partitions.get(partition));
+                }
+                return count;
+            }
+        };
+        List<Future<Long>> counters = new ArrayList<Future<Long>>();
+        try
+        {
+            for (int i = 0; i < Math.min(parallelism, partitions.size()); i++)
+            {
+                counters.add(scanExecutor.submit(counter));
+            }
+        }
+        catch (RejectedExecutionException e)
+        {
+            // every scan thread is busy, so the calling thread counts alongside the counters already started
+            FutureTask<Long> callerCounter = new FutureTask<Long>(counter);
+            callerCounter.run();
+            counters.add(callerCounter);
+        }
+        long count = 0;
+        try
+        {
+            for (Future<Long> counter : counters)
+            {
+                count += counter.get();
+            }
+            return count;
+        }
+        catch (ExecutionException e)
+        {
+            nextPartition.set(partitions.size());
+            throw new HBaseServiceException(e.getCause());
+        }
+        catch (InterruptedException e)
+        {
+            nextPartition.set(partitions.size());
+            Thread.currentThread().interrupt();
+            throw new HBaseServiceException(e);
+        }
+    }
+
+    private long countRows(String tableName, Scan scan) throws IOException
+    {
+        HTableInterface hTable = createHTable(tableName);
+        try
+        {
+            ResultScanner scanner = hTable.getScanner(scan);
+            try
+            {
+                long count = 0;
+                Result[] results;
+                do
+                {
+                    results = scanner.next(scan.getCaching());
+                    count += results.length;
+                }
+                while (results.length > 0);
+                return count;
+            }
+            finally
+            {
+                scanner.close();
+            }
+        }
+        finally
+        {
+            hTable.close();
+        }
+    }
+
+    /** A page of a scan iteration, and the lease of the scanner that fetched it */
+    private static class ScannerAndResults
+    {
+        private final ScannerLeaseManager.Lease lease;
+        private final ResultScanner scanner;
+        private final ScanPrefetcher prefetcher;
+        private final PageSizer pageSizer;
+        private final Result[] results;
+        private final boolean last;
+
+        public ScannerAndResults(ScannerLeaseManager.Lease lease,
+                                 ResultScanner scanner,
+                                 ScanPrefetcher prefetcher,
+                                 PageSizer pageSizer) throws IOException
+        {
+            this.lease = lease;
+            this.scanner = scanner;
+            this.prefetcher = prefetcher;
+            this.pageSizer = pageSizer;
+            checkNotClosed();
+            lease.touch();
+            if (prefetcher != null)
+            {
+                this.results = prefetcher.nextPage();
+                this.last = results.length == 0;
+            }
+            else
+            {
+                int fetchSize = pageSizer.nextPageSize();
+                long start = System.nanoTime();
+                this.results = scanner.next(fetchSize);
+                pageSizer.pageFetched(results, System.nanoTime() - start);
+                this.last = results.length < fetchSize;
+            }
+            // a closed scanner answers no rows, which must not be taken as the end of the scan
+            checkNotClosed();
+        }
+
+        public Result[] getResults()
+        {
+            return results;
+        }
+
+        /** @return whether this is the last page of the scan */
+        public boolean isLast()
+        {
+            return last;
+        }
+
+        /** Pages are only read before the scan is exhausted, so any closed lease means missing rows */
+        private void checkNotClosed() throws IOException
+        {
+            ScannerLeaseManager.Reason reason = lease.getClosedReason();
+            if (reason != null)
+            {
+                throw new IOException("The scanner was closed before reading every row: " + reason);
+            }
+        }
+    }
+
+    /**
+     * Rows of a serial scan. Each iteration opens its own table handle and
+     * scanner, leased from the {@link ScannerLeaseManager} until the iteration is
+     * exhausted or the iterable is closed, so that iterating again does not
+     * disturb an earlier iteration.
+     */
+    private final class ResultIterable extends PaginatedIterable<Result, ScannerAndResults> implements Closeable
+    {
+        private final String tableName;
+        private final int fetchSize;
+        private final Scan scan;
+        private final ScanOptions options;
+        private final Set<ScannerLeaseManager.Lease> leases = Collections.newSetFromMap(
+            new ConcurrentHashMap<ScannerLeaseManager.Lease, Boolean>());
+
+        public ResultIterable(Scan scan, int fetchSize, String tableName, ScanOptions options)
+        {
+            this.scan = scan;
+            this.fetchSize = fetchSize;
+            this.tableName = tableName;
+            this.options = options;
+        }
+
+        @Override
+        protected ScannerAndResults firstPage()
+        {
+            HTableInterface hTable = createHTable(tableName);
+            ScannerLeaseManager.Lease lease;
+            ResultScanner scanner;
+            ScanPrefetcher prefetcher = null;
+            int maxPageRows = options.getLimit() > 0 ? options.getLimit() : Integer.MAX_VALUE;
+            PageSizer pageSizer = PageSizer.fixed(Math.min(fetchSize, maxPageRows));
+            if (options.isAdaptivePaging())
+            {
+                pageSizer = new PageSizer(fetchSize, Math.min(maxPageRows, configuration.getInt(
+                    SCAN_ADAPTIVE_MAX_ROWS, 10000)), options.getMaxPageBytes(), configuration.getLong(
+                    SCAN_ADAPTIVE_TARGET_PAGE_MILLIS, 1000));
+            }
+            try
+            {
+                scanner = hTable.getScanner(scan);
+            }
+            catch (IOException e)
+            {
+                closeQuietly(hTable);
+                throw new UnhandledException(e);
+            }
+            if (options.getPrefetchPages() > 0)
+            {
+                prefetcher = new ScanPrefetcher(scanner, pageSizer, options.getPrefetchPages(),
+                    options.getPrefetchMaxBytes(), configuration.getLong(
+                        HConstants.HBASE_CLIENT_SCANNER_TIMEOUT_PERIOD,
+                        HConstants.DEFAULT_HBASE_CLIENT_SCANNER_TIMEOUT_PERIOD), prefetchWaitNanos);
+                try
+                {
+                    scanExecutor.execute(prefetcher);
+                    prefetchingScans.incrementAndGet();
+                }
+                catch (RejectedExecutionException e)
+                {
+                    // the prefetcher never ran, so the scanner is still ours
+                    logger.warn("Every scan thread is busy, scanning table {} without prefetching", tableName);
+                    prefetcher = null;
+                }
+            }
+            lease = getScannerLeases().open(hTable, prefetcher != null ? prefetcher : scanner);
+            leases.add(lease);
+            return getMoreResults(lease, scanner, prefetcher, pageSizer);
+        }
+
+        private ScannerAndResults getMoreResults(ScannerLeaseManager.Lease lease,
+                                                 ResultScanner scanner,
+                                                 ScanPrefetcher prefetcher,
+                                                 PageSizer pageSizer)
+        {
+            try
+            {
+                return new ScannerAndResults(lease, scanner, prefetcher, pageSizer);
+            }
+            catch (IOException e)
+            {
+                leases.remove(lease);
+                lease.close(ScannerLeaseManager.Reason.RELEASED);
+                throw new UnhandledException(e);
+            }
+        }
+
+        @Override
+        protected boolean hasNextPage(ScannerAndResults page)
+        {
+            boolean hasNextPage = !page.isLast();
+            if (!hasNextPage)
+            {
+                leases.remove(page.lease);
+                page.lease.close(ScannerLeaseManager.Reason.EXHAUSTED);
+            }
+            return hasNextPage;
+        }
+
+        @Override
+        protected ScannerAndResults nextPage(ScannerAndResults currentPage)
+        {
+            return getMoreResults(currentPage.lease, currentPage.scanner, currentPage.prefetcher,
+                currentPage.pageSizer);
+        }
+
+        @Override
+        protected Iterator<Result> pageIterator(ScannerAndResults page)
+        {
+            return Arrays.asList(page.results).iterator();
+        }
+
+        /** Releases the scanners of the iterations that were not exhausted */
+        public void close()
+        {
+            for (ScannerLeaseManager.Lease lease : leases)
+            {
+                leases.remove(lease);
+                lease.close(ScannerLeaseManager.Reason.RELEASED);
+            }
+        }
+    }
+
+    /** @see HBaseService#increment(String, String, String, String, long, boolean) */
+    public long increment(final String tableName,
+                          final String row,
+                          final String columnFamilyName,
+                          final String columnQualifier,
+                          final long amount,
+                          final boolean writeToWAL)
+    {
+        Validate.isTrue(StringUtils.isNotBlank(tableName));
+        Validate.isTrue(StringUtils.isNotBlank(row));
+        Validate.isTrue(StringUtils.isNotBlank(columnFamilyName));
+        Validate.isTrue(StringUtils.isNotBlank(columnQualifier));
+        return doWithHTable(tableName, new TableCallback<Long>()
+        {
+            public Long doWithHBaseAdmin(HTableInterface hTable) throws Exception
+            {
+                return hTable.incrementColumnValue(row.getBytes(UTF8), columnFamilyName.getBytes(UTF8),
+                    columnQualifier.getBytes(UTF8), amount, writeToWAL);
+            }
+        });
+    }
+
+    /**
+     * @see HBaseService#checkAndPut(String, String, String, String, String, String,
+     *      String, Long, String, Boolean)
+     */
+    public boolean checkAndPut(final String tableName,
+                               final String row,
+                               final String checkColumnFamilyName,
+                               final String checkColumnQualifier,
+                               final Object checkValue,
+                               final String putColumnFamilyName,
+                               final String putColumnQualifier,
+                               final Long putTimestamp,
+                               final Object putValue,
+                               final boolean putWriteToWAL)
+    {
+        return doWithHTable(tableName, new TableCallback<Boolean>()
+        {
+            public Boolean doWithHBaseAdmin(HTableInterface hTable) throws Exception
+            {
+                final Put put = createPut(row, putColumnFamilyName, putColumnQualifier, putTimestamp,
+                    putValue, putWriteToWAL);
+                return hTable.checkAndPut(row.getBytes(UTF8), checkColumnFamilyName.getBytes(UTF8),
+                    checkColumnQualifier.getBytes(UTF8), toByteArray(checkValue), put);
+            }
+        });
+    }
+
+    /**
+     * @see HBaseService#checkAndDelete(String, String, String, String, String,
+     *      String, String, Long, Boolean)
+     */
+    public boolean checkAndDelete(final String tableName,
+                                  final String row,
+                                  final String checkColumnFamilyName,
+                                  final String checkColumnQualifier,
+                                  final Object checkValue,
+                                  final String deleteColumnFamilyName,
+                                  final String deleteColumnQualifier,
+                                  final Long deleteTimestamp,
+                                  final Boolean deleteAllVersions)
+    {
+        return doWithHTable(tableName, new TableCallback<Boolean>()
+        {
+            public Boolean doWithHBaseAdmin(HTableInterface hTable) throws Exception
+            {
+            	final Delete delete = createDelete(row, deleteColumnFamilyName, deleteColumnQualifier, deleteTimestamp, deleteAllVersions);
+            	byte[] byteValue = null;
+            	if(checkValue != null && !(checkValue instanceof NullPayload)){
+            		byteValue = toByteArray(checkValue);
+            	}
+            	return hTable.checkAndDelete(row.getBytes(UTF8), checkColumnFamilyName.getBytes(UTF8), checkColumnQualifier.getBytes(UTF8), byteValue, delete);
+            }
+        });
+    }
+
+    // ------------ Asynchronous Row Operations
+    /** @see HBaseService#getAsync(String, String, String, String, Integer, Long) */
+    public Future<ResultWrapper> getAsync(final String tableName,
+                                          final String rowKey,
+                                          final String columnFamilyName,
+                                          final String columnQualifier,
+                                          final Integer maxVersions,
+                                          final Long timestamp)
+    {
+        return submitAsync(new Callable<ResultWrapper>()
+        {
+            public ResultWrapper call() throws Exception
+            {
+                return get(tableName, rowKey, columnFamilyName, columnQualifier, maxVersions, timestamp);
+            }
+        });
+    }
+
+    /** @see HBaseService#putAsync(String, String, String, String, Long, Object, boolean) */
+    public Future<Void> putAsync(final String tableName,
+                                 final String row,
+                                 final String columnFamilyName,
+                                 final String columnQualifier,
+                                 final Long timestamp,
+                                 final Object value,
+                                 final boolean writeToWAL)
+    {
+        return submitAsync(new Callable<Void>()
+        {
+            public Void call() throws Exception
+            {
+                put(tableName, row, columnFamilyName, columnQualifier, timestamp, value, writeToWAL);
+                return null;
+            }
+        });
+    }
+
+    /** @see HBaseService#deleteAsync(String, String, String, String, Long, boolean) */
+    public Future<Void> deleteAsync(final String tableName,
+                                    final String row,
+                                    final String columnFamilyName,
+                                    final String columnQualifier,
+                                    final Long timestamp,
+                                    final boolean deleteAllVersions)
+    {
+        return submitAsync(new Callable<Void>()
+        {
+            public Void call() throws Exception
+            {
+                delete(tableName, row, columnFamilyName, columnQualifier, timestamp, deleteAllVersions);
+                return null;
+            }
+        });
+    }
+
+    /** @see HBaseService#incrementAsync(String, String, String, String, long, boolean) */
+    public Future<Long> incrementAsync(final String tableName,
+                                       final String row,
+                                       final String columnFamilyName,
+                                       final String columnQualifier,
+                                       final long amount,
+                                       final boolean writeToWAL)
+    {
+        return submitAsync(new Callable<Long>()
+        {
+            public Long call() throws Exception
+            {
+                return increment(tableName, row, columnFamilyName, columnQualifier, amount, writeToWAL);
+            }
+        });
+    }
+
+    /**
+     * @see HBaseService#checkAndPutAsync(String, String, String, String, Object,
+     *      String, String, Long, Object, boolean)
+     */
+    public Future<Boolean> checkAndPutAsync(final String tableName,
+                                            final String row,
+                                            final String checkColumnFamilyName,
+                                            final String checkColumnQualifier,
+                                            final Object checkValue,
+                                            final String putColumnFamilyName,
+                                            final String putColumnQualifier,
+                                            final Long putTimestamp,
+                                            final Object putValue,
+                                            final boolean putWriteToWAL)
+    {
+        return submitAsync(new Callable<Boolean>()
+        {
+            public Boolean call() throws Exception
+            {
+                return checkAndPut(tableName, row, checkColumnFamilyName, checkColumnQualifier, checkValue,
+                    putColumnFamilyName, putColumnQualifier, putTimestamp, putValue, putWriteToWAL);
+            }
+        });
+    }
+
+    /** @see HBaseService#scanPageAsync(String, String, String, String, String, int) */
+    public Future<List<Result>> scanPageAsync(final String tableName,
+                                              final String columnFamilyName,
+                                              final String columnQualifier,
+                                              final String startRow,
+                                              final String stopRow,
+                                              final int pageSize)
+    {
+        Validate.isTrue(pageSize > 0);
+        return submitAsync(new Callable<List<Result>>()
+        {
+            public List<Result> call() throws Exception
+            {
+                return doWithHTable(tableName, new TableCallback<List<Result>>()
+                {
+                    public List<Result> doWithHBaseAdmin(HTableInterface hTable) throws Exception
+                    {
+                        Scan scan = new Scan();
+                        addColumns(scan, columnFamilyName, columnQualifier);
+                        if (startRow != null)
+                        {
+                            scan.setStartRow(startRow.getBytes(UTF8));
+                        }
+                        if (stopRow != null)
+                        {
+                            scan.setStopRow(stopRow.getBytes(UTF8));
+                        }
+                        scan.setCaching(pageSize);
+                        ResultScanner scanner = hTable.getScanner(scan);
+                        try
+                        {
+                            return Arrays.asList(scanner.next(pageSize));
+                        }
+                        finally
+                        {
+                            scanner.close();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Submits an asynchronous operation. When the executor refuses it, the
+     * answered future fails with the rejection, like any other failure of the
+     * operation, instead of the submitting flow.
+     */
+    private <T> Future<T> submitAsync(Callable<T> operation)
+    {
+        try
+        {
+            return getAsyncExecutor().submit(operation);
+        }
+        catch (final RejectedExecutionException e)
+        {
+            FutureTask<T> rejected = new FutureTask<T>(new Callable<T>()
+            {
+                public T call() throws Exception
+                {
+                    throw e;
+                }
+            });
+            rejected.run();
+            return rejected;
+        }
+    }
+
+//NO longer Hbase supports Client locking https://issues.apache.org/jira/browse/HBASE-7315
+    /** @see HBaseService#lock(String, String) */
+  /*  public RowLock lock(final String tableName, final String row)
+    {
+        return doWithHTable(tableName, new TableCallback<RowLock>()
+        {
+            public RowLock doWithHBaseAdmin(HTableInterface hTable) throws Exception
+            {
+                return hTable.lockRow(row.getBytes(UTF8));
+            }
+        });
     }*/
 
     /** @see HBaseService#unlock(String, RowLock) */
@@ -754,16 +1623,306 @@ public class RPCHBaseService implements HBaseService
         });
     }*/
 
+    // ------------ Change Tracking
+    /**
+     * Watermarks are kept in the same {@link CheckpointStore} as the checkpoints
+     * of scans, under ids of their own.
+     * 
+     * @see HBaseService#getWatermark(String)
+     */
+    public long getWatermark(String watermarkId)
+    {
+        try
+        {
+            byte[] watermark = getCheckpointStore().load(WATERMARK_PREFIX + watermarkId);
+            return watermark == null ? 0 : Bytes.toLong(watermark);
+        }
+        catch (IOException e)
+        {
+            throw new HBaseServiceException(e);
+        }
+    }
+
+    /** @see HBaseService#setWatermark(String, long) */
+    public void setWatermark(String watermarkId, long timestamp)
+    {
+        try
+        {
+            getCheckpointStore().save(WATERMARK_PREFIX + watermarkId, Bytes.toBytes(timestamp));
+        }
+        catch (IOException e)
+        {
+            throw new HBaseServiceException(e);
+        }
+    }
+
     // ------------ Configuration
-    /** @see HBaseService#addProperties(Map) */
-    public void addProperties(Map<String, String> properties)
+    /**
+     * Properties can only change while the service is not initialised, since
+     * closing the connection under in flight operations would fail them.
+     * Setting the values the properties already have is always allowed.
+     * 
+     * @see HBaseService#addProperties(Map)
+     */
+    public synchronized void addProperties(Map<String, String> properties)
     {
+        if (connection != null)
+        {
+            for (Entry<String, String> entry : properties.entrySet())
+            {
+                if (!StringUtils.equals(configuration.get(entry.getKey()), entry.getValue()))
+                {
+                    throw new IllegalStateException("Can not change property " + entry.getKey()
+                                                    + " while the service is initialised, dispose it first");
+                }
+            }
+        }
         for (Entry<String, String> entry : properties.entrySet())
         {
             configuration.set(entry.getKey(), entry.getValue());
         }
     }
 
+    // ------------ Monitoring
+    /** @see HBaseService#getStatistics() */
+    public Map<String, Number> getStatistics()
+    {
+        Map<String, Number> statistics = new LinkedHashMap<String, Number>();
+        if (tablePool != null)
+        {
+            statistics.putAll(tablePool.getStatistics());
+        }
+        if (batchExecutor != null)
+        {
+            statistics.putAll(batchExecutor.getStatistics());
+        }
+        if (asyncExecutor != null)
+        {
+            statistics.putAll(asyncExecutor.getStatistics());
+        }
+        if (scanExecutor != null)
+        {
+            statistics.putAll(scanExecutor.getStatistics());
+        }
+        if (warmer != null)
+        {
+            statistics.putAll(warmer.getStatistics());
+        }
+        if (writeBuffers != null)
+        {
+            statistics.putAll(writeBuffers.getStatistics());
+        }
+        if (filterCompiler != null)
+        {
+            statistics.putAll(filterCompiler.getStatistics());
+        }
+        if (scannerLeases != null)
+        {
+            statistics.putAll(scannerLeases.getStatistics());
+        }
+        statistics.put("scanPrefetch.scans", prefetchingScans.get());
+        statistics.put("scanPrefetch.consumerWaitMillis", TimeUnit.NANOSECONDS.toMillis(prefetchWaitNanos.get()));
+        statistics.put("parallelScan.scans", parallelScans.get());
+        statistics.put("parallelScan.partitions", parallelScanPartitions.get());
+        statistics.put("adaptiveScan.scans", adaptiveScans.get());
+        statistics.put("sampledScan.scans", sampledScans.get());
+        statistics.put("checkpoint.resumes", checkpointResumes.get());
+        statistics.put("checkpoint.saves", checkpointSaves.get());
+        return statistics;
+    }
+
+    // ------------ Lifecycle
+    /** @see HBaseService#initialise() */
+    public synchronized void initialise()
+    {
+        if (connection == null)
+        {
+            HConnection newConnection;
+            try
+            {
+                newConnection = createConnection();
+            }
+            catch (IOException e)
+            {
+                throw new HBaseServiceException(e);
+            }
+            batchExecutor = newExecutor("hbaseBatch", BATCH_EXECUTOR_CORE_SIZE, 8, BATCH_EXECUTOR_MAX_SIZE, 64,
+                BATCH_EXECUTOR_QUEUE_SIZE, 1000, BATCH_EXECUTOR_KEEP_ALIVE,
+                rejectionPolicy(BATCH_EXECUTOR_REJECTION_POLICY, "caller-runs"));
+            asyncExecutor = newExecutor("hbaseAsync", ASYNC_EXECUTOR_CORE_SIZE, 8, ASYNC_EXECUTOR_MAX_SIZE, 32,
+                ASYNC_EXECUTOR_QUEUE_SIZE, 1000, ASYNC_EXECUTOR_KEEP_ALIVE,
+                rejectionPolicy(ASYNC_EXECUTOR_REJECTION_POLICY, "abort"));
+            // scan tasks last as long as their scans, so the caller cannot run them and queued ones would stall
+            scanExecutor = newExecutor("hbaseScan", SCAN_EXECUTOR_CORE_SIZE, 0, SCAN_EXECUTOR_MAX_SIZE, 64,
+                SCAN_EXECUTOR_QUEUE_SIZE, 0, SCAN_EXECUTOR_KEEP_ALIVE, SharedBatchExecutor.RejectionPolicy.ABORT);
+            tablePool = new TableHandlePool(new SharedConnectionTableFactory(), configuration,
+                configuration.getInt(TABLE_POOL_MAX_SIZE, 16),
+                configuration.getLong(TABLE_POOL_BORROW_TIMEOUT, 5000),
+                configuration.getLong(TABLE_POOL_IDLE_TIMEOUT, 60000));
+            writeBuffers = new WriteBufferManager(
+                configuration.getTrimmedStringCollection(WRITE_BUFFER_TABLES),
+                new SharedConnectionTableFactory(), configuration,
+                configuration.getLong(WRITE_BUFFER_MAX_BYTES, 2 * 1024 * 1024),
+                configuration.getInt(WRITE_BUFFER_MAX_ROWS, 1000),
+                configuration.getLong(WRITE_BUFFER_MAX_LINGER, 1000));
+            warmer = new RegionLocationWarmer(newConnection, new SharedConnectionTableFactory(), configuration,
+                batchExecutor);
+            filterCompiler = new FilterCompiler(configuration.getInt(FILTER_CACHE_SIZE, 1000));
+            scannerLeases = new ScannerLeaseManager(configuration.getLong(SCANNER_IDLE_TIMEOUT,
+                configuration.getLong(HConstants.HBASE_CLIENT_SCANNER_TIMEOUT_PERIOD,
+                    HConstants.DEFAULT_HBASE_CLIENT_SCANNER_TIMEOUT_PERIOD)));
+            checkpointStore = customCheckpointStore != null ? customCheckpointStore : newCheckpointStore();
+            // published last, so that readers of the connection also see its collaborators
+            connection = newConnection;
+        }
+    }
+
+    /** Opens the connection shared by every operation of this service */
+    HConnection createConnection() throws IOException
+    {
+        return HConnectionManager.createConnection(configuration);
+    }
+
+    private SharedBatchExecutor newExecutor(String name,
+                                            String coreSizeKey,
+                                            int defaultCoreSize,
+                                            String maxSizeKey,
+                                            int defaultMaxSize,
+                                            String queueSizeKey,
+                                            int defaultQueueSize,
+                                            String keepAliveKey,
+                                            SharedBatchExecutor.RejectionPolicy rejectionPolicy)
+    {
+        return new SharedBatchExecutor(name, configuration.getInt(coreSizeKey, defaultCoreSize),
+            configuration.getInt(maxSizeKey, defaultMaxSize), configuration.getInt(queueSizeKey,
+                defaultQueueSize), configuration.getLong(keepAliveKey, 60000), rejectionPolicy);
+    }
+
+    private SharedBatchExecutor.RejectionPolicy rejectionPolicy(String key, String defaultPolicy)
+    {
+        return SharedBatchExecutor.RejectionPolicy.fromString(configuration.get(key, defaultPolicy));
+    }
+
+    private CheckpointStore newCheckpointStore()
+    {
+        String table = configuration.get(CHECKPOINT_TABLE);
+        if (StringUtils.isNotBlank(table))
+        {
+            return new TableCheckpointStore(new SharedConnectionTableFactory(), configuration, table,
+                configuration.get(CHECKPOINT_FAMILY, "checkpoint"));
+        }
+        String dir = configuration.get(CHECKPOINT_DIR);
+        if (StringUtils.isBlank(dir))
+        {
+            dir = new File(defaultCheckpointParent(), "mule-hbase-checkpoints").getPath();
+        }
+        return new FileCheckpointStore(new File(dir));
+    }
+
+    /**
+     * Answers the working directory of Mule, where checkpoints survive restarts,
+     * falling back to the temporary directory when not running inside Mule
+     */
+    private static File defaultCheckpointParent()
+    {
+        String workingDirectory = System.getProperty("mule.workingDirectory");
+        if (StringUtils.isNotBlank(workingDirectory))
+        {
+            return new File(workingDirectory);
+        }
+        String muleHome = System.getProperty("mule.home");
+        if (StringUtils.isNotBlank(muleHome))
+        {
+            return new File(muleHome, ".mule");
+        }
+        File tmp = new File(System.getProperty("java.io.tmpdir"));
+        logger.warn("Keeping the checkpoints of scans in the temporary directory {}, where they may be deleted. "
+                    + "Set {} or {} for keeping them elsewhere", new Object[]{tmp, CHECKPOINT_DIR,
+            CHECKPOINT_TABLE});
+        return tmp;
+    }
+
+    /**
+     * Sets where checkpointed scans record their progress, instead of the store
+     * given by the <code>mule.hbase.checkpoint.*</code> properties
+     */
+    public synchronized void setCheckpointStore(CheckpointStore checkpointStore)
+    {
+        customCheckpointStore = checkpointStore;
+        if (connection != null)
+        {
+            this.checkpointStore = checkpointStore != null ? checkpointStore : newCheckpointStore();
+        }
+    }
+
+    /** @see HBaseService#warmUp(List) */
+    public void warmUp(List<String> tableNames)
+    {
+        getConnection();
+        warmer.warmUp(tableNames);
+    }
+
+    /** @see HBaseService#dispose() */
+    public synchronized void dispose()
+    {
+        if (connection != null)
+        {
+            // every component is closed even when closing the previous ones failed
+            Exception failure = null;
+            try
+            {
+                writeBuffers.close();
+            }
+            catch (RuntimeException e)
+            {
+                failure = disposeFailed("the write buffers", e, failure);
+            }
+            asyncExecutor.shutdown();
+            try
+            {
+                scannerLeases.close();
+            }
+            catch (RuntimeException e)
+            {
+                failure = disposeFailed("the scanners", e, failure);
+            }
+            scanExecutor.shutdownNow();
+            try
+            {
+                tablePool.close();
+            }
+            catch (RuntimeException e)
+            {
+                failure = disposeFailed("the table pool", e, failure);
+            }
+            batchExecutor.shutdown();
+            try
+            {
+                connection.close();
+            }
+            catch (IOException e)
+            {
+                failure = disposeFailed("the connection", e, failure);
+            }
+            catch (RuntimeException e)
+            {
+                failure = disposeFailed("the connection", e, failure);
+            }
+            connection = null;
+            if (failure != null)
+            {
+                throw new HBaseServiceException(failure);
+            }
+        }
+    }
+
+    /** Logs a failure while disposing, answering the first one */
+    private static Exception disposeFailed(String component, Exception e, Exception firstFailure)
+    {
+        logger.error("Could not close " + component + " while disposing", e);
+        return firstFailure != null ? firstFailure : e;
+    }
+
     // ------------ Private
 
     private void doFlush(HBaseAdmin hBaseAdmin, String name)
@@ -814,6 +1973,21 @@ public class RPCHBaseService implements HBaseService
         return get;
     }
 
+    private static void addColumns(Scan scan, String columnFamilyName, String columnQualifier)
+    {
+        if (columnFamilyName != null)
+        {
+            if (columnQualifier != null)
+            {
+                scan.addColumn(columnFamilyName.getBytes(UTF8), columnQualifier.getBytes(UTF8));
+            }
+            else
+            {
+                scan.addFamily(columnFamilyName.getBytes(UTF8));
+            }
+        }
+    }
+
     private Put createPut(final String row,
                           final String columnFamilyName,
                           final String columnQualifier,
@@ -836,6 +2010,40 @@ public class RPCHBaseService implements HBaseService
         return put;
     }
 
+    private Put createPut(final Map<String, Object> record, final boolean writeToWAL)
+    {
+        Validate.notNull(record, "record is required");
+        String row = recordRowKey(record);
+        Object family = record.get("columnFamilyName");
+        Object qualifier = record.get("columnQualifier");
+        Object value = record.get("value");
+        Object timestamp = record.get("timestamp");
+        Validate.notNull(row, "rowKey is required");
+        Validate.notNull(family, "columnFamilyName is required");
+        Validate.notNull(qualifier, "columnQualifier is required");
+        Validate.notNull(value, "value is required");
+        return createPut(row, family.toString(), qualifier.toString(), toTimestamp(timestamp), value, writeToWAL);
+    }
+
+    private static String recordRowKey(Map<String, Object> record)
+    {
+        Object row = record != null ? record.get("rowKey") : null;
+        return row != null ? row.toString() : null;
+    }
+
+    private static Long toTimestamp(Object timestamp)
+    {
+        if (timestamp == null)
+        {
+            return null;
+        }
+        if (timestamp instanceof Number)
+        {
+            return ((Number) timestamp).longValue();
+        }
+        return Long.valueOf(timestamp.toString());
+    }
+
     private Delete createDelete(final String row,
                                 final String columnFamilyName,
                                 final String columnQualifier,
@@ -866,25 +2074,126 @@ public class RPCHBaseService implements HBaseService
         return delete;
     }
 
+    /**
+     * Wraps the cells of the given result, that may be <code>null</code> for
+     * missing rows, in place, without copying them, since results are not
+     * modified once received
+     */
+    static ResultWrapper toResultWrapper(Result result)
+    {
+        if (result == null)
+        {
+            return ResultWrapper.create(new Cell[0]);
+        }
+        ResultWrapper wrapper = ResultWrapper.create(result.rawCells());
+        wrapper.setExists(result.getExists());
+        return wrapper;
+    }
+
     private static long coalesceTimestamp(Long timestamp)
     {
         return timestamp != null ? timestamp : HConstants.LATEST_TIMESTAMP;
     }
 
+    /**
+     * Answers the shared connection, opening it if this service was not yet
+     * initialised
+     */
+    private HConnection getConnection()
+    {
+        HConnection current = connection;
+        if (current == null)
+        {
+            synchronized (this)
+            {
+                initialise();
+                current = connection;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Answers the pool row operations borrow their tables from, initialising this
+     * service if necessary
+     */
+    private TableHandlePool getTablePool()
+    {
+        getConnection();
+        return tablePool;
+    }
+
+    /** Answers the executor of asynchronous operations, initialising this service if necessary */
+    private SharedBatchExecutor getAsyncExecutor()
+    {
+        getConnection();
+        return asyncExecutor;
+    }
+
+    /** Answers the leases of open scanners, initialising this service if necessary */
+    private ScannerLeaseManager getScannerLeases()
+    {
+        getConnection();
+        return scannerLeases;
+    }
+
+    /** Answers the compiler of filter expressions, initialising this service if necessary */
+    private FilterCompiler getFilterCompiler()
+    {
+        getConnection();
+        return filterCompiler;
+    }
+
+    /** Answers where scans record their checkpoints, initialising this service if necessary */
+    private CheckpointStore getCheckpointStore()
+    {
+        getConnection();
+        return checkpointStore;
+    }
+
+    /** Answers the client side write buffers, initialising this service if necessary */
+    private WriteBufferManager getWriteBuffers()
+    {
+        getConnection();
+        return writeBuffers;
+    }
+
     public HTableInterface createHTable(String tableName)
     {
-        return hTableInterfaceFactory.createHTableInterface(configuration, tableName.getBytes(UTF8));
+        try
+        {
+            HConnection current = getConnection();
+            return current.getTable(tableName, batchExecutor);
+        }
+        catch (IOException e)
+        {
+            throw new HBaseServiceException(e);
+        }
+    }
+
+    /** Creates the pooled table handles from the shared connection */
+    private final class SharedConnectionTableFactory implements HTableInterfaceFactory
+    {
+        public HTableInterface createHTableInterface(Configuration config, byte[] tableName)
+        {
+            return createHTable(new String(tableName, UTF8));
+        }
+
+        public void releaseHTableInterface(HTableInterface table) throws IOException
+        {
+            table.close();
+        }
     }
 
     /**
-     * Returns a new instance of {@link HBaseAdmin}. Clients should call
-     * {@link RPCHBaseService#destroyHBaseAdmin(HBaseAdmin)}.
+     * Returns a new instance of {@link HBaseAdmin} backed by the shared connection.
+     * Clients should call {@link RPCHBaseService#destroyHBaseAdmin(HBaseAdmin)}.
      */
     private HBaseAdmin createHBaseAdmin()
     {
         try
         {
-            return new HBaseAdmin(configuration);
+            return new HBaseAdmin(getConnection());
         }
         catch (MasterNotRunningException e)
         {
@@ -898,12 +2207,22 @@ public class RPCHBaseService implements HBaseService
 		}
     }
 
-    /** Release any resources allocated by {@link HBaseAdmin} */
+    /**
+     * Release any resources allocated by {@link HBaseAdmin}. The shared connection
+     * is left open, as the admin does not own it.
+     */
     private void destroyHBaseAdmin(final HBaseAdmin hBaseAdmin)
     {
         if (hBaseAdmin != null)
         {
-            HConnectionManager.deleteConnection(hBaseAdmin.getConfiguration());
+            try
+            {
+                hBaseAdmin.close();
+            }
+            catch (IOException e)
+            {
+                throw new HBaseServiceException(e);
+            }
         }
     }
 
@@ -927,19 +2246,19 @@ public class RPCHBaseService implements HBaseService
         }
     }
 
-    private <T> T doWithHTable(final String tableName, final TableCallback<T> callback){
-    	return doWithHTable(tableName, callback, true);
-    }
-    /** Retain and release the {@link HTable} */
-    private <T> T doWithHTable(final String tableName, final TableCallback<T> callback, boolean closeHtable)
+    /** Borrow and give back a pooled {@link HTable} */
+    private <T> T doWithHTable(final String tableName, final TableCallback<T> callback)
     {
         Validate.isTrue(StringUtils.isNotBlank(tableName));
         Validate.notNull(callback);
-        HTableInterface hTable = null;
+        final TableHandlePool pool = getTablePool();
+        final HTableInterface hTable = pool.borrow(tableName);
+        boolean healthy = false;
         try
         {
-            hTable = createHTable(tableName);
-            return callback.doWithHBaseAdmin(hTable);
+            T result = callback.doWithHBaseAdmin(hTable);
+            healthy = true;
+            return result;
         }
         catch (Exception e)
         {
@@ -947,17 +2266,26 @@ public class RPCHBaseService implements HBaseService
         }
         finally
         {
-            if (closeHtable && hTable != null)
+            if (healthy)
             {
-                try
-                {
-                    hTable.close();
-                }
-                catch (IOException e)
-                {
-                    throw new HBaseServiceException(e);
-                }
+                pool.release(tableName, hTable);
             }
+            else
+            {
+                pool.invalidate(tableName, hTable);
+            }
+        }
+    }
+
+    private static void closeQuietly(HTableInterface hTable)
+    {
+        try
+        {
+            hTable.close();
+        }
+        catch (IOException e)
+        {
+            logger.warn("Could not close table handle: {}", e.getMessage());
         }
     }
 
@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase.api.impl;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HConnection;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prepares a connection for serving the given tables at full speed: it loads
+ * every region location into the connection cache and issues a tiny request
+ * against each region server, so that the RPC channels are already open when the
+ * first real request arrives. Region servers are contacted in parallel.
+ * <p>
+ * Warm-up is best effort: failures, including the requests refused by a busy
+ * executor, are logged and do not prevent the remaining tables from being
+ * warmed.
+ */
+public class RegionLocationWarmer
+{
+    private static final Logger logger = LoggerFactory.getLogger(RegionLocationWarmer.class);
+    private static final Charset UTF8 = Charset.forName("utf-8");
+    private static final byte[] FIRST_ROW = new byte[]{0};
+
+    private final HConnection connection;
+    private final HTableInterfaceFactory tableFactory;
+    private final Configuration configuration;
+    private final ExecutorService executor;
+
+    private volatile long elapsedMillis;
+    private volatile int regions;
+    private volatile int servers;
+    private volatile int failures;
+
+    public RegionLocationWarmer(HConnection connection,
+                                HTableInterfaceFactory tableFactory,
+                                Configuration configuration,
+                                ExecutorService executor)
+    {
+        this.connection = connection;
+        this.tableFactory = tableFactory;
+        this.configuration = configuration;
+        this.executor = executor;
+    }
+
+    /** Warms the given tables, blocking until every region server answered */
+    public void warmUp(List<String> tableNames)
+    {
+        long start = System.nanoTime();
+        int regionCount = 0;
+        int failureCount = 0;
+        List<Future<Void>> pings = new ArrayList<Future<Void>>();
+        for (String tableName : tableNames)
+        {
+            try
+            {
+                List<HRegionLocation> locations = connection.locateRegions(TableName.valueOf(tableName),
+                    false, false);
+                regionCount += locations.size();
+                for (HRegionLocation location : oneRegionPerServer(locations).values())
+                {
+                    try
+                    {
+                        pings.add(executor.submit(new Ping(tableName, location)));
+                    }
+                    catch (RejectedExecutionException e)
+                    {
+                        failureCount++;
+                        logger.warn("Could not contact region server {} of table {} during warm-up, the executor "
+                                    + "refused the request", location.getServerName(), tableName);
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                failureCount++;
+                logger.warn("Could not locate the regions of table {}: {}", tableName, e.getMessage());
+            }
+        }
+        for (Future<Void> ping : pings)
+        {
+            try
+            {
+                ping.get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            catch (ExecutionException e)
+            {
+                failureCount++;
+                logger.warn("Could not contact a region server during warm-up: {}", e.getCause().getMessage());
+            }
+        }
+        elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        regions = regionCount;
+        servers = pings.size();
+        failures = failureCount;
+        logger.info("Warmed up {} regions on {} region server channels of tables {} in {} ms",
+            new Object[]{regionCount, pings.size(), tableNames, elapsedMillis});
+    }
+
+    /**
+     * @return the duration of the last warm-up, and the amount of regions, region
+     *         server channels and failures it involved
+     */
+    public Map<String, Number> getStatistics()
+    {
+        Map<String, Number> statistics = new LinkedHashMap<String, Number>();
+        statistics.put("warmup.millis", elapsedMillis);
+        statistics.put("warmup.regions", regions);
+        statistics.put("warmup.servers", servers);
+        statistics.put("warmup.failures", failures);
+        return statistics;
+    }
+
+    private static Map<ServerName, HRegionLocation> oneRegionPerServer(List<HRegionLocation> locations)
+    {
+        Map<ServerName, HRegionLocation> byServer = new LinkedHashMap<ServerName, HRegionLocation>();
+        for (HRegionLocation location : locations)
+        {
+            if (location != null && location.getServerName() != null
+                && !byServer.containsKey(location.getServerName()))
+            {
+                byServer.put(location.getServerName(), location);
+            }
+        }
+        return byServer;
+    }
+
+    /** Opens the channel to a region server by checking a row of one of its regions */
+    private final class Ping implements Callable<Void>
+    {
+        private final String tableName;
+        private final HRegionLocation location;
+
+        public Ping(String tableName, HRegionLocation location)
+        {
+            this.tableName = tableName;
+            this.location = location;
+        }
+
+        public Void call() throws Exception
+        {
+            byte[] startKey = location.getRegionInfo().getStartKey();
+            HTableInterface table = tableFactory.createHTableInterface(configuration, tableName.getBytes(UTF8));
+            try
+            {
+                table.exists(new Get(startKey.length == 0 ? FIRST_ROW : startKey));
+                return null;
+            }
+            finally
+            {
+                tableFactory.releaseHTableInterface(table);
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase.api.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fetches the pages of a scanner in background, so that the next pages are
+ * already on the client when the consumer finishes processing the current one.
+ * At most <code>maxPages</code> pages, and roughly <code>maxBytes</code> bytes,
+ * are kept ahead of the consumer; a single page is always allowed, whatever its
+ * size. Pages ask for the amount of rows given by a {@link PageSizer}.
+ * <p>
+ * The scanner is closed by the fetching thread once the last page was fetched,
+ * the prefetcher is closed, or the consumer did not take any page for
+ * <code>abandonMillis</code>, after which the server side scanner lease would
+ * have expired anyway.
+ */
+public class ScanPrefetcher implements Runnable, Closeable
+{
+    private static final Logger logger = LoggerFactory.getLogger(ScanPrefetcher.class);
+
+    private final ResultScanner scanner;
+    private final PageSizer pageSizer;
+    private final int maxPages;
+    private final long maxBytes;
+    private final long abandonMillis;
+    private final AtomicLong consumerWaitNanos;
+
+    private final LinkedList<Page> pages = new LinkedList<Page>();
+    private long queuedBytes;
+    private boolean finished;
+    private boolean closed;
+    private IOException failure;
+
+    public ScanPrefetcher(ResultScanner scanner,
+                          int fetchSize,
+                          int maxPages,
+                          long maxBytes,
+                          long abandonMillis,
+                          AtomicLong consumerWaitNanos)
+    {
+        this(scanner, PageSizer.fixed(fetchSize), maxPages, maxBytes, abandonMillis, consumerWaitNanos);
+    }
+
+    public ScanPrefetcher(ResultScanner scanner,
+                          PageSizer pageSizer,
+                          int maxPages,
+                          long maxBytes,
+                          long abandonMillis,
+                          AtomicLong consumerWaitNanos)
+    {
+        this.scanner = scanner;
+        this.pageSizer = pageSizer;
+        this.maxPages = maxPages;
+        this.maxBytes = maxBytes;
+        this.abandonMillis = abandonMillis;
+        this.consumerWaitNanos = consumerWaitNanos;
+    }
+
+    public void run()
+    {
+        try
+        {
+            while (awaitRoom())
+            {
+                int fetchSize = pageSizer.nextPageSize();
+                long start = System.nanoTime();
+                Result[] results = scanner.next(fetchSize);
+                pageSizer.pageFetched(results, System.nanoTime() - start);
+                synchronized (this)
+                {
+                    Page page = new Page(results);
+                    pages.add(page);
+                    queuedBytes += page.bytes;
+                    finished = results.length < fetchSize;
+                    notifyAll();
+                    if (finished)
+                    {
+                        return;
+                    }
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            fail(e);
+        }
+        catch (InterruptedException e)
+        {
+            fail(new InterruptedIOException("Scan prefetch interrupted"));
+        }
+        catch (RuntimeException e)
+        {
+            fail(new IOException(e));
+        }
+        finally
+        {
+            scanner.close();
+        }
+    }
+
+    /**
+     * Answers the next page, waiting for it to be fetched if necessary. Answers
+     * an empty page once the scan is exhausted.
+     *
+     * @throws IOException if the page could not be fetched
+     */
+    public synchronized Result[] nextPage() throws IOException
+    {
+        long start = System.nanoTime();
+        try
+        {
+            while (pages.isEmpty() && !finished && failure == null)
+            {
+                wait();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a prefetched page");
+        }
+        finally
+        {
+            consumerWaitNanos.addAndGet(System.nanoTime() - start);
+        }
+        if (!pages.isEmpty())
+        {
+            Page page = pages.removeFirst();
+            queuedBytes -= page.bytes;
+            notifyAll();
+            return page.results;
+        }
+        if (failure != null)
+        {
+            throw failure;
+        }
+        return new Result[0];
+    }
+
+    /** Stops prefetching, discarding the pages not yet consumed */
+    public synchronized void close()
+    {
+        closed = true;
+        pages.clear();
+        queuedBytes = 0;
+        notifyAll();
+    }
+
+    /**
+     * Waits until there is room for another page.
+     *
+     * @return false if the prefetcher was closed meanwhile
+     */
+    private synchronized boolean awaitRoom() throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + abandonMillis;
+        while (!closed && isFull())
+        {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0)
+            {
+                logger.warn("Scan abandoned after {} ms without consuming a prefetched page", abandonMillis);
+                failure = new IOException("Scan abandoned after " + abandonMillis
+                                          + " ms without consuming a prefetched page");
+                notifyAll();
+                return false;
+            }
+            wait(remaining);
+        }
+        return !closed;
+    }
+
+    private boolean isFull()
+    {
+        return pages.size() >= maxPages || (!pages.isEmpty() && queuedBytes >= maxBytes);
+    }
+
+    private synchronized void fail(IOException e)
+    {
+        failure = e;
+        notifyAll();
+    }
+
+    private static final class Page
+    {
+        private final Result[] results;
+        private final long bytes;
+
+        public Page(Result[] results)
+        {
+            this.results = results;
+            this.bytes = PageSizer.estimateBytes(results);
+        }
+    }
+}
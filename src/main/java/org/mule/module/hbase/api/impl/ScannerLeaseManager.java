@@ -0,0 +1,201 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase.api.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of the scanners opened for the iterations of scan results, so that
+ * they are closed, with their table handles, as soon as they are no longer
+ * needed: when the iteration is exhausted, when the scan is released before
+ * reaching its end, when it was not used for <code>idleTimeoutMillis</code> or
+ * when the manager is closed.
+ */
+public class ScannerLeaseManager
+{
+    private static final Logger logger = LoggerFactory.getLogger(ScannerLeaseManager.class);
+
+    /** Why a lease was closed */
+    public enum Reason
+    {
+        /** every row was read */
+        EXHAUSTED,
+        /** the scan was released before reading every row */
+        RELEASED,
+        /** the scan was not used for longer than the idle timeout */
+        EXPIRED,
+        /** the manager was closed */
+        DISPOSED
+    }
+
+    private final Set<Lease> leases = Collections.newSetFromMap(new ConcurrentHashMap<Lease, Boolean>());
+    private final long idleTimeoutMillis;
+    private final ScheduledExecutorService reaper;
+    private final AtomicLong opened = new AtomicLong();
+    private final Map<Reason, AtomicLong> closed = new LinkedHashMap<Reason, AtomicLong>();
+
+    public ScannerLeaseManager(long idleTimeoutMillis)
+    {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        for (Reason reason : Reason.values())
+        {
+            closed.put(reason, new AtomicLong());
+        }
+        reaper = Executors.newSingleThreadScheduledExecutor(new SharedBatchExecutor.NamedThreadFactory(
+            "hbaseScannerReaper"));
+        long period = Math.max(1, idleTimeoutMillis / 2);
+        reaper.scheduleWithFixedDelay(new Runnable()
+        {
+            public void run()
+            {
+                closeIdle(System.currentTimeMillis());
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Registers the resources of a new scan iteration
+     *
+     * @param resources closed in reverse order when the lease is closed, usually
+     *            a scanner and its table handle
+     */
+    public Lease open(Closeable... resources)
+    {
+        Lease lease = new Lease(resources);
+        leases.add(lease);
+        opened.incrementAndGet();
+        return lease;
+    }
+
+    /** Closes the leases not used for longer than the idle timeout */
+    public void closeIdle(long now)
+    {
+        for (Lease lease : leases)
+        {
+            if (now - lease.lastAccess >= idleTimeoutMillis)
+            {
+                logger.warn("Closing a scanner not used for {} ms", now - lease.lastAccess);
+                lease.close(Reason.EXPIRED);
+            }
+        }
+    }
+
+    /** Stops reaping and closes every open lease */
+    public void close()
+    {
+        reaper.shutdownNow();
+        for (Lease lease : leases)
+        {
+            lease.close(Reason.DISPOSED);
+        }
+    }
+
+    /**
+     * @return the amount of open scanners and the age of the oldest one, and
+     *         the amount of scanners opened and closed by each reason
+     */
+    public Map<String, Number> getStatistics()
+    {
+        long now = System.currentTimeMillis();
+        long oldest = 0;
+        long maxIdle = 0;
+        int open = 0;
+        for (Lease lease : leases)
+        {
+            open++;
+            oldest = Math.max(oldest, now - lease.createdAt);
+            maxIdle = Math.max(maxIdle, now - lease.lastAccess);
+        }
+        Map<String, Number> statistics = new LinkedHashMap<String, Number>();
+        statistics.put("scanners.open", open);
+        statistics.put("scanners.oldestAgeMillis", oldest);
+        statistics.put("scanners.maxIdleMillis", maxIdle);
+        statistics.put("scanners.opened", opened.get());
+        for (Map.Entry<Reason, AtomicLong> entry : closed.entrySet())
+        {
+            String reason = entry.getKey().name().toLowerCase();
+            statistics.put("scanners.closed." + reason, entry.getValue().get());
+        }
+        return statistics;
+    }
+
+    /** The resources of a single scan iteration */
+    public final class Lease
+    {
+        private final List<Closeable> resources = new ArrayList<Closeable>();
+        private final long createdAt = System.currentTimeMillis();
+        private volatile long lastAccess = createdAt;
+        private volatile Reason closedReason;
+
+        private Lease(Closeable... resources)
+        {
+            for (Closeable resource : resources)
+            {
+                this.resources.add(0, resource);
+            }
+        }
+
+        /** Records that the scan is being used, postponing its expiration */
+        public void touch()
+        {
+            lastAccess = System.currentTimeMillis();
+        }
+
+        /** @return why the lease was closed, or null if it is still open */
+        public Reason getClosedReason()
+        {
+            return closedReason;
+        }
+
+        /** Closes the resources of the lease, unless they were already closed */
+        public void close(Reason reason)
+        {
+            synchronized (this)
+            {
+                if (closedReason != null)
+                {
+                    return;
+                }
+                closedReason = reason;
+            }
+            leases.remove(this);
+            closed.get(reason).incrementAndGet();
+            for (Closeable resource : resources)
+            {
+                try
+                {
+                    resource.close();
+                }
+                catch (IOException e)
+                {
+                    logger.warn("Could not close scan resource {}: {}", resource, e.getMessage());
+                }
+                catch (RuntimeException e)
+                {
+                    logger.warn("Could not close scan resource {}: {}", resource, e.getMessage());
+                }
+            }
+        }
+    }
+}
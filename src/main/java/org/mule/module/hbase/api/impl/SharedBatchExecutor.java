@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase.api.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded executor owned by a connector. One instance is shared by every table
+ * handle, where the HBase client runs the per region server requests of multi-row
+ * operations, another one runs the asynchronous operations, and a third one the
+ * background work of scans. Its threads are named after the given prefix, and
+ * tasks rejected because of a full queue are either run by the submitting
+ * thread or refused, depending on the {@link RejectionPolicy}. With a queue
+ * size of 0 tasks never wait: they get a thread, up to the maximum, or are
+ * rejected.
+ */
+public class SharedBatchExecutor extends ThreadPoolExecutor
+{
+    /** What to do with a task submitted when every thread is busy and the queue full */
+    public enum RejectionPolicy
+    {
+        /** the submitting thread runs the task, slowing down producers */
+        CALLER_RUNS,
+        /** the task is refused with a RejectedExecutionException */
+        ABORT;
+
+        public static RejectionPolicy fromString(String value)
+        {
+            return valueOf(value.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    private final AtomicLong rejected = new AtomicLong();
+    private final String name;
+
+    public SharedBatchExecutor(String name,
+                               int coreSize,
+                               int maxSize,
+                               int queueSize,
+                               long keepAliveMillis,
+                               RejectionPolicy rejectionPolicy)
+    {
+        super(coreSize, maxSize, keepAliveMillis, TimeUnit.MILLISECONDS,
+            queueSize > 0 ? new ArrayBlockingQueue<Runnable>(queueSize) : new SynchronousQueue<Runnable>(),
+            new NamedThreadFactory(name));
+        this.name = name;
+        allowCoreThreadTimeOut(true);
+        setRejectedExecutionHandler(new CountingRejectionHandler(
+            rejectionPolicy == RejectionPolicy.CALLER_RUNS ? new CallerRunsPolicy() : new AbortPolicy()));
+    }
+
+    /**
+     * @return a snapshot of the pool utilization: current, active and largest
+     *         thread counts, queued, completed and rejected tasks
+     */
+    public Map<String, Number> getStatistics()
+    {
+        Map<String, Number> statistics = new LinkedHashMap<String, Number>();
+        statistics.put(name + ".poolSize", getPoolSize());
+        statistics.put(name + ".maxPoolSize", getMaximumPoolSize());
+        statistics.put(name + ".activeThreads", getActiveCount());
+        statistics.put(name + ".largestPoolSize", getLargestPoolSize());
+        statistics.put(name + ".queuedTasks", getQueue().size());
+        statistics.put(name + ".remainingQueueCapacity", getQueue().remainingCapacity());
+        statistics.put(name + ".completedTasks", getCompletedTaskCount());
+        statistics.put(name + ".rejectedTasks", rejected.get());
+        return statistics;
+    }
+
+    private final class CountingRejectionHandler implements RejectedExecutionHandler
+    {
+        private final RejectedExecutionHandler delegate;
+
+        public CountingRejectionHandler(RejectedExecutionHandler delegate)
+        {
+            this.delegate = delegate;
+        }
+
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor)
+        {
+            rejected.incrementAndGet();
+            delegate.rejectedExecution(task, executor);
+        }
+    }
+
+    /** Creates daemon threads named after a prefix and a sequence number */
+    static final class NamedThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger counter = new AtomicInteger();
+        private final String prefix;
+
+        public NamedThreadFactory(String prefix)
+        {
+            this.prefix = prefix;
+        }
+
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
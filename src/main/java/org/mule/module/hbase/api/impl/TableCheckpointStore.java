@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase.api.impl;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.mule.module.hbase.api.CheckpointStore;
+
+/**
+ * {@link CheckpointStore} that keeps the checkpoints in an existing HBase table,
+ * one row per checkpoint id, with the row key in the <code>row</code> column
+ * of the given family. Several Mule instances can share it.
+ */
+public class TableCheckpointStore implements CheckpointStore
+{
+    private static final byte[] ROW_QUALIFIER = Bytes.toBytes("row");
+
+    private final HTableInterfaceFactory tableFactory;
+    private final Configuration configuration;
+    private final byte[] tableName;
+    private final byte[] family;
+
+    public TableCheckpointStore(HTableInterfaceFactory tableFactory,
+                                Configuration configuration,
+                                String tableName,
+                                String family)
+    {
+        this.tableFactory = tableFactory;
+        this.configuration = configuration;
+        this.tableName = Bytes.toBytes(tableName);
+        this.family = Bytes.toBytes(family);
+    }
+
+    public byte[] load(String checkpointId) throws IOException
+    {
+        HTableInterface table = tableFactory.createHTableInterface(configuration, tableName);
+        try
+        {
+            return table.get(new Get(Bytes.toBytes(checkpointId)).addColumn(family, ROW_QUALIFIER)).getValue(
+                family, ROW_QUALIFIER);
+        }
+        finally
+        {
+            tableFactory.releaseHTableInterface(table);
+        }
+    }
+
+    public void save(String checkpointId, byte[] rowKey) throws IOException
+    {
+        HTableInterface table = tableFactory.createHTableInterface(configuration, tableName);
+        try
+        {
+            table.put(new Put(Bytes.toBytes(checkpointId)).add(family, ROW_QUALIFIER, rowKey));
+        }
+        finally
+        {
+            tableFactory.releaseHTableInterface(table);
+        }
+    }
+
+    public void clear(String checkpointId) throws IOException
+    {
+        HTableInterface table = tableFactory.createHTableInterface(configuration, tableName);
+        try
+        {
+            table.delete(new Delete(Bytes.toBytes(checkpointId)));
+        }
+        finally
+        {
+            tableFactory.releaseHTableInterface(table);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "TableCheckpointStore[" + Bytes.toString(tableName) + ":" + Bytes.toString(family) + "]";
+    }
+}
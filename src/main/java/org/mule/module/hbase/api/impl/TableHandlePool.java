@@ -0,0 +1,295 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase.api.impl;
+
+import org.mule.module.hbase.api.HBaseServiceException;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded pool of {@link HTableInterface}s keyed by table name. At most
+ * <code>maxSize</code> handles of each table are lent at the same time, and
+ * borrowers wait up to <code>borrowTimeoutMillis</code> for one to be released.
+ * Handles that stay idle for longer than <code>idleTimeoutMillis</code> are
+ * evicted.
+ */
+public class TableHandlePool
+{
+    private static final Logger logger = LoggerFactory.getLogger(TableHandlePool.class);
+    private static final Charset UTF8 = Charset.forName("utf-8");
+
+    private final HTableInterfaceFactory factory;
+    private final Configuration configuration;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final ConcurrentMap<String, Slot> slots = new ConcurrentHashMap<String, Slot>();
+    private volatile long lastSweep = System.currentTimeMillis();
+    private volatile boolean closed;
+
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+    private final AtomicLong borrowWaitNanos = new AtomicLong();
+    private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+
+    public TableHandlePool(HTableInterfaceFactory factory,
+                           Configuration configuration,
+                           int maxSize,
+                           long borrowTimeoutMillis,
+                           long idleTimeoutMillis)
+    {
+        this.factory = factory;
+        this.configuration = configuration;
+        this.maxSize = maxSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Lends a handle for the given table, reusing an idle one if possible. Callers
+     * must give it back using either {@link #release(String, HTableInterface)} or
+     * {@link #invalidate(String, HTableInterface)}.
+     *
+     * @throws HBaseServiceException if no handle became available within the
+     *             borrow timeout
+     */
+    public HTableInterface borrow(String tableName)
+    {
+        Slot slot = slotFor(tableName);
+        long start = System.nanoTime();
+        boolean acquired;
+        try
+        {
+            acquired = slot.permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new HBaseServiceException(e);
+        }
+        recordWait(System.nanoTime() - start);
+        if (!acquired)
+        {
+            exhausted.incrementAndGet();
+            throw new HBaseServiceException(new TimeoutException("No handle for table " + tableName
+                                                                 + " was released within "
+                                                                 + borrowTimeoutMillis + " ms"));
+        }
+        borrows.incrementAndGet();
+        try
+        {
+            IdleHandle idle;
+            while ((idle = slot.idle.pollFirst()) != null)
+            {
+                if (!isExpired(idle, System.currentTimeMillis()))
+                {
+                    return idle.table;
+                }
+                destroy(idle.table);
+                evicted.incrementAndGet();
+            }
+            HTableInterface table = factory.createHTableInterface(configuration, tableName.getBytes(UTF8));
+            created.incrementAndGet();
+            return table;
+        }
+        catch (RuntimeException e)
+        {
+            slot.permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Gives back a healthy handle, so that it can be lent again, or destroys it
+     * if the pool was closed
+     */
+    public void release(String tableName, HTableInterface table)
+    {
+        if (closed)
+        {
+            invalidate(tableName, table);
+            return;
+        }
+        Slot slot = slotFor(tableName);
+        IdleHandle idle = new IdleHandle(table, System.currentTimeMillis());
+        slot.idle.offerFirst(idle);
+        slot.permits.release();
+        // the pool may have been closed after the check, without seeing the handle
+        if (closed && slot.idle.removeFirstOccurrence(idle))
+        {
+            destroy(table);
+            return;
+        }
+        evictIdleIfDue();
+    }
+
+    /** Gives back a handle that must not be lent again, destroying it */
+    public void invalidate(String tableName, HTableInterface table)
+    {
+        try
+        {
+            destroy(table);
+        }
+        finally
+        {
+            slotFor(tableName).permits.release();
+        }
+    }
+
+    /** Destroys every idle handle that exceeded the idle timeout */
+    public void evictIdle()
+    {
+        long now = System.currentTimeMillis();
+        lastSweep = now;
+        for (Slot slot : slots.values())
+        {
+            IdleHandle oldest;
+            while ((oldest = slot.idle.peekLast()) != null && isExpired(oldest, now))
+            {
+                if (slot.idle.removeLastOccurrence(oldest))
+                {
+                    destroy(oldest.table);
+                    evicted.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /** Destroys every idle handle. Lent handles are destroyed when given back */
+    public void close()
+    {
+        closed = true;
+        for (Slot slot : slots.values())
+        {
+            IdleHandle idle;
+            while ((idle = slot.idle.pollFirst()) != null)
+            {
+                destroy(idle.table);
+            }
+        }
+    }
+
+    /**
+     * @return a snapshot of the pool counters: borrows, created, evicted and
+     *         exhausted handles, and the total and maximum time spent waiting for
+     *         a handle
+     */
+    public Map<String, Number> getStatistics()
+    {
+        int idle = 0;
+        int active = 0;
+        for (Slot slot : slots.values())
+        {
+            idle += slot.idle.size();
+            active += maxSize - slot.permits.availablePermits();
+        }
+        Map<String, Number> statistics = new LinkedHashMap<String, Number>();
+        statistics.put("tablePool.maxSize", maxSize);
+        statistics.put("tablePool.active", active);
+        statistics.put("tablePool.idle", idle);
+        statistics.put("tablePool.borrows", borrows.get());
+        statistics.put("tablePool.created", created.get());
+        statistics.put("tablePool.evicted", evicted.get());
+        statistics.put("tablePool.exhausted", exhausted.get());
+        statistics.put("tablePool.borrowWaitTotalMillis", TimeUnit.NANOSECONDS.toMillis(borrowWaitNanos.get()));
+        statistics.put("tablePool.borrowWaitMaxMillis", TimeUnit.NANOSECONDS.toMillis(maxBorrowWaitNanos.get()));
+        return statistics;
+    }
+
+    private Slot slotFor(String tableName)
+    {
+        Slot slot = slots.get(tableName);
+        if (slot == null)
+        {
+            Slot newSlot = new Slot(maxSize);
+            slot = slots.putIfAbsent(tableName, newSlot);
+            if (slot == null)
+            {
+                slot = newSlot;
+            }
+        }
+        return slot;
+    }
+
+    private boolean isExpired(IdleHandle idle, long now)
+    {
+        return now - idle.since > idleTimeoutMillis;
+    }
+
+    private void evictIdleIfDue()
+    {
+        if (System.currentTimeMillis() - lastSweep > idleTimeoutMillis)
+        {
+            evictIdle();
+        }
+    }
+
+    private void recordWait(long nanos)
+    {
+        borrowWaitNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxBorrowWaitNanos.get()) && !maxBorrowWaitNanos.compareAndSet(max, nanos))
+        {
+            // retry
+        }
+    }
+
+    private void destroy(HTableInterface table)
+    {
+        try
+        {
+            factory.releaseHTableInterface(table);
+        }
+        catch (IOException e)
+        {
+            logger.warn("Could not close table handle {}: {}", table, e.getMessage());
+        }
+    }
+
+    private static final class Slot
+    {
+        private final Semaphore permits;
+        private final LinkedBlockingDeque<IdleHandle> idle = new LinkedBlockingDeque<IdleHandle>();
+
+        public Slot(int maxSize)
+        {
+            this.permits = new Semaphore(maxSize, true);
+        }
+    }
+
+    private static final class IdleHandle
+    {
+        private final HTableInterface table;
+        private final long since;
+
+        public IdleHandle(HTableInterface table, long since)
+        {
+            this.table = table;
+            this.since = since;
+        }
+    }
+}
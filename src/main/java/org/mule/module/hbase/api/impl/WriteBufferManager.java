@@ -0,0 +1,343 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase.api.impl;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
+import org.apache.hadoop.hbase.client.Put;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Client side write buffers for the tables that opted in for buffered writes.
+ * Each buffered table has a long lived handle with auto flush disabled, where
+ * puts are accumulated until the buffer reaches <code>maxBytes</code> or
+ * <code>maxRows</code>, its oldest put waited for <code>maxLingerMillis</code>, or
+ * it is explicitly flushed.
+ * <p>
+ * Buffered puts are acknowledged before reaching the region servers, so they
+ * are kept buffered when a flush fails, and sent again by the next flush. Until
+ * a flush succeeds, the failure is reported to the operation that triggered
+ * the flush and to every later put and flush of the table, even when the
+ * failed flush was triggered by the linger timer.
+ */
+public class WriteBufferManager
+{
+    private static final Logger logger = LoggerFactory.getLogger(WriteBufferManager.class);
+    private static final Charset UTF8 = Charset.forName("utf-8");
+
+    private final Set<String> bufferedTables;
+    private final HTableInterfaceFactory tableFactory;
+    private final Configuration configuration;
+    private final long maxBytes;
+    private final int maxRows;
+    private final long maxLingerMillis;
+    private final ConcurrentMap<String, TableWriteBuffer> buffers = new ConcurrentHashMap<String, TableWriteBuffer>();
+    private ScheduledExecutorService lingerFlusher;
+
+    public WriteBufferManager(Collection<String> bufferedTables,
+                              HTableInterfaceFactory tableFactory,
+                              Configuration configuration,
+                              long maxBytes,
+                              int maxRows,
+                              long maxLingerMillis)
+    {
+        this.bufferedTables = new HashSet<String>(bufferedTables);
+        this.tableFactory = tableFactory;
+        this.configuration = configuration;
+        this.maxBytes = maxBytes;
+        this.maxRows = maxRows;
+        this.maxLingerMillis = maxLingerMillis;
+        if (!this.bufferedTables.isEmpty())
+        {
+            startLingerFlusher();
+        }
+    }
+
+    /** @return true if writes to the given table must be buffered */
+    public boolean isBuffered(String tableName)
+    {
+        return bufferedTables.contains(tableName);
+    }
+
+    /** Buffers the put, flushing the table buffer if any threshold was reached */
+    public void add(String tableName, Put put) throws IOException
+    {
+        bufferFor(tableName).add(put);
+    }
+
+    /** Sends every buffered put of the given table */
+    public void flush(String tableName) throws IOException
+    {
+        TableWriteBuffer buffer = buffers.get(tableName);
+        if (buffer != null)
+        {
+            buffer.flush();
+        }
+    }
+
+    /** Sends every buffered put of every table */
+    public void flushAll() throws IOException
+    {
+        IOException failure = null;
+        for (TableWriteBuffer buffer : buffers.values())
+        {
+            try
+            {
+                buffer.flush();
+            }
+            catch (IOException e)
+            {
+                failure = e;
+            }
+        }
+        if (failure != null)
+        {
+            throw failure;
+        }
+    }
+
+    /** Flushes every buffer and releases their table handles */
+    public void close()
+    {
+        if (lingerFlusher != null)
+        {
+            lingerFlusher.shutdownNow();
+        }
+        for (TableWriteBuffer buffer : buffers.values())
+        {
+            buffer.close();
+        }
+        buffers.clear();
+    }
+
+    /**
+     * @return for each buffered table, the rows and bytes waiting to be sent, and
+     *         the amount, size, failures and latency of its flushes
+     */
+    public Map<String, Number> getStatistics()
+    {
+        Map<String, Number> statistics = new LinkedHashMap<String, Number>();
+        for (TableWriteBuffer buffer : buffers.values())
+        {
+            buffer.addStatistics(statistics);
+        }
+        return statistics;
+    }
+
+    private TableWriteBuffer bufferFor(String tableName)
+    {
+        TableWriteBuffer buffer = buffers.get(tableName);
+        if (buffer == null)
+        {
+            synchronized (buffers)
+            {
+                buffer = buffers.get(tableName);
+                if (buffer == null)
+                {
+                    buffer = new TableWriteBuffer(tableName, openTable(tableName));
+                    buffers.put(tableName, buffer);
+                }
+            }
+        }
+        return buffer;
+    }
+
+    private HTableInterface openTable(String tableName)
+    {
+        HTableInterface table = tableFactory.createHTableInterface(configuration, tableName.getBytes(UTF8));
+        table.setAutoFlush(false, true);
+        try
+        {
+            table.setWriteBufferSize(maxBytes);
+        }
+        catch (IOException e)
+        {
+            logger.warn("Could not set the write buffer size of table {}: {}", tableName, e.getMessage());
+        }
+        return table;
+    }
+
+    private void startLingerFlusher()
+    {
+        lingerFlusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "hbaseWriteBufferFlusher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long period = Math.max(1, maxLingerMillis / 2);
+        lingerFlusher.scheduleWithFixedDelay(new Runnable()
+        {
+            public void run()
+            {
+                long now = System.currentTimeMillis();
+                for (TableWriteBuffer buffer : buffers.values())
+                {
+                    try
+                    {
+                        buffer.flushIfLingering(now);
+                    }
+                    catch (Exception e)
+                    {
+                        logger.error("Could not flush the buffered writes of table " + buffer.tableName, e);
+                    }
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private final class TableWriteBuffer
+    {
+        private final String tableName;
+        private final HTableInterface hTable;
+        private final List<Put> pending = new ArrayList<Put>();
+        private long pendingBytes;
+        private long oldestPendingSince;
+        private IOException failure;
+
+        private long flushes;
+        private long failedFlushes;
+        private long flushedRows;
+        private long flushNanosTotal;
+        private long flushNanosMax;
+        private long flushNanosLast;
+
+        public TableWriteBuffer(String tableName, HTableInterface hTable)
+        {
+            this.tableName = tableName;
+            this.hTable = hTable;
+        }
+
+        public synchronized void add(Put put) throws IOException
+        {
+            if (failure != null)
+            {
+                // not buffering more puts until the ones already buffered can be sent
+                throw new IOException("Could not send the " + pending.size() + " buffered writes of table "
+                                      + tableName + ", the put was not buffered", failure);
+            }
+            if (pending.isEmpty())
+            {
+                oldestPendingSince = System.currentTimeMillis();
+            }
+            pending.add(put);
+            pendingBytes += put.heapSize();
+            if (pending.size() >= maxRows || pendingBytes >= maxBytes)
+            {
+                flush();
+            }
+        }
+
+        public synchronized void flushIfLingering(long now) throws IOException
+        {
+            if (!pending.isEmpty() && now - oldestPendingSince >= maxLingerMillis)
+            {
+                flush();
+            }
+        }
+
+        public synchronized void flush() throws IOException
+        {
+            if (pending.isEmpty())
+            {
+                return;
+            }
+            int rows = pending.size();
+            long start = System.nanoTime();
+            boolean failed = true;
+            try
+            {
+                // the handle clears its own buffer on failures, so every pending put is sent again
+                hTable.put(pending);
+                hTable.flushCommits();
+                failed = false;
+                failure = null;
+                pending.clear();
+                pendingBytes = 0;
+            }
+            catch (IOException e)
+            {
+                failure = e;
+                throw e;
+            }
+            finally
+            {
+                long elapsed = System.nanoTime() - start;
+                flushes++;
+                flushNanosLast = elapsed;
+                flushNanosTotal += elapsed;
+                flushNanosMax = Math.max(flushNanosMax, elapsed);
+                if (failed)
+                {
+                    failedFlushes++;
+                }
+                else
+                {
+                    flushedRows += rows;
+                }
+            }
+        }
+
+        public synchronized void close()
+        {
+            try
+            {
+                flush();
+            }
+            catch (IOException e)
+            {
+                logger.error("Could not flush the buffered writes of table " + tableName + " while closing, "
+                             + pending.size() + " puts were lost", e);
+            }
+            try
+            {
+                tableFactory.releaseHTableInterface(hTable);
+            }
+            catch (IOException e)
+            {
+                logger.warn("Could not close table handle {}: {}", tableName, e.getMessage());
+            }
+        }
+
+        public synchronized void addStatistics(Map<String, Number> statistics)
+        {
+            String prefix = "writeBuffer." + tableName + ".";
+            statistics.put(prefix + "pendingRows", pending.size());
+            statistics.put(prefix + "pendingBytes", pendingBytes);
+            statistics.put(prefix + "maxBytes", maxBytes);
+            statistics.put(prefix + "flushes", flushes);
+            statistics.put(prefix + "failedFlushes", failedFlushes);
+            statistics.put(prefix + "flushedRows", flushedRows);
+            statistics.put(prefix + "flushMillisTotal", TimeUnit.NANOSECONDS.toMillis(flushNanosTotal));
+            statistics.put(prefix + "flushMillisMax", TimeUnit.NANOSECONDS.toMillis(flushNanosMax));
+            statistics.put(prefix + "flushMillisLast", TimeUnit.NANOSECONDS.toMillis(flushNanosLast));
+        }
+    }
+}
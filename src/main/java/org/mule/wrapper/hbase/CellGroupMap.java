@@ -0,0 +1,475 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.wrapper.hbase;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Read-only {@link NavigableMap} view of the sorted cells of a row, grouped by
+ * family or by qualifier. Nothing is copied up front: only the offsets where
+ * each group starts are computed, lookups binary search the groups comparing
+ * keys in place in the backing arrays of the cells, and keys and values are
+ * built when they are asked for. Key sets are views too, that never build the
+ * values.
+ * <p>
+ * Descending maps are copies, since rows are seldom navigated backwards.
+ */
+final class CellGroupMap<V> extends AbstractMap<byte[], V> implements NavigableMap<byte[], V> {
+
+  /** What the cells are grouped by */
+  enum Grouping {
+    FAMILY {
+      int compare(byte[] key, Cell cell) {
+        return Bytes.compareTo(key, 0, key.length,
+            cell.getFamilyArray(), cell.getFamilyOffset(), cell.getFamilyLength());
+      }
+
+      boolean sameGroup(Cell c1, Cell c2) {
+        return CellUtil.matchingFamily(c1, c2);
+      }
+
+      byte[] keyOf(Cell cell) {
+        return CellUtil.cloneFamily(cell);
+      }
+    },
+    QUALIFIER {
+      int compare(byte[] key, Cell cell) {
+        return Bytes.compareTo(key, 0, key.length,
+            cell.getQualifierArray(), cell.getQualifierOffset(), cell.getQualifierLength());
+      }
+
+      boolean sameGroup(Cell c1, Cell c2) {
+        return CellUtil.matchingQualifier(c1, c2);
+      }
+
+      byte[] keyOf(Cell cell) {
+        return CellUtil.cloneQualifier(cell);
+      }
+    };
+
+    abstract int compare(byte[] key, Cell cell);
+
+    abstract boolean sameGroup(Cell c1, Cell c2);
+
+    abstract byte[] keyOf(Cell cell);
+  }
+
+  /** Builds the value of a group from its cells */
+  interface GroupValue<V> {
+    V valueOf(Cell[] cells, int from, int to);
+  }
+
+  private final Cell[] cells;
+  private final Grouping grouping;
+  private final GroupValue<V> values;
+  /** start of each group, followed by the end of the last one */
+  private final int[] starts;
+  /** first group of this view, inclusive */
+  private final int lo;
+  /** last group of this view, exclusive */
+  private final int hi;
+
+  private CellGroupMap(Cell[] cells, Grouping grouping, GroupValue<V> values, int[] starts, int lo, int hi) {
+    this.cells = cells;
+    this.grouping = grouping;
+    this.values = values;
+    this.starts = starts;
+    this.lo = lo;
+    this.hi = hi;
+  }
+
+  /** @return a view of the cells in [from, to), which must all share the groups above the given one */
+  static <V> CellGroupMap<V> group(Cell[] cells, int from, int to, Grouping grouping, GroupValue<V> values) {
+    int groups = from < to ? 1 : 0;
+    for (int i = from + 1; i < to; i++) {
+      if (!grouping.sameGroup(cells[i - 1], cells[i])) {
+        groups++;
+      }
+    }
+    int[] starts = new int[groups + 1];
+    int group = 0;
+    for (int i = from; i < to; i++) {
+      if (i == from || !grouping.sameGroup(cells[i - 1], cells[i])) {
+        starts[group++] = i;
+      }
+    }
+    starts[groups] = to;
+    return new CellGroupMap<V>(cells, grouping, values, starts, 0, groups);
+  }
+
+  /** @return the first index in [from, to) whose cell sorts after the key, or at it if inclusive */
+  static int bound(Cell[] cells, int from, int to, byte[] key, Grouping grouping, boolean inclusive) {
+    int low = from;
+    int high = to;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      int diff = grouping.compare(key, cells[mid]);
+      if (diff > 0 || (diff == 0 && !inclusive)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  // ------------ Groups
+
+  private int compareGroup(byte[] key, int group) {
+    return grouping.compare(key, cells[starts[group]]);
+  }
+
+  /** @return the first group of this view whose key is greater than, or equal if inclusive, the key */
+  private int ceilingGroup(byte[] key, boolean inclusive) {
+    int low = lo;
+    int high = hi;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      int diff = compareGroup(key, mid);
+      if (diff > 0 || (diff == 0 && !inclusive)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private int indexOf(Object key) {
+    if (!(key instanceof byte[])) {
+      return -1;
+    }
+    int group = ceilingGroup((byte[]) key, true);
+    return group < hi && compareGroup((byte[]) key, group) == 0 ? group : -1;
+  }
+
+  private byte[] keyAt(int group) {
+    return grouping.keyOf(cells[starts[group]]);
+  }
+
+  private V valueAt(int group) {
+    return values.valueOf(cells, starts[group], starts[group + 1]);
+  }
+
+  private Map.Entry<byte[], V> entryAt(int group) {
+    return group >= lo && group < hi ? new SimpleImmutableEntry<byte[], V>(keyAt(group), valueAt(group)) : null;
+  }
+
+  private byte[] keyOrNull(int group) {
+    return group >= lo && group < hi ? keyAt(group) : null;
+  }
+
+  private CellGroupMap<V> view(int from, int to) {
+    return new CellGroupMap<V>(cells, grouping, values, starts, from, Math.max(from, to));
+  }
+
+  // ------------ Map
+
+  @Override
+  public int size() {
+    return hi - lo;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return indexOf(key) != -1;
+  }
+
+  @Override
+  public V get(Object key) {
+    int group = indexOf(key);
+    return group == -1 ? null : valueAt(group);
+  }
+
+  @Override
+  public Set<byte[]> keySet() {
+    return navigableKeySet();
+  }
+
+  @Override
+  public Set<Map.Entry<byte[], V>> entrySet() {
+    return new AbstractSet<Map.Entry<byte[], V>>() {
+      @Override
+      public Iterator<Map.Entry<byte[], V>> iterator() {
+        return new Iterator<Map.Entry<byte[], V>>() {
+          private int next = lo;
+
+          public boolean hasNext() {
+            return next < hi;
+          }
+
+          public Map.Entry<byte[], V> next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            return entryAt(next++);
+          }
+
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return hi - lo;
+      }
+    };
+  }
+
+  // ------------ SortedMap
+
+  public Comparator<? super byte[]> comparator() {
+    return Bytes.BYTES_COMPARATOR;
+  }
+
+  public byte[] firstKey() {
+    if (isEmpty()) {
+      throw new NoSuchElementException();
+    }
+    return keyAt(lo);
+  }
+
+  public byte[] lastKey() {
+    if (isEmpty()) {
+      throw new NoSuchElementException();
+    }
+    return keyAt(hi - 1);
+  }
+
+  public NavigableMap<byte[], V> subMap(byte[] fromKey, byte[] toKey) {
+    return subMap(fromKey, true, toKey, false);
+  }
+
+  public NavigableMap<byte[], V> headMap(byte[] toKey) {
+    return headMap(toKey, false);
+  }
+
+  public NavigableMap<byte[], V> tailMap(byte[] fromKey) {
+    return tailMap(fromKey, true);
+  }
+
+  // ------------ NavigableMap
+
+  public Map.Entry<byte[], V> lowerEntry(byte[] key) {
+    return entryAt(ceilingGroup(key, true) - 1);
+  }
+
+  public byte[] lowerKey(byte[] key) {
+    return keyOrNull(ceilingGroup(key, true) - 1);
+  }
+
+  public Map.Entry<byte[], V> floorEntry(byte[] key) {
+    return entryAt(ceilingGroup(key, false) - 1);
+  }
+
+  public byte[] floorKey(byte[] key) {
+    return keyOrNull(ceilingGroup(key, false) - 1);
+  }
+
+  public Map.Entry<byte[], V> ceilingEntry(byte[] key) {
+    return entryAt(ceilingGroup(key, true));
+  }
+
+  public byte[] ceilingKey(byte[] key) {
+    return keyOrNull(ceilingGroup(key, true));
+  }
+
+  public Map.Entry<byte[], V> higherEntry(byte[] key) {
+    return entryAt(ceilingGroup(key, false));
+  }
+
+  public byte[] higherKey(byte[] key) {
+    return keyOrNull(ceilingGroup(key, false));
+  }
+
+  public Map.Entry<byte[], V> firstEntry() {
+    return entryAt(lo);
+  }
+
+  public Map.Entry<byte[], V> lastEntry() {
+    return entryAt(hi - 1);
+  }
+
+  public Map.Entry<byte[], V> pollFirstEntry() {
+    throw new UnsupportedOperationException();
+  }
+
+  public Map.Entry<byte[], V> pollLastEntry() {
+    throw new UnsupportedOperationException();
+  }
+
+  public NavigableMap<byte[], V> descendingMap() {
+    return new TreeMap<byte[], V>(this).descendingMap();
+  }
+
+  public NavigableSet<byte[]> navigableKeySet() {
+    return new KeySet(this, false);
+  }
+
+  public NavigableSet<byte[]> descendingKeySet() {
+    return new KeySet(this, true);
+  }
+
+  public NavigableMap<byte[], V> subMap(byte[] fromKey, boolean fromInclusive,
+      byte[] toKey, boolean toInclusive) {
+    if (Bytes.compareTo(fromKey, toKey) > 0) {
+      throw new IllegalArgumentException("fromKey > toKey");
+    }
+    return view(ceilingGroup(fromKey, fromInclusive), ceilingGroup(toKey, !toInclusive));
+  }
+
+  public NavigableMap<byte[], V> headMap(byte[] toKey, boolean inclusive) {
+    return view(lo, ceilingGroup(toKey, !inclusive));
+  }
+
+  public NavigableMap<byte[], V> tailMap(byte[] fromKey, boolean inclusive) {
+    return view(ceilingGroup(fromKey, inclusive), hi);
+  }
+
+  // ------------ Keys
+
+  /** The keys of the groups of a view, in ascending or descending order */
+  private static final class KeySet extends AbstractSet<byte[]> implements NavigableSet<byte[]> {
+    private final CellGroupMap<?> map;
+    private final boolean descending;
+
+    KeySet(CellGroupMap<?> map, boolean descending) {
+      this.map = map;
+      this.descending = descending;
+    }
+
+    @Override
+    public int size() {
+      return map.size();
+    }
+
+    @Override
+    public boolean contains(Object key) {
+      return map.containsKey(key);
+    }
+
+    @Override
+    public Iterator<byte[]> iterator() {
+      return new Iterator<byte[]>() {
+        private int next = descending ? map.hi - 1 : map.lo;
+
+        public boolean hasNext() {
+          return descending ? next >= map.lo : next < map.hi;
+        }
+
+        public byte[] next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          byte[] key = map.keyAt(next);
+          next += descending ? -1 : 1;
+          return key;
+        }
+
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+
+    public Comparator<? super byte[]> comparator() {
+      return descending ? Collections.reverseOrder(Bytes.BYTES_COMPARATOR) : Bytes.BYTES_COMPARATOR;
+    }
+
+    public byte[] first() {
+      return descending ? map.lastKey() : map.firstKey();
+    }
+
+    public byte[] last() {
+      return descending ? map.firstKey() : map.lastKey();
+    }
+
+    public byte[] lower(byte[] key) {
+      return descending ? map.higherKey(key) : map.lowerKey(key);
+    }
+
+    public byte[] floor(byte[] key) {
+      return descending ? map.ceilingKey(key) : map.floorKey(key);
+    }
+
+    public byte[] ceiling(byte[] key) {
+      return descending ? map.floorKey(key) : map.ceilingKey(key);
+    }
+
+    public byte[] higher(byte[] key) {
+      return descending ? map.lowerKey(key) : map.higherKey(key);
+    }
+
+    public byte[] pollFirst() {
+      throw new UnsupportedOperationException();
+    }
+
+    public byte[] pollLast() {
+      throw new UnsupportedOperationException();
+    }
+
+    public NavigableSet<byte[]> descendingSet() {
+      return new KeySet(map, !descending);
+    }
+
+    public Iterator<byte[]> descendingIterator() {
+      return descendingSet().iterator();
+    }
+
+    public NavigableSet<byte[]> subSet(byte[] fromElement, boolean fromInclusive,
+        byte[] toElement, boolean toInclusive) {
+      CellGroupMap<?> sub = descending
+          ? (CellGroupMap<?>) map.subMap(toElement, toInclusive, fromElement, fromInclusive)
+          : (CellGroupMap<?>) map.subMap(fromElement, fromInclusive, toElement, toInclusive);
+      return new KeySet(sub, descending);
+    }
+
+    public NavigableSet<byte[]> headSet(byte[] toElement, boolean inclusive) {
+      CellGroupMap<?> head = descending
+          ? (CellGroupMap<?>) map.tailMap(toElement, inclusive)
+          : (CellGroupMap<?>) map.headMap(toElement, inclusive);
+      return new KeySet(head, descending);
+    }
+
+    public NavigableSet<byte[]> tailSet(byte[] fromElement, boolean inclusive) {
+      CellGroupMap<?> tail = descending
+          ? (CellGroupMap<?>) map.headMap(fromElement, inclusive)
+          : (CellGroupMap<?>) map.tailMap(fromElement, inclusive);
+      return new KeySet(tail, descending);
+    }
+
+    public NavigableSet<byte[]> subSet(byte[] fromElement, byte[] toElement) {
+      return subSet(fromElement, true, toElement, false);
+    }
+
+    public NavigableSet<byte[]> headSet(byte[] toElement) {
+      return headSet(toElement, false);
+    }
+
+    public NavigableSet<byte[]> tailSet(byte[] fromElement) {
+      return tailSet(fromElement, true);
+    }
+  }
+}
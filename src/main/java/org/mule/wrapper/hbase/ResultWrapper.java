@@ -21,8 +21,14 @@
  */
 package org.mule.wrapper.hbase;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.UnsupportedCharsetException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -37,14 +43,20 @@ import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellScannable;
 import org.apache.hadoop.hbase.CellScanner;
 import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.KeyValueUtil;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.mule.wrapper.hbase.CellGroupMap.GroupValue;
+import org.mule.wrapper.hbase.CellGroupMap.Grouping;
 
 /**
  * Single row result of a {@link Get} or {@link Scan} query.<p>
  *
- * This class is <b>NOT THREAD SAFE</b>.<p>
+ * This class is <b>NOT THREAD SAFE</b>, although column lookups such as
+ * {@link #getColumnLatestCell(byte[], byte[])}, {@link #getValue(byte[], byte[])}
+ * and {@link #containsColumn(byte[], byte[])} share no state and allocate nothing,
+ * so they can be done concurrently on the same or different instances.<p>
  *
  * Convenience methods are available that return various {@link Map}
  * structures and values directly.<p>
@@ -59,6 +71,10 @@ import org.apache.hadoop.hbase.util.Bytes;
  * {@link #getFamilyMap(byte[])}.<p>
  *
  * To get the latest value for a specific family and qualifier use {@link #getValue(byte[], byte[])}.
+ * To decode it without copying, use the typed accessors such as {@link #getLong(byte[], byte[])}
+ * or {@link #getString(byte[], byte[], String)}, which also take the family and qualifier as
+ * strings so that Mule expressions can call them, as in
+ * <code>#[payload.getLong('stats', 'visits')]</code>.<p>
  *
  * A Result is backed by an array of {@link Cell} objects, each representing
  * an HBase cell defined by the row, family, qualifier, timestamp, and value.<p>
@@ -79,20 +95,58 @@ import org.apache.hadoop.hbase.util.Bytes;
  */
 @InterfaceAudience.Public
 @InterfaceStability.Stable
-public class ResultWrapper implements CellScannable, CellScanner {
+public class ResultWrapper implements CellScannable, CellScanner, Externalizable {
+  private static final long serialVersionUID = 1L;
+
   private Cell[] cells;
   private Boolean exists; // if the query was just to check existence.
-  // We're not using java serialization.  Transient here is just a marker to say
-  // that this is where we cache row if we're ever asked for it.
+  // Java serialization goes through ResultWrapperCodec.  Transient here is just a
+  // marker to say that this is where we cache row if we're ever asked for it.
   private transient byte [] row = null;
   // Ditto for familyMap.  It can be composed on fly from passed in kvs.
   private transient NavigableMap<byte[], NavigableMap<byte[], NavigableMap<Long, byte[]>>> familyMap = null;
 
-  // never use directly
-  private static byte [] buffer = null;
-  private static final int PAD_WIDTH = 128;
   public static final ResultWrapper EMPTY_RESULT = new ResultWrapper();
 
+  private static final Comparator<Long> NEWEST_FIRST = new Comparator<Long>() {
+    public int compare(Long l1, Long l2) {
+      return l2.compareTo(l1);
+    }
+  };
+
+  /** All the versions of a column, newest first */
+  private static final GroupValue<NavigableMap<Long, byte[]>> VERSIONS =
+      new GroupValue<NavigableMap<Long, byte[]>>() {
+    public NavigableMap<Long, byte[]> valueOf(Cell[] cells, int from, int to) {
+      NavigableMap<Long, byte[]> versionMap = new TreeMap<Long, byte[]>(NEWEST_FIRST);
+      for (int i = from; i < to; i++) {
+        versionMap.put(cells[i].getTimestamp(), CellUtil.cloneValue(cells[i]));
+      }
+      return versionMap;
+    }
+  };
+
+  /** The newest value of a column, which sorts first */
+  private static final GroupValue<byte[]> LATEST_VALUE = new GroupValue<byte[]>() {
+    public byte[] valueOf(Cell[] cells, int from, int to) {
+      return CellUtil.cloneValue(cells[from]);
+    }
+  };
+
+  private static final GroupValue<NavigableMap<byte[], NavigableMap<Long, byte[]>>> COLUMN_VERSIONS =
+      new GroupValue<NavigableMap<byte[], NavigableMap<Long, byte[]>>>() {
+    public NavigableMap<byte[], NavigableMap<Long, byte[]>> valueOf(Cell[] cells, int from, int to) {
+      return CellGroupMap.group(cells, from, to, Grouping.QUALIFIER, VERSIONS);
+    }
+  };
+
+  private static final GroupValue<NavigableMap<byte[], byte[]>> LATEST_VALUES =
+      new GroupValue<NavigableMap<byte[], byte[]>>() {
+    public NavigableMap<byte[], byte[]> valueOf(Cell[] cells, int from, int to) {
+      return CellGroupMap.group(cells, from, to, Grouping.QUALIFIER, LATEST_VALUE);
+    }
+  };
+
   private final static int INITIAL_CELLSCANNER_INDEX = -1;
 
   /**
@@ -276,9 +330,8 @@ public class ResultWrapper implements CellScannable, CellScanner {
     }
 
     for (int i = pos ; i < kvs.length ; i++ ) {
-      KeyValue kv = KeyValueUtil.ensureKeyValue(kvs[i]);
-      if (kv.matchingColumn(family,qualifier)) {
-        result.add(kv);
+      if (matchesColumn(kvs[i], family, qualifier)) {
+        result.add(kvs[i]);
       } else {
         break;
       }
@@ -290,25 +343,14 @@ public class ResultWrapper implements CellScannable, CellScanner {
   protected int binarySearch(final Cell [] kvs,
                              final byte [] family,
                              final byte [] qualifier) {
-    Cell searchTerm =
-        KeyValue.createFirstOnRow(CellUtil.cloneRow(kvs[0]),
-            family, qualifier);
-
-    // pos === ( -(insertion point) - 1)
-    int pos = Arrays.binarySearch(kvs, searchTerm, KeyValue.COMPARATOR);
-    // never will exact match
-    if (pos < 0) {
-      pos = (pos+1) * -1;
-      // pos is now insertion point
-    }
-    if (pos == kvs.length) {
-      return -1; // doesn't exist
-    }
-    return pos;
+    return binarySearch(kvs, family, 0, lengthOf(family), qualifier, 0, lengthOf(qualifier));
   }
 
   /**
    * Searches for the latest value for the specified column.
+   * <p>
+   * Every cell of a result belongs to the same row, so the search only compares
+   * families and qualifiers, in place in the backing arrays of the cells.
    *
    * @param kvs the array to search
    * @param family family name
@@ -318,36 +360,51 @@ public class ResultWrapper implements CellScannable, CellScanner {
    * @param qoffset qualifier offset
    * @param qlength qualifier length
    *
-   * @return the index where the value was found, or -1 otherwise
+   * @return the index of the first cell of the column, or of the first cell of a
+   * following column if the column is not in the array, or -1 if every cell of the
+   * array sorts before the column
    */
   protected int binarySearch(final Cell [] kvs,
       final byte [] family, final int foffset, final int flength,
       final byte [] qualifier, final int qoffset, final int qlength) {
+    int low = 0;
+    int high = kvs.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (compareColumn(kvs[mid], family, foffset, flength, qualifier, qoffset, qlength) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    if (low == kvs.length) {
+      return -1; // doesn't exist
+    }
+    return low;
+  }
 
-    double keyValueSize = (double)
-        KeyValue.getKeyValueDataStructureSize(kvs[0].getRowLength(), flength, qlength, 0);
-
-    if (buffer == null || keyValueSize > buffer.length) {
-      // pad to the smallest multiple of the pad width
-      buffer = new byte[(int) Math.ceil(keyValueSize / PAD_WIDTH) * PAD_WIDTH];
+  /**
+   * Compares the column of a cell with the given one, the same way
+   * {@link KeyValue#COMPARATOR} does for cells of the same row.
+   */
+  private static int compareColumn(final Cell cell,
+      final byte [] family, final int foffset, final int flength,
+      final byte [] qualifier, final int qoffset, final int qlength) {
+    int diff = Bytes.compareTo(cell.getFamilyArray(), cell.getFamilyOffset(), cell.getFamilyLength(),
+        family == null ? HConstants.EMPTY_BYTE_ARRAY : family, foffset, flength);
+    if (diff != 0) {
+      return diff;
     }
+    return Bytes.compareTo(cell.getQualifierArray(), cell.getQualifierOffset(), cell.getQualifierLength(),
+        qualifier == null ? HConstants.EMPTY_BYTE_ARRAY : qualifier, qoffset, qlength);
+  }
 
-    Cell searchTerm = KeyValue.createFirstOnRow(buffer, 0,
-        kvs[0].getRowArray(), kvs[0].getRowOffset(), kvs[0].getRowLength(),
-        family, foffset, flength,
-        qualifier, qoffset, qlength);
+  private static boolean matchesColumn(final Cell cell, final byte [] family, final byte [] qualifier) {
+    return compareColumn(cell, family, 0, lengthOf(family), qualifier, 0, lengthOf(qualifier)) == 0;
+  }
 
-    // pos === ( -(insertion point) - 1)
-    int pos = Arrays.binarySearch(kvs, searchTerm, KeyValue.COMPARATOR);
-    // never will exact match
-    if (pos < 0) {
-      pos = (pos+1) * -1;
-      // pos is now insertion point
-    }
-    if (pos == kvs.length) {
-      return -1; // doesn't exist
-    }
-    return pos;
+  private static int lengthOf(final byte [] bytes) {
+    return bytes == null ? 0 : bytes.length;
   }
 
   /**
@@ -376,9 +433,8 @@ public class ResultWrapper implements CellScannable, CellScanner {
     if (pos == -1) {
       return null;
     }
-    KeyValue kv = KeyValueUtil.ensureKeyValue(kvs[pos]);
-    if (kv.matchingColumn(family, qualifier)) {
-      return kv;
+    if (matchesColumn(kvs[pos], family, qualifier)) {
+      return kvs[pos];
     }
     return null;
   }
@@ -417,9 +473,8 @@ public class ResultWrapper implements CellScannable, CellScanner {
     if (pos == -1) {
       return null;
     }
-    KeyValue kv = KeyValueUtil.ensureKeyValue(kvs[pos]);
-    if (kv.matchingColumn(family, foffset, flength, qualifier, qoffset, qlength)) {
-      return kv;
+    if (compareColumn(kvs[pos], family, foffset, flength, qualifier, qoffset, qlength) == 0) {
+      return kvs[pos];
     }
     return null;
   }
@@ -526,6 +581,148 @@ public class ResultWrapper implements CellScannable, CellScanner {
     return true;
   }
 
+  /**
+   * Decodes the latest version of the specified column as written by
+   * {@link Bytes#toBytes(long)}, straight from the backing array of its cell.
+   *
+   * @param family family name
+   * @param qualifier column qualifier
+   * @return the value of the latest version of the column
+   * @throws IllegalArgumentException if the column is absent or its value is not 8 bytes long
+   */
+  public long getLong(byte [] family, byte [] qualifier) {
+    Cell kv = getRequiredCell(family, qualifier);
+    return Bytes.toLong(kv.getValueArray(), kv.getValueOffset(), kv.getValueLength());
+  }
+
+  /**
+   * Like {@link #getLong(byte[], byte[])}, for columns named as UTF-8 strings,
+   * as they are written in Mule expressions.
+   */
+  public long getLong(String family, String qualifier) {
+    return getLong(Bytes.toBytes(family), Bytes.toBytes(qualifier));
+  }
+
+  /**
+   * Decodes the latest version of the specified column as written by
+   * {@link Bytes#toBytes(int)}, straight from the backing array of its cell.
+   *
+   * @param family family name
+   * @param qualifier column qualifier
+   * @return the value of the latest version of the column
+   * @throws IllegalArgumentException if the column is absent or its value is not 4 bytes long
+   */
+  public int getInt(byte [] family, byte [] qualifier) {
+    Cell kv = getRequiredCell(family, qualifier);
+    return Bytes.toInt(kv.getValueArray(), kv.getValueOffset(), kv.getValueLength());
+  }
+
+  /**
+   * Like {@link #getInt(byte[], byte[])}, for columns named as UTF-8 strings,
+   * as they are written in Mule expressions.
+   */
+  public int getInt(String family, String qualifier) {
+    return getInt(Bytes.toBytes(family), Bytes.toBytes(qualifier));
+  }
+
+  /**
+   * Decodes the latest version of the specified column as written by
+   * {@link Bytes#toBytes(double)}, straight from the backing array of its cell.
+   *
+   * @param family family name
+   * @param qualifier column qualifier
+   * @return the value of the latest version of the column
+   * @throws IllegalArgumentException if the column is absent or its value is not 8 bytes long
+   */
+  public double getDouble(byte [] family, byte [] qualifier) {
+    Cell kv = getRequiredCell(family, qualifier);
+    return Double.longBitsToDouble(Bytes.toLong(kv.getValueArray(), kv.getValueOffset(), kv.getValueLength()));
+  }
+
+  /**
+   * Like {@link #getDouble(byte[], byte[])}, for columns named as UTF-8 strings,
+   * as they are written in Mule expressions.
+   */
+  public double getDouble(String family, String qualifier) {
+    return getDouble(Bytes.toBytes(family), Bytes.toBytes(qualifier));
+  }
+
+  /**
+   * Decodes the latest version of the specified column as written by
+   * {@link Bytes#toBytes(boolean)}, straight from the backing array of its cell.
+   *
+   * @param family family name
+   * @param qualifier column qualifier
+   * @return the value of the latest version of the column
+   * @throws IllegalArgumentException if the column is absent or its value is not 1 byte long
+   */
+  public boolean getBoolean(byte [] family, byte [] qualifier) {
+    Cell kv = getRequiredCell(family, qualifier);
+    if (kv.getValueLength() != Bytes.SIZEOF_BOOLEAN) {
+      throw new IllegalArgumentException("Value of column " + Bytes.toStringBinary(family) + ":"
+          + Bytes.toStringBinary(qualifier) + " has wrong size " + kv.getValueLength());
+    }
+    return kv.getValueArray()[kv.getValueOffset()] != (byte) 0;
+  }
+
+  /**
+   * Like {@link #getBoolean(byte[], byte[])}, for columns named as UTF-8 strings,
+   * as they are written in Mule expressions.
+   */
+  public boolean getBoolean(String family, String qualifier) {
+    return getBoolean(Bytes.toBytes(family), Bytes.toBytes(qualifier));
+  }
+
+  /**
+   * Decodes the latest version of the specified column with the given charset,
+   * straight from the backing array of its cell.
+   *
+   * @param family family name
+   * @param qualifier column qualifier
+   * @param charset name of the charset of the value
+   * @return the value of the latest version of the column, null if none found
+   * @throws UnsupportedCharsetException if the charset is not supported
+   */
+  public String getString(byte [] family, byte [] qualifier, String charset) {
+    Cell kv = getColumnLatestCell(family, qualifier);
+    if (kv == null) {
+      return null;
+    }
+    return new String(kv.getValueArray(), kv.getValueOffset(), kv.getValueLength(), Charset.forName(charset));
+  }
+
+  /**
+   * Like {@link #getString(byte[], byte[], String)}, for columns named as UTF-8
+   * strings, as they are written in Mule expressions.
+   */
+  public String getString(String family, String qualifier, String charset) {
+    return getString(Bytes.toBytes(family), Bytes.toBytes(qualifier), charset);
+  }
+
+  /**
+   * Decodes the latest version of the specified column as UTF-8.
+   *
+   * @param family family name
+   * @param qualifier column qualifier
+   * @return the value of the latest version of the column, null if none found
+   */
+  public String getString(String family, String qualifier) {
+    Cell kv = getColumnLatestCell(Bytes.toBytes(family), Bytes.toBytes(qualifier));
+    if (kv == null) {
+      return null;
+    }
+    return Bytes.toString(kv.getValueArray(), kv.getValueOffset(), kv.getValueLength());
+  }
+
+  private Cell getRequiredCell(byte [] family, byte [] qualifier) {
+    Cell kv = getColumnLatestCell(family, qualifier);
+    if (kv == null) {
+      throw new IllegalArgumentException("No column " + Bytes.toStringBinary(family) + ":"
+          + Bytes.toStringBinary(qualifier));
+    }
+    return kv;
+  }
+
   /**
    * Checks if the specified column contains a non-empty value (not a zero-length byte array).
    *
@@ -628,7 +825,9 @@ public class ResultWrapper implements CellScannable, CellScanner {
    * Returns a three level Map of the form:
    * <code>Map&amp;family,Map&lt;qualifier,Map&lt;timestamp,value>>></code>
    * <p>
-   * Note: All other map returning methods make use of this map internally.
+   * The map is a read-only view of the cells of this result: families and
+   * qualifiers are looked up in place, and the versions of a column are only
+   * copied when that column is asked for.
    * @return map from families to qualifiers to versions
    */
   public NavigableMap<byte[], NavigableMap<byte[], NavigableMap<Long, byte[]>>> getMap() {
@@ -638,31 +837,7 @@ public class ResultWrapper implements CellScannable, CellScanner {
     if(isEmpty()) {
       return null;
     }
-    this.familyMap = new TreeMap<byte[], NavigableMap<byte[], NavigableMap<Long, byte[]>>>(Bytes.BYTES_COMPARATOR);
-    for(Cell kv : this.cells) {
-      byte [] family = CellUtil.cloneFamily(kv);
-      NavigableMap<byte[], NavigableMap<Long, byte[]>> columnMap =
-        familyMap.get(family);
-      if(columnMap == null) {
-        columnMap = new TreeMap<byte[], NavigableMap<Long, byte[]>>
-          (Bytes.BYTES_COMPARATOR);
-        familyMap.put(family, columnMap);
-      }
-      byte [] qualifier = CellUtil.cloneQualifier(kv);
-      NavigableMap<Long, byte[]> versionMap = columnMap.get(qualifier);
-      if(versionMap == null) {
-        versionMap = new TreeMap<Long, byte[]>(new Comparator<Long>() {
-          public int compare(Long l1, Long l2) {
-            return l2.compareTo(l1);
-          }
-        });
-        columnMap.put(qualifier, versionMap);
-      }
-      Long timestamp = kv.getTimestamp();
-      byte [] value = CellUtil.cloneValue(kv);
-
-      versionMap.put(timestamp, value);
-    }
+    this.familyMap = CellGroupMap.group(this.cells, 0, this.cells.length, Grouping.FAMILY, COLUMN_VERSIONS);
     return this.familyMap;
   }
 
@@ -671,61 +846,38 @@ public class ResultWrapper implements CellScannable, CellScanner {
    * <p>
    * Returns a two level Map of the form: <code>Map&amp;family,Map&lt;qualifier,value>></code>
    * <p>
-   * The most recent version of each qualifier will be used.
+   * The most recent version of each qualifier will be used. The map is a
+   * read-only view of the cells of this result, which copies values only when
+   * they are asked for.
    * @return map from families to qualifiers and value
    */
   public NavigableMap<byte[], NavigableMap<byte[], byte[]>> getNoVersionMap() {
-    if(this.familyMap == null) {
-      getMap();
-    }
     if(isEmpty()) {
       return null;
     }
-    NavigableMap<byte[], NavigableMap<byte[], byte[]>> returnMap =
-      new TreeMap<byte[], NavigableMap<byte[], byte[]>>(Bytes.BYTES_COMPARATOR);
-    for(Map.Entry<byte[], NavigableMap<byte[], NavigableMap<Long, byte[]>>>
-      familyEntry : familyMap.entrySet()) {
-      NavigableMap<byte[], byte[]> qualifierMap =
-        new TreeMap<byte[], byte[]>(Bytes.BYTES_COMPARATOR);
-      for(Map.Entry<byte[], NavigableMap<Long, byte[]>> qualifierEntry :
-        familyEntry.getValue().entrySet()) {
-        byte [] value =
-          qualifierEntry.getValue().get(qualifierEntry.getValue().firstKey());
-        qualifierMap.put(qualifierEntry.getKey(), value);
-      }
-      returnMap.put(familyEntry.getKey(), qualifierMap);
-    }
-    return returnMap;
+    return CellGroupMap.group(this.cells, 0, this.cells.length, Grouping.FAMILY, LATEST_VALUES);
   }
 
   /**
    * Map of qualifiers to values.
    * <p>
    * Returns a Map of the form: <code>Map&lt;qualifier,value></code>
+   * <p>
+   * The map is a read-only view of the cells of this result, which copies
+   * values only when they are asked for.
    * @param family column family to get
    * @return map of qualifiers to values
    */
   public NavigableMap<byte[], byte[]> getFamilyMap(byte [] family) {
-    if(this.familyMap == null) {
-      getMap();
-    }
     if(isEmpty()) {
       return null;
     }
-    NavigableMap<byte[], byte[]> returnMap =
-      new TreeMap<byte[], byte[]>(Bytes.BYTES_COMPARATOR);
-    NavigableMap<byte[], NavigableMap<Long, byte[]>> qualifierMap =
-      familyMap.get(family);
-    if(qualifierMap == null) {
-      return returnMap;
-    }
-    for(Map.Entry<byte[], NavigableMap<Long, byte[]>> entry :
-      qualifierMap.entrySet()) {
-      byte [] value =
-        entry.getValue().get(entry.getValue().firstKey());
-      returnMap.put(entry.getKey(), value);
+    if (family == null) {
+      family = HConstants.EMPTY_BYTE_ARRAY;
     }
-    return returnMap;
+    int from = CellGroupMap.bound(this.cells, 0, this.cells.length, family, Grouping.FAMILY, true);
+    int to = CellGroupMap.bound(this.cells, from, this.cells.length, family, Grouping.FAMILY, false);
+    return CellGroupMap.group(this.cells, from, to, Grouping.QUALIFIER, LATEST_VALUE);
   }
 
   /**
@@ -835,6 +987,23 @@ public class ResultWrapper implements CellScannable, CellScanner {
     return ++cellScannerIndex < this.cells.length;
   }
 
+  /**
+   * Writes the cells with the compact encoding of {@link ResultWrapperCodec},
+   * rather than the default serialization, when crossing queues and object stores.
+   */
+  @Override
+  public void writeExternal(ObjectOutput out) throws IOException {
+    ResultWrapperCodec.write(this, out);
+  }
+
+  @Override
+  public void readExternal(ObjectInput in) throws IOException {
+    ResultWrapper other = ResultWrapperCodec.read(in);
+    copyFrom(other);
+    this.exists = other.exists;
+    this.cellScannerIndex = INITIAL_CELLSCANNER_INDEX;
+  }
+
   public Boolean getExists() {
     return exists;
   }
@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.wrapper.hbase;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Compact binary encoding of a {@link ResultWrapper}, used when it is
+ * serialized to cross queues and object stores. Cells are written with
+ * variable length prefixes, and the row and the family of a cell are written
+ * only when they differ from those of the previous cell, so that a row is
+ * written once and each family once per row. Values are written straight from
+ * the backing arrays of the cells.
+ * <p>
+ * The encoding is:
+ * <pre>
+ * version      byte
+ * exists       byte: 0 null, 1 false, 2 true
+ * cell count   vint, -1 when there is no cells array
+ * per cell:
+ *   flags      byte: SAME_ROW, SAME_FAMILY
+ *   row        vint length + bytes, unless SAME_ROW
+ *   family     vint length + bytes, unless SAME_FAMILY
+ *   qualifier  vint length + bytes
+ *   timestamp  vlong
+ *   type       byte
+ *   value      vint length + bytes
+ * </pre>
+ * Cell tags are not carried, since they are server side only.
+ */
+final class ResultWrapperCodec {
+
+  private static final byte VERSION = 1;
+  private static final int SAME_ROW = 1;
+  private static final int SAME_FAMILY = 2;
+
+  private ResultWrapperCodec() {
+  }
+
+  static void write(ResultWrapper result, DataOutput out) throws IOException {
+    out.writeByte(VERSION);
+    Boolean exists = result.getExists();
+    out.writeByte(exists == null ? 0 : exists ? 2 : 1);
+    Cell[] cells = result.rawCells();
+    if (cells == null) {
+      WritableUtils.writeVInt(out, -1);
+      return;
+    }
+    WritableUtils.writeVInt(out, cells.length);
+    Cell previous = null;
+    for (Cell cell : cells) {
+      boolean sameRow = previous != null && CellUtil.matchingRow(previous, cell);
+      boolean sameFamily = sameRow && CellUtil.matchingFamily(previous, cell);
+      out.writeByte((sameRow ? SAME_ROW : 0) | (sameFamily ? SAME_FAMILY : 0));
+      if (!sameRow) {
+        writeBytes(out, cell.getRowArray(), cell.getRowOffset(), cell.getRowLength());
+      }
+      if (!sameFamily) {
+        writeBytes(out, cell.getFamilyArray(), cell.getFamilyOffset(), cell.getFamilyLength());
+      }
+      writeBytes(out, cell.getQualifierArray(), cell.getQualifierOffset(), cell.getQualifierLength());
+      WritableUtils.writeVLong(out, cell.getTimestamp());
+      out.writeByte(cell.getTypeByte());
+      writeBytes(out, cell.getValueArray(), cell.getValueOffset(), cell.getValueLength());
+      previous = cell;
+    }
+  }
+
+  static ResultWrapper read(DataInput in) throws IOException {
+    byte version = in.readByte();
+    if (version != VERSION) {
+      throw new IOException("Unknown encoding version " + version + " of a ResultWrapper");
+    }
+    byte exists = in.readByte();
+    int count = WritableUtils.readVInt(in);
+    Cell[] cells = count < 0 ? null : new Cell[count];
+    byte[] row = null;
+    byte[] family = null;
+    for (int i = 0; i < count; i++) {
+      int flags = in.readByte();
+      if ((flags & SAME_ROW) == 0) {
+        row = readBytes(in);
+      }
+      if ((flags & SAME_FAMILY) == 0) {
+        family = readBytes(in);
+      }
+      byte[] qualifier = readBytes(in);
+      long timestamp = WritableUtils.readVLong(in);
+      KeyValue.Type type = KeyValue.Type.codeToType(in.readByte());
+      cells[i] = new KeyValue(row, family, qualifier, timestamp, type, readBytes(in));
+    }
+    ResultWrapper result = ResultWrapper.create(cells);
+    result.setExists(exists == 0 ? null : exists == 2);
+    return result;
+  }
+
+  private static void writeBytes(DataOutput out, byte[] array, int offset, int length) throws IOException {
+    WritableUtils.writeVInt(out, length);
+    out.write(array, offset, length);
+  }
+
+  private static byte[] readBytes(DataInput in) throws IOException {
+    byte[] bytes = new byte[WritableUtils.readVInt(in)];
+    in.readFully(bytes);
+    return bytes;
+  }
+}
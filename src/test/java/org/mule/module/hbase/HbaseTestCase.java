@@ -12,24 +12,48 @@
 
 package org.mule.module.hbase;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.AdditionalMatchers.geq;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.argThat;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 import org.apache.hadoop.hbase.client.Result;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentMatcher;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.mule.api.callback.SourceCallback;
+import org.mule.module.hbase.api.BatchPutResult;
 import org.mule.module.hbase.api.BloomFilterType;
 import org.mule.module.hbase.api.CompressionType;
 import org.mule.module.hbase.api.HBaseService;
+import org.mule.module.hbase.api.ScanOptions;
 import org.mule.wrapper.hbase.ResultWrapper;
 
 public class HbaseTestCase
@@ -63,6 +87,24 @@ public class HbaseTestCase
         verify(facade).alive();
     }
 
+    @Test
+    public void testLifecycle() throws Exception
+    {
+        connector.initialiseConnector();
+        verify(facade).initialise();
+
+        connector.disposeConnector();
+        verify(facade).dispose();
+    }
+
+    @Test
+    public void testWarmup() throws Exception
+    {
+        connector.setWarmupTables(Arrays.asList(TABLE_NAME, "another-table"));
+        connector.initialiseConnector();
+        verify(facade).warmUp(eq(Arrays.asList(TABLE_NAME, "another-table")));
+    }
+
     @Test
     public void testTableAdmin()
     {
@@ -102,9 +144,10 @@ public class HbaseTestCase
         verify(facade).delete(eq(TABLE_NAME), eq(SOME_ROW_KEY), eq("family"), eq("qualifier"), eq(123L),
             eq(false));
 
-        connector.scanTable(TABLE_NAME, "family", "qualifier", 123L, 456L, 2, true, 2, "row20", "row30", 50);
+        connector.scanTable(TABLE_NAME, "family", "qualifier", 123L, 456L, 2, true, 2, "row20", "row30", null, 50,
+            0, 1024L, 1, true, false, null, 1000, 0L, false, 4194304L, false, false, 0);
         verify(facade).scan(eq(TABLE_NAME), eq("family"), eq("qualifier"), eq(123L), eq(456L), eq(2), eq(true),
-            eq(2), eq("row20"), eq("row30"), eq(50));
+            eq(2), eq("row20"), eq("row30"), eq(50), any(ScanOptions.class));
 
         connector.incrementValue(TABLE_NAME, SOME_ROW_KEY, "f1", "q", 3L, true);
         verify(facade).increment(eq(TABLE_NAME), eq(SOME_ROW_KEY), eq("f1"), eq("q"), eq(3L), eq(true));
@@ -134,4 +177,251 @@ public class HbaseTestCase
         verify(facade).put(eq(TABLE_NAME), eq(SOME_ROW_KEY), eq(COLUMN_NAME), eq("q"), eq(123L), eq("value"),
             eq(true));
     }
+
+    @Test
+    public void testGetValuesBatch()
+    {
+        List<String> rowKeys = Arrays.asList("r1", "r2");
+        List<ResultWrapper> results = Arrays.asList(new ResultWrapper(), new ResultWrapper());
+        when(facade.getBatch(eq(TABLE_NAME), eq(rowKeys), eq(COLUMN_NAME), eq(COLUMN_QUALIFIER), eq(2), eq(123L), eq(10)))
+            .thenReturn(results);
+
+        assertSame(results, connector.getValuesBatch(TABLE_NAME, rowKeys, COLUMN_NAME, COLUMN_QUALIFIER, 2, 123L, 10));
+    }
+
+    @Test
+    public void testFilters()
+    {
+        final String filter = "PrefixFilter ('row2') AND ValueFilter (=, 'binary:v')";
+        connector.getValues(TABLE_NAME, SOME_ROW_KEY, COLUMN_NAME, null, null, null, filter);
+        verify(facade).get(eq(TABLE_NAME), eq(SOME_ROW_KEY), eq(COLUMN_NAME), eq((String) null),
+            eq((Integer) null), eq((Long) null), eq(filter));
+
+        connector.scanTable(TABLE_NAME, null, null, null, null, null, true, 1, null, null, filter, 50, 0, 1024L,
+            1, true, false, null, 1000, 0L, false, 4194304L, false, false, 0);
+        verify(facade).scan(eq(TABLE_NAME), eq((String) null), eq((String) null), eq((Long) null),
+            eq((Long) null), eq((Integer) null), eq(true), eq(1), eq((String) null), eq((String) null), eq(50),
+            argThat(new ArgumentMatcher<ScanOptions>()
+            {
+                @Override
+                public boolean matches(Object options)
+                {
+                    return filter.equals(((ScanOptions) options).getFilter());
+                }
+            }));
+    }
+
+    @Test
+    public void testCheckpointedScan()
+    {
+        Iterable<Result> rows = connector.scanTable(TABLE_NAME, null, null, null, null, null, true, 1, null, null,
+            null, 50, 0, 1024L, 1, true, false, "export", 500, 60000L, false, 4194304L, false, false,
+            0);
+        assertTrue(rows instanceof ScanMessageSequence);
+        verify(facade).scan(eq(TABLE_NAME), eq((String) null), eq((String) null), eq((Long) null),
+            eq((Long) null), eq((Integer) null), eq(true), eq(1), eq((String) null), eq((String) null), eq(50),
+            argThat(new ArgumentMatcher<ScanOptions>()
+            {
+                @Override
+                public boolean matches(Object argument)
+                {
+                    ScanOptions options = (ScanOptions) argument;
+                    return "export".equals(options.getCheckpointId()) && options.getCheckpointInterval() == 500
+                           && options.getCheckpointSliceMillis() == 60000L;
+                }
+            }));
+    }
+
+    @Test
+    public void testPollChanges() throws Exception
+    {
+        Result r1 = new Result();
+        Result r2 = new Result();
+        Result r3 = new Result();
+        when(facade.getWatermark("orders")).thenReturn(10000L);
+        when(
+            facade.scan(eq(TABLE_NAME), eq("f"), eq((String) null), eq(9000L), anyLong(), eq((Integer) null),
+                eq(false), eq(1), eq((String) null), eq((String) null), eq(2), any(ScanOptions.class))).thenReturn(
+            Arrays.asList(r1, r2, r3));
+        SourceCallback callback = mock(SourceCallback.class);
+
+        assertEquals(3, connector.pollChangesOnce(TABLE_NAME, "orders", "f", null, null, 2, 1000L, null, callback));
+        verify(callback).process(Arrays.asList(r1, r2));
+        verify(callback).process(Arrays.asList(r3));
+        verify(facade).setWatermark(eq("orders"), anyLong());
+    }
+
+    @Test
+    public void testPollChangesKeepsTheWatermarkOnFailure() throws Exception
+    {
+        when(
+            facade.scan(eq(TABLE_NAME), eq((String) null), eq((String) null), eq(0L), anyLong(),
+                eq((Integer) null), eq(false), eq(1), eq((String) null), eq((String) null), eq(100),
+                any(ScanOptions.class))).thenReturn(Arrays.asList(new Result()));
+        SourceCallback callback = mock(SourceCallback.class);
+        doThrow(new IllegalStateException()).when(callback).process(any());
+
+        try
+        {
+            connector.pollChangesOnce(TABLE_NAME, "orders", null, null, null, 100, 0L, 0L, callback);
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+        verify(facade, never()).setWatermark(eq("orders"), anyLong());
+    }
+
+    @Test
+    public void testPollChangesSendsEachBatchAsItIsRead() throws Exception
+    {
+        final ScanRows rows = new ScanRows();
+        rows.addAll(Arrays.asList(new Result(), new Result(), new Result()));
+        when(
+            facade.scan(eq(TABLE_NAME), eq((String) null), eq((String) null), eq(0L), anyLong(),
+                eq((Integer) null), eq(false), eq(1), eq((String) null), eq((String) null), eq(2),
+                any(ScanOptions.class))).thenReturn(rows);
+        final List<Integer> readBeforeProcessing = new ArrayList<Integer>();
+        SourceCallback callback = mock(SourceCallback.class);
+        when(callback.process(any())).thenAnswer(new Answer<Object>()
+        {
+            public Object answer(InvocationOnMock invocation)
+            {
+                // a poll holds a single batch, however many rows changed
+                readBeforeProcessing.add(rows.read);
+                return null;
+            }
+        });
+
+        assertEquals(3, connector.pollChangesOnce(TABLE_NAME, "orders", null, null, null, 2, 0L, 0L, callback));
+        assertEquals(Arrays.asList(2, 3), readBeforeProcessing);
+        assertTrue(rows.closed);
+        verify(facade).setWatermark(eq("orders"), anyLong());
+    }
+
+    @Test
+    public void testFirstPollOnlyRecordsTheCurrentTime() throws Exception
+    {
+        SourceCallback callback = mock(SourceCallback.class);
+        long before = System.currentTimeMillis();
+        assertEquals(0, connector.pollChangesOnce(TABLE_NAME, "orders", null, null, null, 2, 0L, null, callback));
+        verify(facade, never()).scan(anyString(), anyString(), anyString(), anyLong(), anyLong(), anyInt(),
+            anyBoolean(), anyInt(), anyString(), anyString(), anyInt(), any(ScanOptions.class));
+        verify(callback, never()).process(any());
+        verify(facade).setWatermark(eq("orders"), geq(before));
+    }
+
+    @Test
+    public void testSampleTable()
+    {
+        when(
+            facade.scan(eq(TABLE_NAME), eq("f"), eq((String) null), eq((Long) null), eq((Long) null),
+                eq((Integer) null), eq(false), eq(1), eq((String) null), eq((String) null), eq(500),
+                argThat(new ArgumentMatcher<ScanOptions>()
+                {
+                    @Override
+                    public boolean matches(Object options)
+                    {
+                        return ((ScanOptions) options).getSamplingRate() == 0.25f;
+                    }
+                }))).thenReturn(Arrays.asList(new Result(), new Result()));
+
+        ScanSample sample = connector.sampleTable(TABLE_NAME, 0.25f, "f", null, null, null, null, 500);
+        assertEquals(0.25f, sample.getSamplingRate(), 0);
+        assertEquals(8, sample.estimateRowCount(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSampleTableRejectsRatesAboveOne()
+    {
+        connector.sampleTable(TABLE_NAME, 1.5f, "f", null, null, null, null, 500);
+    }
+
+    @Test
+    public void testCountRows()
+    {
+        when(facade.countRows(TABLE_NAME, "row1", null, null, 4, 1000)).thenReturn(42L);
+        assertEquals(42L, connector.countRows(TABLE_NAME, "row1", null, null, 4, 1000));
+    }
+
+    @Test
+    public void testFlushTable()
+    {
+        connector.flushTable(TABLE_NAME);
+        verify(facade).flushCommits(eq(TABLE_NAME));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAsyncOperations() throws Exception
+    {
+        Future<ResultWrapper> future = mock(Future.class);
+        ResultWrapper result = new ResultWrapper();
+        when(future.get()).thenReturn(result);
+        when(facade.getAsync(TABLE_NAME, SOME_ROW_KEY, null, null, null, null)).thenReturn(future);
+
+        Object pending = connector.getValuesAsync(TABLE_NAME, SOME_ROW_KEY, null, null, null, null);
+        assertSame(future, pending);
+        assertSame(result, connector.awaitResults(pending, null));
+        assertEquals(Arrays.asList(result, "plain"), connector.awaitResults(Arrays.asList(pending, "plain"), null));
+
+        connector.incrementValueAsync(TABLE_NAME, SOME_ROW_KEY, COLUMN_NAME, COLUMN_QUALIFIER, 5L, true);
+        verify(facade).incrementAsync(TABLE_NAME, SOME_ROW_KEY, COLUMN_NAME, COLUMN_QUALIFIER, 5L, true);
+
+        connector.scanPageAsync(TABLE_NAME, COLUMN_NAME, null, "r1", null, 10);
+        verify(facade).scanPageAsync(TABLE_NAME, COLUMN_NAME, null, "r1", null, 10);
+    }
+
+    @Test
+    public void testPutValues()
+    {
+        Map<String, Object> record = new HashMap<String, Object>();
+        record.put("rowKey", SOME_ROW_KEY);
+        record.put("columnFamilyName", COLUMN_NAME);
+        record.put("columnQualifier", "q");
+        record.put("value", "value");
+        List<Map<String, Object>> records = Collections.singletonList(record);
+        BatchPutResult result = new BatchPutResult(1);
+        when(facade.putBatch(eq(TABLE_NAME), eq(records), eq(true), eq(50))).thenReturn(result);
+
+        assertSame(result, connector.putValues(TABLE_NAME, records, true, 50));
+        verify(facade).putBatch(eq(TABLE_NAME), eq(records), eq(true), eq(50));
+    }
+
+    /** Rows of a scan, recording whether their scanner was released */
+    @SuppressWarnings("serial")
+    private static class ScanRows extends ArrayList<Result> implements Closeable
+    {
+        private boolean closed;
+        private int read;
+
+        @Override
+        public Iterator<Result> iterator()
+        {
+            final Iterator<Result> rows = super.iterator();
+            return new Iterator<Result>()
+            {
+                public boolean hasNext()
+                {
+                    return rows.hasNext();
+                }
+
+                public Result next()
+                {
+                    read++;
+                    return rows.next();
+                }
+
+                public void remove()
+                {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        public void close()
+        {
+            closed = true;
+        }
+    }
 }
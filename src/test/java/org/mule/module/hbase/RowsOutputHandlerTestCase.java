@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.mule.module.hbase.RowsOutputHandler.Format;
+import org.mule.module.hbase.api.ColumnDecoding;
+import org.mule.wrapper.hbase.ResultWrapper;
+
+/**
+ * Test for {@link RowsOutputHandler}
+ */
+public class RowsOutputHandlerTestCase
+{
+    private final List<Object> rows = Arrays.<Object> asList(
+        Result.create(new Cell[]{cell("r\"1\u0001", "n", Bytes.toBytes(42L)),
+            cell("r\"1\u0001", "n", Bytes.toBytes(41L)), cell("r\"1\u0001", "s", Bytes.toBytes("a,\"b\"\n")),
+            cell("r\"1\u0001", "x", new byte[]{0, (byte) 0xff, '\\'})}),
+        ResultWrapper.create(new Cell[]{cell("r2", "s", Bytes.toBytes("plain"))}), new Result());
+
+    @Test
+    public void testWritesTheLatestVersionOfEachColumnAsJsonLines() throws IOException
+    {
+        Map<String, String> decodings = new HashMap<String, String>();
+        decodings.put("f:n", "long");
+        decodings.put("f:x", "binary");
+        assertEquals("{\"rowKey\":\"r\\\"1\\\\x01\",\"f:n\":42,\"f:s\":\"a,\\\"b\\\"\\u000A\","
+                     + "\"f:x\":\"\\\\x00\\\\xFF\\\\x5C\"}\n" + "{\"rowKey\":\"r2\",\"f:s\":\"plain\"}\n",
+            write(new RowsOutputHandler(rows, Format.JSON_LINES, null, ColumnDecoding.STRING, decodings)));
+    }
+
+    @Test
+    public void testWritesTheColumnsOfTheFirstRowAsCsv() throws IOException
+    {
+        assertEquals("rowKey,f:n,f:s,f:x\r\n" + "\"r\"\"1\\x01\",42,\"a,\"\"b\"\"\\x0A\",\\x00\\xFF\\x5C\r\n"
+                     + "r2,,plain,\r\n",
+            write(new RowsOutputHandler(rows, Format.CSV, null, ColumnDecoding.BINARY,
+                Collections.singletonMap("f:n", "LONG"))));
+    }
+
+    @Test
+    public void testWritesTheGivenColumns() throws IOException
+    {
+        assertEquals("rowKey,f:x,f:s\r\n" + "\"r\"\"1\\x01\",AP9c,YSwiYiIK\r\n" + "r2,,cGxhaW4=\r\n",
+            write(new RowsOutputHandler(rows, Format.CSV, Arrays.asList("f:x", "f:s"), ColumnDecoding.BASE64,
+                null)));
+    }
+
+    @Test
+    public void testWritesValuesLargerThanTheBuffer() throws IOException
+    {
+        String value = StringUtils.repeat("z", RowsOutputHandler.BUFFER_SIZE * 2 + 1);
+        assertEquals("{\"rowKey\":\"k\",\"f:s\":\"" + value + "\"}\n",
+            write(new RowsOutputHandler(ResultWrapper.create(new Cell[]{cell("k", "s", Bytes.toBytes(value))}),
+                Format.JSON_LINES, null, ColumnDecoding.STRING, null)));
+    }
+
+    @Test
+    public void testEscapesBytesThatAreNotUtf8InTextualValuesAndColumnNames() throws IOException
+    {
+        ResultWrapper row = ResultWrapper.create(new Cell[]{new KeyValue(Bytes.toBytes("k"), Bytes.toBytes("f"),
+            new byte[]{'q', (byte) 0xfe}, new byte[]{'a', (byte) 0xc3, (byte) 0xa9, (byte) 0xff, (byte) 0xe2,
+                (byte) 0x82})});
+        assertEquals("{\"rowKey\":\"k\",\"f:q\\\\xFE\":\"a\u00e9\\\\xFF\\\\xE2\\\\x82\"}\n",
+            write(new RowsOutputHandler(row, Format.JSON_LINES, null, ColumnDecoding.STRING, null)));
+        assertEquals("rowKey,f:q\\xFE\r\n" + "k,a\u00e9\\xFF\\xE2\\x82\r\n",
+            write(new RowsOutputHandler(row, Format.CSV, null, ColumnDecoding.STRING, null)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsOtherPayloads()
+    {
+        new RowsOutputHandler("row", Format.CSV, null, ColumnDecoding.STRING, null);
+    }
+
+    private static String write(RowsOutputHandler handler) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        handler.write(null, out);
+        return out.toString("UTF-8");
+    }
+
+    private static Cell cell(String row, String qualifier, byte[] value)
+    {
+        return new KeyValue(Bytes.toBytes(row), Bytes.toBytes("f"), Bytes.toBytes(qualifier), value);
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.apache.hadoop.hbase.client.Result;
+import org.junit.Test;
+import org.mule.routing.MessageSequence;
+
+public class ScanMessageSequenceTestCase
+{
+    private final Result first = new Result();
+    private final Result second = new Result();
+
+    @Test
+    public void testStreamsRowsWithoutKnowingTheirSize()
+    {
+        ScanMessageSequence sequence = new ScanMessageSequence(Arrays.asList(first, second));
+        assertEquals(MessageSequence.UNKNOWN_SIZE, sequence.size());
+        assertFalse(sequence instanceof Collection);
+        assertFalse(sequence.isEmpty());
+        assertSame(first, sequence.next());
+        assertSame(second, sequence.next());
+        assertFalse(sequence.hasNext());
+    }
+
+    @Test
+    public void testEmptyScan()
+    {
+        assertTrue(new ScanMessageSequence(Collections.<Result> emptyList()).isEmpty());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCanBeIteratedOnlyOnce()
+    {
+        ScanMessageSequence sequence = new ScanMessageSequence(Arrays.asList(first, second));
+        for (@SuppressWarnings("unused")
+        Result result : sequence)
+        {
+        }
+        sequence.iterator();
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase.api.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for {@link CheckpointedIterable} and {@link FileCheckpointStore}
+ */
+public class CheckpointedIterableUnitTest
+{
+    private File directory;
+    private FileCheckpointStore store;
+    private final AtomicLong saves = new AtomicLong();
+    private final List<Result> rows = new ArrayList<Result>();
+
+    @Before
+    public void before() throws Exception
+    {
+        directory = File.createTempFile("checkpoints", "");
+        directory.delete();
+        store = new FileCheckpointStore(directory);
+        for (String row : new String[]{"r1", "r2", "r3", "r4", "r5"})
+        {
+            rows.add(Result.create(new Cell[]{new KeyValue(Bytes.toBytes(row), Bytes.toBytes("f"),
+                Bytes.toBytes("q"), Bytes.toBytes("v"))}));
+        }
+    }
+
+    @After
+    public void after() throws Exception
+    {
+        store.clear("export");
+        directory.delete();
+    }
+
+    @Test
+    public void testSavesTheLastProcessedRow() throws Exception
+    {
+        Iterator<Result> iterator = new CheckpointedIterable(rows, store, "export", 2, 0, saves).iterator();
+        iterator.next();
+        iterator.next();
+        assertNull("the second row is still being processed", store.load("export"));
+        iterator.next();
+        assertArrayEquals(Bytes.toBytes("r2"), store.load("export"));
+        assertEquals(1, saves.get());
+    }
+
+    @Test
+    public void testClearsTheCheckpointWhenExhausted() throws Exception
+    {
+        store.save("export", Bytes.toBytes("r0"));
+        CheckpointedIterable results = new CheckpointedIterable(rows, store, "export", 2, 0, saves);
+        Iterator<Result> iterator = results.iterator();
+        while (iterator.hasNext())
+        {
+            assertFalse(results.isCompleted());
+            iterator.next();
+        }
+        assertNull(store.load("export"));
+        assertTrue(results.isCompleted());
+    }
+
+    @Test
+    public void testEndsTheSliceSavingTheCheckpoint() throws Exception
+    {
+        CheckpointedIterable results = new CheckpointedIterable(rows, store, "export", 1000, 200, saves);
+        Iterator<Result> iterator = results.iterator();
+        iterator.next();
+        Thread.sleep(300);
+        assertFalse(iterator.hasNext());
+        assertArrayEquals(Bytes.toBytes("r1"), store.load("export"));
+        assertFalse(results.isCompleted());
+    }
+
+    @Test
+    public void testStoresBinaryKeys() throws Exception
+    {
+        byte[] key = {0, 'a', (byte) 0xff, '\n'};
+        store.save("weird/id", key);
+        assertTrue(directory.isDirectory());
+        assertArrayEquals(key, store.load("weird/id"));
+        store.clear("weird/id");
+        assertNull(store.load("weird/id"));
+    }
+}
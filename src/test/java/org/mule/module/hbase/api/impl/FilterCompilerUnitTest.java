@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase.api.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.PrefixFilter;
+import org.junit.Test;
+import org.mule.module.hbase.api.HBaseServiceException;
+
+/**
+ * Test for {@link FilterCompiler}
+ */
+public class FilterCompilerUnitTest
+{
+    private final FilterCompiler compiler = new FilterCompiler(2);
+
+    @Test
+    public void testCompilesSingleFilters()
+    {
+        assertTrue(compiler.compile("PrefixFilter ('row')") instanceof PrefixFilter);
+    }
+
+    @Test
+    public void testCompilesFilterLists()
+    {
+        Filter filter = compiler.compile("PrefixFilter ('row') AND "
+                                         + "(ColumnPrefixFilter ('temp') OR ValueFilter (=, 'binary:v'))");
+        assertTrue(filter instanceof FilterList);
+        assertEquals(FilterList.Operator.MUST_PASS_ALL, ((FilterList) filter).getOperator());
+    }
+
+    @Test
+    public void testCachesCompiledFilters()
+    {
+        Filter filter = compiler.compile("PrefixFilter ('row')");
+        assertSame(filter, compiler.compile("PrefixFilter ('row')"));
+        assertEquals(1L, compiler.getStatistics().get("filters.compilations"));
+    }
+
+    @Test
+    public void testBoundsTheCache()
+    {
+        compiler.compile("PrefixFilter ('a')");
+        compiler.compile("PrefixFilter ('b')");
+        compiler.compile("PrefixFilter ('c')");
+        assertEquals(1, compiler.getStatistics().get("filters.cached"));
+    }
+
+    @Test(expected = HBaseServiceException.class)
+    public void testRejectsInvalidExpressions()
+    {
+        compiler.compile("NoSuchFilter ('a')");
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase.api.impl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.apache.hadoop.hbase.client.Result;
+import org.junit.Test;
+
+/**
+ * Test for {@link LimitedIterable}
+ */
+public class LimitedIterableUnitTest
+{
+    private final Result first = new Result();
+    private final Result second = new Result();
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testClosesTheScanOnceTheLimitIsAnswered() throws Exception
+    {
+        Iterator<Result> rows = mock(Iterator.class);
+        when(rows.hasNext()).thenReturn(true);
+        when(rows.next()).thenReturn(first, second);
+        ClosableResults results = mock(ClosableResults.class);
+        when(results.iterator()).thenReturn(rows);
+
+        Iterator<Result> iterator = new LimitedIterable(results, 2).iterator();
+        assertSame(first, iterator.next());
+        verify(results, never()).close();
+        assertSame(second, iterator.next());
+        verify(results).close();
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testAnswersFewerRowsThanTheLimit()
+    {
+        Iterator<Result> iterator = new LimitedIterable(Arrays.asList(first), 5).iterator();
+        assertSame(first, iterator.next());
+        assertFalse(iterator.hasNext());
+    }
+
+    private interface ClosableResults extends Iterable<Result>, Closeable
+    {
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase.api.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+/**
+ * Test for {@link PageSizer}
+ */
+public class PageSizerUnitTest
+{
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.SECONDS.toNanos(5);
+
+    @Test
+    public void testFixedPagesNeverChange()
+    {
+        PageSizer sizer = PageSizer.fixed(50);
+        sizer.pageFetched(rows(50, 100000), SLOW);
+        assertEquals(50, sizer.nextPageSize());
+    }
+
+    @Test
+    public void testGrowsForNarrowRows()
+    {
+        PageSizer sizer = new PageSizer(50, 10000, 1024 * 1024, 1000);
+        sizer.pageFetched(rows(50, 10), FAST);
+        assertEquals(100, sizer.nextPageSize());
+        sizer.pageFetched(rows(100, 10), FAST);
+        assertEquals(200, sizer.nextPageSize());
+    }
+
+    @Test
+    public void testShrinksForWideRows()
+    {
+        PageSizer sizer = new PageSizer(50, 10000, 1024 * 1024, 1000);
+        Result[] wide = rows(50, 100000);
+        sizer.pageFetched(wide, FAST);
+        assertEquals((int) (1024 * 1024 / (PageSizer.estimateBytes(wide) / 50.0)), sizer.nextPageSize());
+    }
+
+    @Test
+    public void testShrinksAtOnceWhenRowsGetWider()
+    {
+        PageSizer sizer = new PageSizer(50, 10000, 1024 * 1024, 1000);
+        sizer.pageFetched(rows(50, 10), FAST);
+        sizer.pageFetched(rows(100, 10), FAST);
+        Result[] wide = rows(200, 100000);
+        sizer.pageFetched(wide, FAST);
+        assertEquals((int) (1024 * 1024 / (PageSizer.estimateBytes(wide) / 200.0)), sizer.nextPageSize());
+
+        // pages grow back gradually when rows get narrower again
+        sizer.pageFetched(rows(10, 10), FAST);
+        assertEquals(20, sizer.nextPageSize());
+    }
+
+    @Test
+    public void testShrinksForSlowPages()
+    {
+        PageSizer sizer = new PageSizer(50, 10000, 1024 * 1024, 1000);
+        sizer.pageFetched(rows(50, 10), SLOW);
+        assertEquals(25, sizer.nextPageSize());
+    }
+
+    @Test
+    public void testRespectsTheBounds()
+    {
+        PageSizer sizer = new PageSizer(5000, 6000, 1024 * 1024, 1000);
+        sizer.pageFetched(rows(10, 10), FAST);
+        assertEquals(6000, sizer.nextPageSize());
+        sizer.pageFetched(rows(1, 4 * 1024 * 1024), FAST);
+        assertEquals(1, sizer.nextPageSize());
+    }
+
+    private static Result[] rows(int count, int valueBytes)
+    {
+        Result[] rows = new Result[count];
+        for (int i = 0; i < count; i++)
+        {
+            rows[i] = Result.create(new Cell[]{new KeyValue(Bytes.toBytes("row" + i), Bytes.toBytes("f"),
+                Bytes.toBytes("q"), new byte[valueBytes])});
+        }
+        return rows;
+    }
+}
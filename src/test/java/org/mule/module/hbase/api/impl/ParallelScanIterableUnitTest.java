@@ -0,0 +1,287 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase.api.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.commons.lang.UnhandledException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Test for {@link ParallelScanIterable}
+ */
+public class ParallelScanIterableUnitTest
+{
+    private final Result[] firstRegion = {new Result(), new Result(), new Result()};
+    private final Result[] secondRegion = {new Result()};
+    private HTableInterfaceFactory factory;
+    private HTableInterface table;
+    private ResultScanner firstScanner;
+    private ResultScanner secondScanner;
+    private List<Scan> partitions;
+    private ExecutorService executor;
+    private ScannerLeaseManager leases;
+
+    @Before
+    public void before() throws Exception
+    {
+        partitions = Arrays.asList(new Scan(Bytes.toBytes("a"), Bytes.toBytes("m")), new Scan(
+            Bytes.toBytes("m")));
+        firstScanner = mock(ResultScanner.class);
+        when(firstScanner.next(anyInt())).thenReturn(Arrays.copyOfRange(firstRegion, 0, 2),
+            Arrays.copyOfRange(firstRegion, 2, 3));
+        secondScanner = mock(ResultScanner.class);
+        when(secondScanner.next(anyInt())).thenReturn(secondRegion);
+
+        table = mock(HTableInterface.class);
+        when(table.getScanner(partitions.get(0))).thenReturn(firstScanner);
+        when(table.getScanner(partitions.get(1))).thenReturn(secondScanner);
+        factory = mock(HTableInterfaceFactory.class);
+        when(factory.createHTableInterface(any(Configuration.class), any(byte[].class))).thenReturn(table);
+        executor = Executors.newCachedThreadPool();
+        leases = new ScannerLeaseManager(60000);
+    }
+
+    @After
+    public void after()
+    {
+        executor.shutdownNow();
+        leases.close();
+    }
+
+    @Test
+    public void testOrderedScanAnswersRowsInPartitionOrder() throws Exception
+    {
+        List<Result> rows = scan(true);
+        assertEquals(Arrays.asList(firstRegion[0], firstRegion[1], firstRegion[2], secondRegion[0]), rows);
+        verify(firstScanner).close();
+        verify(secondScanner).close();
+    }
+
+    @Test
+    public void testUnorderedScanAnswersEveryRow() throws Exception
+    {
+        List<Result> rows = scan(false);
+        assertEquals(4, rows.size());
+        assertTrue(rows.containsAll(Arrays.asList(firstRegion)));
+        assertTrue(rows.contains(secondRegion[0]));
+    }
+
+    @Test(timeout = 10000)
+    public void testIdleConsumerGetsTheAbandonmentInsteadOfWaitingForever() throws Exception
+    {
+        when(secondScanner.next(anyInt())).thenReturn(new Result[]{new Result(), new Result()});
+        Iterator<Result> rows = new ParallelScanIterable(factory, new Configuration(false), Bytes.toBytes("t1"),
+            partitions, 2, 2, true, 1, 200, executor, leases).iterator();
+        rows.next();
+        Thread.sleep(600);
+        try
+        {
+            while (rows.hasNext())
+            {
+                rows.next();
+            }
+            fail();
+        }
+        catch (UnhandledException e)
+        {
+            assertTrue(e.getCause().getMessage().contains("abandoned"));
+        }
+        verify(secondScanner, timeout(2000)).close();
+    }
+
+    @Test(timeout = 10000)
+    public void testLaterPartitionsWaitForASlowConsumerOfAnEarlierOne() throws Exception
+    {
+        Result[] first = rows("a", "b", "c");
+        Result[] second = rows("m", "n", "o", "p", "q");
+        when(firstScanner.next(anyInt())).thenReturn(Arrays.copyOfRange(first, 0, 2),
+            Arrays.copyOfRange(first, 2, 3));
+        when(secondScanner.next(anyInt())).thenReturn(Arrays.copyOfRange(second, 0, 2),
+            Arrays.copyOfRange(second, 2, 4));
+        ResultScanner resumedScanner = mock(ResultScanner.class);
+        when(resumedScanner.next(anyInt())).thenReturn(Arrays.copyOfRange(second, 4, 5));
+        when(table.getScanner(any(Scan.class))).thenReturn(resumedScanner);
+        when(table.getScanner(partitions.get(0))).thenReturn(firstScanner);
+        when(table.getScanner(partitions.get(1))).thenReturn(secondScanner);
+
+        // the second partition waits for longer than abandonMillis, while the consumer reads the first one
+        List<Result> rows = new ArrayList<Result>();
+        for (Result result : new ParallelScanIterable(factory, new Configuration(false), Bytes.toBytes("t1"),
+            partitions, 2, 2, true, 1, 200, executor, leases))
+        {
+            rows.add(result);
+            Thread.sleep(80);
+        }
+        List<Result> expected = new ArrayList<Result>(Arrays.asList(first));
+        expected.addAll(Arrays.asList(second));
+        assertEquals(expected, rows);
+        verify(secondScanner).close();
+        ArgumentCaptor<Scan> scans = ArgumentCaptor.forClass(Scan.class);
+        verify(table, atLeast(3)).getScanner(scans.capture());
+        Scan resumed = scans.getAllValues().get(scans.getAllValues().size() - 1);
+        assertArrayEquals(Bytes.add(Bytes.toBytes("p"), new byte[1]), resumed.getStartRow());
+        verify(resumedScanner).close();
+    }
+
+    @Test
+    public void testAbandonedRunReleasesItsScanners() throws Exception
+    {
+        when(firstScanner.next(anyInt())).thenReturn(new Result[]{new Result(), new Result()});
+        Iterator<Result> rows = new ParallelScanIterable(factory, new Configuration(false), Bytes.toBytes("t1"),
+            partitions, 2, 2, true, 1, 200, executor, leases).iterator();
+        rows.next();
+        verify(firstScanner, timeout(2000)).close();
+        verify(secondScanner, timeout(2000)).close();
+    }
+
+    @Test(timeout = 10000)
+    public void testFailingPartitionStopsTheScanAtOnce() throws Exception
+    {
+        when(firstScanner.next(anyInt())).thenReturn(new Result[]{new Result(), new Result()});
+        when(secondScanner.next(anyInt())).thenThrow(new IOException("region server down"));
+        try
+        {
+            for (@SuppressWarnings("unused")
+            Result result : new ParallelScanIterable(factory, new Configuration(false), Bytes.toBytes("t1"),
+                partitions, 2, 2, true, 100, 60000, executor, leases))
+            {
+            }
+            fail();
+        }
+        catch (UnhandledException e)
+        {
+            assertEquals("region server down", e.getCause().getMessage());
+        }
+        verify(firstScanner, timeout(2000)).close();
+    }
+
+    @Test
+    public void testIteratingAgainDoesNotStopAnEarlierIteration() throws Exception
+    {
+        ParallelScanIterable results = new ParallelScanIterable(factory, new Configuration(false),
+            Bytes.toBytes("t1"), partitions, 2, 2, true, 2, 60000, executor, leases);
+        ResultScanner laterScanner = mock(ResultScanner.class);
+        when(laterScanner.next(anyInt())).thenReturn(Arrays.copyOfRange(firstRegion, 0, 2),
+            Arrays.copyOfRange(firstRegion, 2, 3));
+        when(table.getScanner(partitions.get(0))).thenReturn(firstScanner, laterScanner);
+        Iterator<Result> earlier = results.iterator();
+        earlier.next();
+        int later = 0;
+        for (Iterator<Result> rows = results.iterator(); rows.hasNext(); rows.next())
+        {
+            later++;
+        }
+        int rest = 0;
+        for (; earlier.hasNext(); earlier.next())
+        {
+            rest++;
+        }
+        assertEquals(4, later);
+        assertEquals(3, rest);
+    }
+
+    @Test(timeout = 10000)
+    public void testClosedScannerFailsTheScanInsteadOfEndingIt() throws Exception
+    {
+        when(firstScanner.next(anyInt())).thenReturn(new Result[]{new Result(), new Result()});
+        Iterator<Result> rows = new ParallelScanIterable(factory, new Configuration(false), Bytes.toBytes("t1"),
+            partitions, 2, 2, true, 1, 60000, executor, leases).iterator();
+        rows.next();
+        leases.close();
+        try
+        {
+            while (rows.hasNext())
+            {
+                rows.next();
+            }
+            fail();
+        }
+        catch (UnhandledException e)
+        {
+            assertTrue(e.getCause().getMessage().contains("DISPOSED"));
+        }
+    }
+
+    @Test
+    public void testScansEveryPartitionWithTheThreadsTheExecutorAccepts() throws Exception
+    {
+        executor.shutdownNow();
+        executor = new SharedBatchExecutor("scan", 0, 1, 0, 60000, SharedBatchExecutor.RejectionPolicy.ABORT);
+        assertEquals(Arrays.asList(firstRegion[0], firstRegion[1], firstRegion[2], secondRegion[0]), scan(true));
+    }
+
+    @Test
+    public void testFailsWhenTheExecutorAcceptsNoThread() throws Exception
+    {
+        executor.shutdownNow();
+        try
+        {
+            scan(true);
+            fail();
+        }
+        catch (UnhandledException e)
+        {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    private static Result[] rows(String... keys)
+    {
+        Result[] rows = new Result[keys.length];
+        for (int i = 0; i < keys.length; i++)
+        {
+            rows[i] = Result.create(new Cell[]{new KeyValue(Bytes.toBytes(keys[i]), Bytes.toBytes("f"),
+                Bytes.toBytes("q"), Bytes.toBytes("v"))});
+        }
+        return rows;
+    }
+
+    private List<Result> scan(boolean ordered)
+    {
+        List<Result> rows = new ArrayList<Result>();
+        for (Result result : new ParallelScanIterable(factory, new Configuration(false), Bytes.toBytes("t1"),
+            partitions, 2, 2, ordered, 2, 60000, executor, leases))
+        {
+            rows.add(result);
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,433 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase.api.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.commons.lang.UnhandledException;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HConnection;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.RandomRowFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.mule.module.hbase.api.BatchPutResult;
+import org.mule.module.hbase.api.ScanOptions;
+import org.mule.wrapper.hbase.ResultWrapper;
+
+/**
+ * Unit test for {@link RPCHBaseService}, over a mocked connection
+ */
+public class RPCHBaseServiceUnitTest
+{
+    private HConnection connection;
+    private HTableInterface table;
+    private RPCHBaseService service;
+
+    @Before
+    public void before() throws Exception
+    {
+        table = mock(HTableInterface.class);
+        connection = mock(HConnection.class);
+        when(connection.getTable(anyString(), any(ExecutorService.class))).thenReturn(table);
+        service = new RPCHBaseService()
+        {
+            @Override
+            HConnection createConnection()
+            {
+                return connection;
+            }
+        };
+    }
+
+    @After
+    public void after()
+    {
+        service.dispose();
+    }
+
+    @Test
+    public void testWrapsTheCellsOfAResultWithoutCopyingThem()
+    {
+        Cell[] cells = {new KeyValue(Bytes.toBytes("r"), Bytes.toBytes("f"), Bytes.toBytes("q"),
+            Bytes.toBytes("v"))};
+        ResultWrapper wrapper = RPCHBaseService.toResultWrapper(Result.create(cells));
+        assertSame(cells, wrapper.rawCells());
+        assertArrayEquals(Bytes.toBytes("v"), wrapper.getValue(Bytes.toBytes("f"), Bytes.toBytes("q")));
+    }
+
+    @Test
+    public void testWrapsMissingRows()
+    {
+        assertTrue(RPCHBaseService.toResultWrapper(new Result()).isEmpty());
+        assertTrue(RPCHBaseService.toResultWrapper(null).isEmpty());
+    }
+
+    @Test
+    public void testIteratingAgainDoesNotTruncateAnEarlierIteration() throws Exception
+    {
+        ResultScanner first = scanner(3);
+        ResultScanner second = scanner(3);
+        when(table.getScanner(any(Scan.class))).thenReturn(first, second);
+        Iterable<Result> results = scan();
+        Iterator<Result> earlier = results.iterator();
+        earlier.next();
+        assertEquals(3, count(results.iterator()));
+        assertEquals(2, count(earlier));
+    }
+
+    @Test
+    public void testReadingAReleasedScanFails() throws Exception
+    {
+        ResultScanner scanner = scanner(3);
+        when(table.getScanner(any(Scan.class))).thenReturn(scanner);
+        Iterable<Result> results = scan();
+        Iterator<Result> rows = results.iterator();
+        rows.next();
+        rows.next();
+        ((Closeable) results).close();
+        try
+        {
+            rows.hasNext();
+            fail();
+        }
+        catch (UnhandledException e)
+        {
+            assertTrue(e.getCause().getMessage().contains("RELEASED"));
+        }
+    }
+
+    @Test
+    public void testCountsRowsWithTheKeyOfTheirFirstCellOnly() throws Exception
+    {
+        when(connection.locateRegions(TableName.valueOf("t1"), false, false)).thenReturn(
+            Arrays.asList(new HRegionLocation(new HRegionInfo(TableName.valueOf("t1")), ServerName.valueOf(
+                "localhost", 60020, 1))));
+        ResultScanner scanner = mock(ResultScanner.class);
+        when(scanner.next(anyInt())).thenReturn(new Result[]{new Result(), new Result()}, new Result[0]);
+        when(table.getScanner(any(Scan.class))).thenReturn(scanner);
+
+        assertEquals(2, service.countRows("t1", null, null, null, 1, 100));
+        ArgumentCaptor<Scan> scan = ArgumentCaptor.forClass(Scan.class);
+        verify(table).getScanner(scan.capture());
+        FilterList filter = (FilterList) scan.getValue().getFilter();
+        assertEquals(FilterList.Operator.MUST_PASS_ALL, filter.getOperator());
+        assertEquals(2, filter.getFilters().size());
+        assertTrue(filter.getFilters().get(0) instanceof FirstKeyOnlyFilter);
+        assertTrue(filter.getFilters().get(1) instanceof KeyOnlyFilter);
+        assertFalse(scan.getValue().getCacheBlocks());
+    }
+
+    @Test
+    public void testSamplesRowsBeforeEvaluatingTheOtherFilters() throws Exception
+    {
+        when(table.getScanner(any(Scan.class))).thenReturn(scanner(1));
+        ScanOptions options = new ScanOptions();
+        options.setSamplingRate(0.1f);
+        options.setFilter("KeyOnlyFilter()");
+
+        assertEquals(1, count(service.scan("t1", null, null, null, null, null, true, 1, null, null, 2, options)
+            .iterator()));
+        ArgumentCaptor<Scan> scan = ArgumentCaptor.forClass(Scan.class);
+        verify(table).getScanner(scan.capture());
+        FilterList filter = (FilterList) scan.getValue().getFilter();
+        assertEquals(FilterList.Operator.MUST_PASS_ALL, filter.getOperator());
+        assertEquals(2, filter.getFilters().size());
+        assertEquals(0.1f, ((RandomRowFilter) filter.getFilters().get(0)).getChance(), 0);
+        assertTrue(filter.getFilters().get(1) instanceof KeyOnlyFilter);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsSamplingRatesAboveOne()
+    {
+        ScanOptions options = new ScanOptions();
+        options.setSamplingRate(1.5f);
+        service.scan("t1", null, null, null, null, null, true, 1, null, null, 2, options);
+    }
+
+    @Test
+    public void testPropertiesDoNotChangeUnderAnOpenConnection()
+    {
+        service.addProperties(Collections.singletonMap(RPCHBaseService.TABLE_POOL_MAX_SIZE, "4"));
+        service.initialise();
+        service.addProperties(Collections.singletonMap(RPCHBaseService.TABLE_POOL_MAX_SIZE, "4"));
+        try
+        {
+            service.addProperties(Collections.singletonMap(RPCHBaseService.TABLE_POOL_MAX_SIZE, "8"));
+            fail();
+        }
+        catch (IllegalStateException e)
+        {
+            assertEquals(4, service.getStatistics().get("tablePool.maxSize"));
+        }
+        service.dispose();
+        service.addProperties(Collections.singletonMap(RPCHBaseService.TABLE_POOL_MAX_SIZE, "8"));
+        service.initialise();
+        assertEquals(8, service.getStatistics().get("tablePool.maxSize"));
+    }
+
+    @Test(timeout = 10000)
+    public void testRefusedAsynchronousOperationsAnswerAFailedFuture() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        when(table.get(any(Get.class))).thenAnswer(new Answer<Result>()
+        {
+            public Result answer(InvocationOnMock invocation) throws Throwable
+            {
+                release.await();
+                return new Result();
+            }
+        });
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(RPCHBaseService.ASYNC_EXECUTOR_CORE_SIZE, "1");
+        properties.put(RPCHBaseService.ASYNC_EXECUTOR_MAX_SIZE, "1");
+        properties.put(RPCHBaseService.ASYNC_EXECUTOR_QUEUE_SIZE, "1");
+        service.addProperties(properties);
+
+        Future<ResultWrapper> running = service.getAsync("t1", "r1", null, null, null, null);
+        Future<ResultWrapper> queued = service.getAsync("t1", "r2", null, null, null, null);
+        Future<ResultWrapper> refused = service.getAsync("t1", "r3", null, null, null, null);
+        try
+        {
+            refused.get();
+            fail();
+        }
+        catch (ExecutionException e)
+        {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        release.countDown();
+        assertTrue(running.get().isEmpty());
+        assertTrue(queued.get().isEmpty());
+    }
+
+    @Test
+    public void testPutsRecordsInChunksAndReportsFailuresByTheirIndex() throws Exception
+    {
+        final List<List<String>> chunks = new ArrayList<List<String>>();
+        doAnswer(new Answer<Void>()
+        {
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                List<?> puts = (List<?>) invocation.getArguments()[0];
+                Object[] outcomes = (Object[]) invocation.getArguments()[1];
+                List<String> rows = new ArrayList<String>();
+                for (int i = 0; i < puts.size(); i++)
+                {
+                    rows.add(Bytes.toString(((Put) puts.get(i)).getRow()));
+                    outcomes[i] = new Result();
+                }
+                chunks.add(rows);
+                if (chunks.size() == 2)
+                {
+                    outcomes[1] = new IOException("region moved");
+                    throw new IOException("1 action failed");
+                }
+                return null;
+            }
+        }).when(table).batch(anyList(), any(Object[].class));
+        List<Map<String, Object>> records = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < 5; i++)
+        {
+            records.add(record("r" + i, i == 1 ? null : "v" + i));
+        }
+
+        BatchPutResult result = service.putBatch("t1", records, true, 2);
+        assertEquals(Arrays.asList(Arrays.asList("r0", "r2"), Arrays.asList("r3", "r4")), chunks);
+        assertEquals(5, result.getTotal());
+        assertEquals(3, result.getSucceeded());
+        assertEquals(2, result.getFailures().size());
+        assertEquals(1, result.getFailures().get(0).getIndex());
+        assertEquals("r1", result.getFailures().get(0).getRowKey());
+        assertTrue(result.getFailures().get(0).getError().contains("value is required"));
+        assertEquals(4, result.getFailures().get(1).getIndex());
+        assertEquals("r4", result.getFailures().get(1).getRowKey());
+        assertTrue(result.getFailures().get(1).getError().contains("region moved"));
+    }
+
+    @Test
+    public void testGetsRowsInChunksAndAnswersThemInInputOrder() throws Exception
+    {
+        final List<Integer> chunks = new ArrayList<Integer>();
+        when(table.get(anyList())).thenAnswer(new Answer<Result[]>()
+        {
+            public Result[] answer(InvocationOnMock invocation) throws Throwable
+            {
+                List<?> gets = (List<?>) invocation.getArguments()[0];
+                chunks.add(gets.size());
+                Result[] results = new Result[gets.size()];
+                for (int i = 0; i < results.length; i++)
+                {
+                    byte[] row = ((Get) gets.get(i)).getRow();
+                    results[i] = Bytes.toString(row).equals("missing") ? new Result() : Result.create(new Cell[]{
+                        new KeyValue(row, Bytes.toBytes("f"), Bytes.toBytes("q"), row)});
+                }
+                return results;
+            }
+        });
+
+        List<ResultWrapper> results = service.getBatch("t1", Arrays.asList("r3", "missing", "r1", "r2", "r0"), "f",
+            null, null, null, 2);
+        assertEquals(Arrays.asList(2, 2, 1), chunks);
+        assertEquals(5, results.size());
+        assertTrue(results.get(1).isEmpty());
+        List<String> values = new ArrayList<String>();
+        for (ResultWrapper result : results)
+        {
+            values.add(Bytes.toString(result.getValue(Bytes.toBytes("f"), Bytes.toBytes("q"))));
+        }
+        assertEquals(Arrays.asList("r3", null, "r1", "r2", "r0"), values);
+    }
+
+    @Test
+    public void testSmallReversedScanAsksForNoRowBeyondTheLimit() throws Exception
+    {
+        when(table.getScanner(any(Scan.class))).thenReturn(scanner(5));
+        ScanOptions options = new ScanOptions();
+        options.setSmall(true);
+        options.setReversed(true);
+        options.setLimit(3);
+
+        assertEquals(3, count(service.scan("t1", null, null, null, null, null, true, 1, null, null, 2, options)
+            .iterator()));
+        ArgumentCaptor<Scan> scan = ArgumentCaptor.forClass(Scan.class);
+        verify(table).getScanner(scan.capture());
+        assertTrue(scan.getValue().isSmall());
+        assertTrue(scan.getValue().isReversed());
+        assertEquals(3, scan.getValue().getCaching());
+    }
+
+    @Test
+    public void testLimitCapsTheCachingOfAdaptivePagesButNotAGivenOne() throws Exception
+    {
+        when(table.getScanner(any(Scan.class))).thenReturn(scanner(1), scanner(1));
+        ScanOptions options = new ScanOptions();
+        options.setAdaptivePaging(true);
+        options.setLimit(5);
+        count(service.scan("t1", null, null, null, null, null, true, 1, null, null, 2, options).iterator());
+        count(service.scan("t1", null, null, null, null, 100, true, 1, null, null, 2, options).iterator());
+
+        ArgumentCaptor<Scan> scan = ArgumentCaptor.forClass(Scan.class);
+        verify(table, times(2)).getScanner(scan.capture());
+        assertEquals(5, scan.getAllValues().get(0).getCaching());
+        assertEquals(100, scan.getAllValues().get(1).getCaching());
+    }
+
+    @Test
+    public void testLargeLimitDoesNotRaiseTheCachingOfAPlainScan() throws Exception
+    {
+        when(table.getScanner(any(Scan.class))).thenReturn(scanner(1));
+        ScanOptions options = new ScanOptions();
+        options.setLimit(100000);
+        count(service.scan("t1", null, null, null, null, null, true, 1, null, null, 2, options).iterator());
+
+        ArgumentCaptor<Scan> scan = ArgumentCaptor.forClass(Scan.class);
+        verify(table).getScanner(scan.capture());
+        assertEquals(2, scan.getValue().getCaching());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsReversedParallelScans()
+    {
+        ScanOptions options = new ScanOptions();
+        options.setReversed(true);
+        options.setParallelism(4);
+        service.scan("t1", null, null, null, null, null, true, 1, null, null, 2, options);
+    }
+
+    private Iterable<Result> scan()
+    {
+        return service.scan("t1", null, null, null, null, null, true, 1, null, null, 2, new ScanOptions());
+    }
+
+    private static Map<String, Object> record(String rowKey, Object value)
+    {
+        Map<String, Object> record = new HashMap<String, Object>();
+        record.put("rowKey", rowKey);
+        record.put("columnFamilyName", "f");
+        record.put("columnQualifier", "q");
+        record.put("value", value);
+        return record;
+    }
+
+    /** A scanner answering the given amount of rows, in pages of at most two rows */
+    private static ResultScanner scanner(int rows) throws IOException
+    {
+        ResultScanner scanner = mock(ResultScanner.class);
+        Result[][] pages = new Result[rows / 2 + 1][];
+        for (int i = 0; i < pages.length; i++)
+        {
+            pages[i] = new Result[Math.min(2, rows - i * 2)];
+            for (int j = 0; j < pages[i].length; j++)
+            {
+                pages[i][j] = new Result();
+            }
+        }
+        when(scanner.next(anyInt())).thenReturn(pages[0], Arrays.copyOfRange(pages, 1, pages.length));
+        return scanner;
+    }
+
+    private static int count(Iterator<Result> rows)
+    {
+        int count = 0;
+        while (rows.hasNext())
+        {
+            rows.next();
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase.api.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HConnection;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for {@link RegionLocationWarmer}
+ */
+public class RegionLocationWarmerUnitTest
+{
+    private final TableName tableName = TableName.valueOf("t1");
+    private HConnection connection;
+    private HTableInterface table;
+    private HTableInterfaceFactory factory;
+    private ExecutorService executor;
+
+    @Before
+    public void before() throws Exception
+    {
+        connection = mock(HConnection.class);
+        when(connection.locateRegions(tableName, false, false)).thenReturn(
+            Arrays.asList(location(null, "rs1"), location("m", "rs1"), location("t", "rs2")));
+        table = mock(HTableInterface.class);
+        factory = mock(HTableInterfaceFactory.class);
+        when(factory.createHTableInterface(any(Configuration.class), any(byte[].class))).thenReturn(table);
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void after()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testPingsOneRegionOfEachServer() throws Exception
+    {
+        RegionLocationWarmer warmer = new RegionLocationWarmer(connection, factory, new Configuration(false),
+            executor);
+        warmer.warmUp(Collections.singletonList("t1"));
+        verify(table, times(2)).exists(any(Get.class));
+        assertEquals(3, warmer.getStatistics().get("warmup.regions"));
+        assertEquals(2, warmer.getStatistics().get("warmup.servers"));
+        assertEquals(0, warmer.getStatistics().get("warmup.failures"));
+    }
+
+    @Test
+    public void testCountsTheRequestsRefusedByTheExecutorAsFailures() throws Exception
+    {
+        executor.shutdown();
+        RegionLocationWarmer warmer = new RegionLocationWarmer(connection, factory, new Configuration(false),
+            executor);
+        warmer.warmUp(Collections.singletonList("t1"));
+        assertEquals(0, warmer.getStatistics().get("warmup.servers"));
+        assertEquals(2, warmer.getStatistics().get("warmup.failures"));
+    }
+
+    private HRegionLocation location(String startKey, String server)
+    {
+        return new HRegionLocation(new HRegionInfo(tableName, startKey == null ? null : Bytes.toBytes(startKey),
+            null), ServerName.valueOf(server, 60020, 1));
+    }
+}
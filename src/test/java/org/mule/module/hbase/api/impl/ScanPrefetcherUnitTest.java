@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase.api.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.junit.Test;
+
+/**
+ * Test for {@link ScanPrefetcher}
+ */
+public class ScanPrefetcherUnitTest
+{
+    private final ResultScanner scanner = mock(ResultScanner.class);
+
+    @Test
+    public void testAnswersPagesInOrderUntilExhausted() throws Exception
+    {
+        Result[] first = page(2);
+        Result[] second = page(1);
+        when(scanner.next(2)).thenReturn(first, second);
+
+        ScanPrefetcher prefetcher = start(2);
+        assertArrayEquals(first, prefetcher.nextPage());
+        assertArrayEquals(second, prefetcher.nextPage());
+        assertEquals(0, prefetcher.nextPage().length);
+        verify(scanner, timeout(1000)).close();
+    }
+
+    @Test
+    public void testReportsFetchFailures() throws Exception
+    {
+        when(scanner.next(2)).thenThrow(new IOException("region server gone"));
+
+        ScanPrefetcher prefetcher = start(2);
+        try
+        {
+            prefetcher.nextPage();
+            fail();
+        }
+        catch (IOException e)
+        {
+            assertEquals("region server gone", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testClosingStopsFetching() throws Exception
+    {
+        when(scanner.next(2)).thenReturn(page(2));
+
+        ScanPrefetcher prefetcher = start(1);
+        prefetcher.nextPage();
+        prefetcher.close();
+        verify(scanner, timeout(1000)).close();
+    }
+
+    private ScanPrefetcher start(int maxPages)
+    {
+        ScanPrefetcher prefetcher = new ScanPrefetcher(scanner, 2, maxPages, Long.MAX_VALUE, 60000,
+            new AtomicLong());
+        Thread thread = new Thread(prefetcher);
+        thread.setDaemon(true);
+        thread.start();
+        return prefetcher;
+    }
+
+    private static Result[] page(int size)
+    {
+        Result[] results = new Result[size];
+        for (int i = 0; i < size; i++)
+        {
+            results[i] = new Result();
+        }
+        return results;
+    }
+}
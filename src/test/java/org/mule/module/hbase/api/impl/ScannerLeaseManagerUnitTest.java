@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase.api.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+/**
+ * Test for {@link ScannerLeaseManager}
+ */
+public class ScannerLeaseManagerUnitTest
+{
+    private final ScannerLeaseManager leases = new ScannerLeaseManager(60000);
+    private final HTableInterface table = mock(HTableInterface.class);
+    private final ResultScanner scanner = mock(ResultScanner.class);
+
+    @After
+    public void after()
+    {
+        leases.close();
+    }
+
+    @Test
+    public void testClosesScannerBeforeItsTable() throws Exception
+    {
+        ScannerLeaseManager.Lease lease = leases.open(table, scanner);
+        assertEquals(1, leases.getStatistics().get("scanners.open"));
+
+        lease.close(ScannerLeaseManager.Reason.EXHAUSTED);
+        InOrder order = inOrder(scanner, table);
+        order.verify(scanner).close();
+        order.verify(table).close();
+        assertEquals(0, leases.getStatistics().get("scanners.open"));
+        assertEquals(1L, leases.getStatistics().get("scanners.closed.exhausted"));
+    }
+
+    @Test
+    public void testClosesOnlyOnce() throws Exception
+    {
+        ScannerLeaseManager.Lease lease = leases.open(table, scanner);
+        lease.close(ScannerLeaseManager.Reason.RELEASED);
+        lease.close(ScannerLeaseManager.Reason.EXHAUSTED);
+        verify(scanner).close();
+        assertEquals(ScannerLeaseManager.Reason.RELEASED, lease.getClosedReason());
+    }
+
+    @Test
+    public void testExpiresIdleScanners() throws Exception
+    {
+        ScannerLeaseManager.Lease lease = leases.open(table, scanner);
+        leases.closeIdle(System.currentTimeMillis() + 1000);
+        verify(scanner, never()).close();
+        assertNull(lease.getClosedReason());
+
+        leases.closeIdle(System.currentTimeMillis() + 60000);
+        verify(scanner).close();
+        assertEquals(ScannerLeaseManager.Reason.EXPIRED, lease.getClosedReason());
+        assertEquals(1L, leases.getStatistics().get("scanners.closed.expired"));
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase.api.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.mule.module.hbase.api.HBaseServiceException;
+
+/**
+ * Test for {@link TableHandlePool}
+ */
+public class TableHandlePoolUnitTest
+{
+    private HTableInterfaceFactory factory;
+    private HTableInterface first;
+    private HTableInterface second;
+
+    @Before
+    public void before()
+    {
+        factory = mock(HTableInterfaceFactory.class);
+        first = mock(HTableInterface.class);
+        second = mock(HTableInterface.class);
+        when(factory.createHTableInterface(any(Configuration.class), any(byte[].class))).thenReturn(first, second);
+    }
+
+    @Test
+    public void testReusesReleasedHandles()
+    {
+        TableHandlePool pool = new TableHandlePool(factory, new Configuration(false), 2, 100, 60000);
+        HTableInterface table = pool.borrow("t1");
+        pool.release("t1", table);
+        assertSame(table, pool.borrow("t1"));
+        assertEquals(1L, pool.getStatistics().get("tablePool.created"));
+    }
+
+    @Test
+    public void testFailsWhenExhausted()
+    {
+        TableHandlePool pool = new TableHandlePool(factory, new Configuration(false), 1, 10, 60000);
+        pool.borrow("t1");
+        try
+        {
+            pool.borrow("t1");
+            fail("pool should be exhausted");
+        }
+        catch (HBaseServiceException e)
+        {
+            assertEquals(1L, pool.getStatistics().get("tablePool.exhausted"));
+        }
+    }
+
+    @Test
+    public void testEvictsIdleHandles() throws Exception
+    {
+        TableHandlePool pool = new TableHandlePool(factory, new Configuration(false), 2, 100, 0);
+        HTableInterface table = pool.borrow("t1");
+        pool.release("t1", table);
+        Thread.sleep(5);
+        assertNotSame(table, pool.borrow("t1"));
+        verify(factory).releaseHTableInterface(table);
+    }
+
+    @Test
+    public void testInvalidatedHandlesAreNotReused() throws Exception
+    {
+        TableHandlePool pool = new TableHandlePool(factory, new Configuration(false), 1, 100, 60000);
+        HTableInterface table = pool.borrow("t1");
+        pool.invalidate("t1", table);
+        verify(factory).releaseHTableInterface(table);
+        assertSame(second, pool.borrow("t1"));
+    }
+
+    @Test
+    public void testHandlesReleasedAfterClosingAreDestroyed() throws Exception
+    {
+        TableHandlePool pool = new TableHandlePool(factory, new Configuration(false), 2, 100, 60000);
+        HTableInterface table = pool.borrow("t1");
+        pool.close();
+        pool.release("t1", table);
+        verify(factory).releaseHTableInterface(table);
+        assertEquals(0, pool.getStatistics().get("tablePool.idle"));
+        assertEquals(0, pool.getStatistics().get("tablePool.active"));
+    }
+}
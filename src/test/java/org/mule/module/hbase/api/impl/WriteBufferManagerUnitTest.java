@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.hbase.api.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Test for {@link WriteBufferManager}
+ */
+public class WriteBufferManagerUnitTest
+{
+    private HTableInterfaceFactory factory;
+    private HTableInterface table;
+    private WriteBufferManager buffers;
+
+    @Before
+    public void before()
+    {
+        factory = mock(HTableInterfaceFactory.class);
+        table = mock(HTableInterface.class);
+        when(factory.createHTableInterface(any(Configuration.class), any(byte[].class))).thenReturn(table);
+        buffers = new WriteBufferManager(Collections.singleton("t1"), factory, new Configuration(false),
+            1024 * 1024, 2, 60000);
+    }
+
+    @After
+    public void after()
+    {
+        buffers.close();
+    }
+
+    @Test
+    public void testOnlyListedTablesAreBuffered()
+    {
+        assertTrue(buffers.isBuffered("t1"));
+        assertFalse(buffers.isBuffered("t2"));
+    }
+
+    @Test
+    public void testFlushesWhenMaxRowsIsReached() throws Exception
+    {
+        buffers.add("t1", put("r1"));
+        verify(table).setAutoFlush(false, true);
+        verify(table, never()).flushCommits();
+        assertEquals(1, buffers.getStatistics().get("writeBuffer.t1.pendingRows"));
+
+        buffers.add("t1", put("r2"));
+        verify(table).put(anyListOf(Put.class));
+        verify(table).flushCommits();
+        assertEquals(0, buffers.getStatistics().get("writeBuffer.t1.pendingRows"));
+        assertEquals(2L, buffers.getStatistics().get("writeBuffer.t1.flushedRows"));
+    }
+
+    @Test
+    public void testExplicitFlush() throws Exception
+    {
+        buffers.add("t1", put("r1"));
+        buffers.flush("t1");
+        verify(table).flushCommits();
+        assertEquals(1L, buffers.getStatistics().get("writeBuffer.t1.flushes"));
+    }
+
+    @Test
+    public void testFailedFlushKeepsThePutsAndReportsTheFailureUntilAFlushSucceeds() throws Exception
+    {
+        doThrow(new IOException("region server down")).doNothing().when(table).flushCommits();
+        buffers.add("t1", put("r1"));
+        try
+        {
+            buffers.add("t1", put("r2"));
+            fail();
+        }
+        catch (IOException e)
+        {
+            assertEquals("region server down", e.getMessage());
+        }
+        assertEquals(2, buffers.getStatistics().get("writeBuffer.t1.pendingRows"));
+        assertEquals(1L, buffers.getStatistics().get("writeBuffer.t1.failedFlushes"));
+        try
+        {
+            buffers.add("t1", put("r3"));
+            fail();
+        }
+        catch (IOException e)
+        {
+            assertEquals("region server down", e.getCause().getMessage());
+        }
+
+        buffers.flush("t1");
+        assertEquals(0, buffers.getStatistics().get("writeBuffer.t1.pendingRows"));
+        assertEquals(2L, buffers.getStatistics().get("writeBuffer.t1.flushedRows"));
+        buffers.add("t1", put("r3"));
+        assertEquals(1, buffers.getStatistics().get("writeBuffer.t1.pendingRows"));
+    }
+
+    @Test
+    public void testFailedLingerFlushIsReportedToTheNextPut() throws Exception
+    {
+        buffers.close();
+        buffers = new WriteBufferManager(Collections.singleton("t1"), factory, new Configuration(false),
+            1024 * 1024, 100, 10);
+        final AtomicBoolean down = new AtomicBoolean(true);
+        doAnswer(new Answer<Void>()
+        {
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                if (down.get())
+                {
+                    throw new IOException("region server down");
+                }
+                return null;
+            }
+        }).when(table).flushCommits();
+        buffers.add("t1", put("r1"));
+        verify(table, timeout(2000).atLeast(1)).flushCommits();
+        try
+        {
+            buffers.add("t1", put("r2"));
+            fail();
+        }
+        catch (IOException e)
+        {
+            assertEquals("region server down", e.getCause().getMessage());
+        }
+        assertEquals(1, buffers.getStatistics().get("writeBuffer.t1.pendingRows"));
+
+        down.set(false);
+        buffers.flush("t1");
+        assertEquals(0, buffers.getStatistics().get("writeBuffer.t1.pendingRows"));
+    }
+
+    private static Put put(String row)
+    {
+        Put put = new Put(Bytes.toBytes(row));
+        put.add(Bytes.toBytes("f"), Bytes.toBytes("q"), Bytes.toBytes("v"));
+        return put;
+    }
+}
@@ -0,0 +1,287 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.wrapper.hbase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+/**
+ * Test for {@link ResultWrapper}
+ */
+public class ResultWrapperUnitTest
+{
+    private static final byte[] F1 = Bytes.toBytes("f1");
+    private static final byte[] F2 = Bytes.toBytes("f2");
+
+    @Test
+    public void testFindsTheLatestVersionOfEachColumn()
+    {
+        ResultWrapper result = row("row", 3);
+        assertArrayEquals(Bytes.toBytes("row/f1/q1/v2"), result.getValue(F1, Bytes.toBytes("q1")));
+        assertArrayEquals(Bytes.toBytes("row/f2/q0/v2"), result.getValue(F2, Bytes.toBytes("q0")));
+        assertEquals(2, result.getColumnCells(F1, Bytes.toBytes("q2")).size());
+        assertTrue(result.containsColumn(F2, Bytes.toBytes("q2")));
+    }
+
+    @Test
+    public void testMissesAbsentColumns()
+    {
+        ResultWrapper result = row("row", 3);
+        assertNull(result.getValue(F1, Bytes.toBytes("q3")));
+        assertNull(result.getValue(Bytes.toBytes("f0"), Bytes.toBytes("q1")));
+        assertNull(result.getColumnLatestCell(Bytes.toBytes("f3"), Bytes.toBytes("q1")));
+        assertFalse(result.containsColumn(F1, Bytes.toBytes("q")));
+        assertTrue(result.getColumnCells(F2, null).isEmpty());
+        assertNull(ResultWrapper.EMPTY_RESULT.getValue(F1, Bytes.toBytes("q1")));
+    }
+
+    @Test
+    public void testMapsAreViewsOfTheCells()
+    {
+        ResultWrapper result = row("row", 3);
+        NavigableMap<byte[], NavigableMap<byte[], NavigableMap<Long, byte[]>>> map = result.getMap();
+        assertEquals(2, map.size());
+        assertArrayEquals(F1, map.firstKey());
+        assertArrayEquals(F2, map.lastKey());
+        NavigableMap<Long, byte[]> versions = map.get(F2).get(Bytes.toBytes("q1"));
+        assertEquals(Long.valueOf(2), versions.firstKey());
+        assertArrayEquals(Bytes.toBytes("row/f2/q1/v1"), versions.get(1L));
+        assertNull(map.get(Bytes.toBytes("f0")));
+        assertEquals(1, map.tailMap(F1, false).size());
+
+        NavigableMap<byte[], byte[]> family = result.getNoVersionMap().get(F1);
+        assertEquals(3, family.size());
+        assertArrayEquals(Bytes.toBytes("row/f1/q2/v2"), family.get(Bytes.toBytes("q2")));
+        assertArrayEquals(Bytes.toBytes("q1"), family.higherKey(Bytes.toBytes("q0")));
+        assertArrayEquals(Bytes.toBytes("q2"), family.floorKey(Bytes.toBytes("q3")));
+        assertEquals(2, family.headMap(Bytes.toBytes("q1"), true).size());
+
+        List<String> qualifiers = new ArrayList<String>();
+        for (Map.Entry<byte[], byte[]> entry : result.getFamilyMap(F2).entrySet())
+        {
+            qualifiers.add(Bytes.toString(entry.getKey()));
+        }
+        assertEquals(Arrays.asList("q0", "q1", "q2"), qualifiers);
+        assertTrue(result.getFamilyMap(Bytes.toBytes("f0")).isEmpty());
+        assertNull(ResultWrapper.EMPTY_RESULT.getMap());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testMapsAreReadOnly()
+    {
+        row("row", 1).getFamilyMap(F1).put(Bytes.toBytes("q9"), Bytes.toBytes("v"));
+    }
+
+    @Test
+    public void testKeySetsAreViewsThatDoNotBuildTheValues()
+    {
+        final int[] built = {0};
+        Cell[] cells = row("row", 3).rawCells();
+        NavigableMap<byte[], Integer> families = CellGroupMap.group(cells, 0, cells.length,
+            CellGroupMap.Grouping.FAMILY, new CellGroupMap.GroupValue<Integer>()
+            {
+                public Integer valueOf(Cell[] cells, int from, int to)
+                {
+                    built[0]++;
+                    return to - from;
+                }
+            });
+        List<String> keys = new ArrayList<String>();
+        for (byte[] key : families.keySet())
+        {
+            keys.add(Bytes.toString(key));
+        }
+        for (byte[] key : families.descendingKeySet())
+        {
+            keys.add(Bytes.toString(key));
+        }
+        assertEquals(Arrays.asList("f1", "f2", "f2", "f1"), keys);
+        assertArrayEquals(F1, families.descendingKeySet().higher(F2));
+        assertEquals(1, families.navigableKeySet().tailSet(F1, false).size());
+        assertTrue(families.keySet().contains(F2));
+        assertEquals(0, built[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSubMapsRejectReversedBounds()
+    {
+        row("row", 3).getFamilyMap(F1).subMap(Bytes.toBytes("q2"), Bytes.toBytes("q1"));
+    }
+
+    @Test
+    public void testDecodesTypedValues()
+    {
+        List<Cell> cells = new ArrayList<Cell>();
+        cells.add(cell("b", Bytes.toBytes(true)));
+        cells.add(cell("d", Bytes.toBytes(2.5d)));
+        cells.add(cell("i", Bytes.toBytes(42)));
+        cells.add(cell("l", Bytes.toBytes(1L << 40)));
+        cells.add(cell("s", Bytes.toBytes("caf\u00e9")));
+        ResultWrapper result = ResultWrapper.create(cells);
+
+        assertTrue(result.getBoolean(F1, Bytes.toBytes("b")));
+        assertEquals(2.5d, result.getDouble("f1", "d"), 0);
+        assertEquals(42, result.getInt(F1, Bytes.toBytes("i")));
+        assertEquals(1L << 40, result.getLong("f1", "l"));
+        assertEquals("caf\u00e9", result.getString("f1", "s"));
+        assertEquals("caf\u00c3\u00a9", result.getString(F1, Bytes.toBytes("s"), "ISO-8859-1"));
+        assertNull(result.getString("f1", "x"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTypedValuesRequireTheColumn()
+    {
+        row("row", 1).getLong("f1", "q9");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTypedValuesRequireTheirSize()
+    {
+        ResultWrapper.create(new Cell[]{cell("i", Bytes.toBytes(42))}).getLong("f1", "i");
+    }
+
+    @Test
+    public void testSerializesCompactly() throws Exception
+    {
+        ResultWrapper result = row("row", 10);
+        byte[] serialized = serialize(result);
+        int keyValueBytes = 0;
+        for (Cell cell : result.rawCells())
+        {
+            keyValueBytes += ((KeyValue) cell).getLength();
+        }
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        ResultWrapperCodec.write(result, new DataOutputStream(encoded));
+        assertTrue(encoded.size() < keyValueBytes * 2 / 3);
+        assertTrue(serialized.length < keyValueBytes);
+
+        ResultWrapper copy = deserialize(serialized);
+        assertEquals(result.size(), copy.size());
+        for (int i = 0; i < result.size(); i++)
+        {
+            assertTrue(CellUtil.equals(result.rawCells()[i], copy.rawCells()[i]));
+            assertEquals(result.rawCells()[i].getTimestamp(), copy.rawCells()[i].getTimestamp());
+            assertArrayEquals(CellUtil.cloneValue(result.rawCells()[i]), CellUtil.cloneValue(copy.rawCells()[i]));
+        }
+        assertArrayEquals(Bytes.toBytes("row/f2/q9/v2"), copy.getValue(F2, Bytes.toBytes("q9")));
+        assertNull(copy.getExists());
+    }
+
+    @Test
+    public void testSerializesEmptyResults() throws Exception
+    {
+        assertNull(deserialize(serialize(new ResultWrapper())).rawCells());
+        ResultWrapper exists = ResultWrapper.create(new Cell[0]);
+        exists.setExists(true);
+        ResultWrapper copy = deserialize(serialize(exists));
+        assertTrue(copy.isEmpty());
+        assertTrue(copy.getExists());
+    }
+
+    @Test
+    public void testConcurrentLookupsOnRowsOfDifferentLengths() throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try
+        {
+            List<Future<Void>> lookups = new ArrayList<Future<Void>>();
+            for (int i = 0; i < 8; i++)
+            {
+                final String key = "row" + StringUtils.repeat("x", i * 100);
+                lookups.add(executor.submit(new Callable<Void>()
+                {
+                    public Void call() throws Exception
+                    {
+                        ResultWrapper result = row(key, 10);
+                        for (int j = 0; j < 10000; j++)
+                        {
+                            String qualifier = "q" + (j % 10);
+                            assertArrayEquals(Bytes.toBytes(key + "/f2/" + qualifier + "/v2"), result.getValue(F2,
+                                Bytes.toBytes(qualifier)));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> lookup : lookups)
+            {
+                lookup.get();
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /** A row with two families of the given amount of columns, with two versions each */
+    private static ResultWrapper row(String key, int columns)
+    {
+        List<Cell> cells = new ArrayList<Cell>();
+        for (byte[] family : new byte[][]{F1, F2})
+        {
+            for (int q = 0; q < columns; q++)
+            {
+                String column = key + "/" + Bytes.toString(family) + "/q" + q;
+                for (long version = 2; version > 0; version--)
+                {
+                    cells.add(new KeyValue(Bytes.toBytes(key), family, Bytes.toBytes("q" + q), version,
+                        Bytes.toBytes(column + "/v" + version)));
+                }
+            }
+        }
+        return ResultWrapper.create(cells);
+    }
+
+    private static byte[] serialize(ResultWrapper result) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(result);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static ResultWrapper deserialize(byte[] serialized) throws Exception
+    {
+        return (ResultWrapper) new ObjectInputStream(new ByteArrayInputStream(serialized)).readObject();
+    }
+
+    /** A cell of family f1 with the given qualifier, whose value sits at an offset of its backing array */
+    private static Cell cell(String qualifier, byte[] value)
+    {
+        return new KeyValue(Bytes.toBytes("row"), F1, Bytes.toBytes(qualifier), 1L, value);
+    }
+}